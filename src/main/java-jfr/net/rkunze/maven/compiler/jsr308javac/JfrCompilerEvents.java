@@ -0,0 +1,215 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * {@link CompilerEvents} as JDK Flight Recorder events, in the category
+ * "Maven / JSR 308 Compiler".
+ * <p>
+ * Only compiled by the <code>jfr</code> profiles, and only instantiated (by
+ * reflection) if the JVM has <code>jdk.jfr</code>.
+ */
+final class JfrCompilerEvents
+    extends CompilerEvents
+{
+    private static final String PREFIX = "net.rkunze.jsr308.";
+
+    private static final class EventSpan
+        extends Span
+    {
+        private final Event event;
+
+        EventSpan( Event event )
+        {
+            this.event = event;
+            event.begin();
+        }
+
+        @Override
+        void end()
+        {
+            event.end();
+            if ( event.shouldCommit() )
+            {
+                event.commit();
+            }
+        }
+    }
+
+    @Name( PREFIX + "LoaderCreation" )
+    @Label( "Javac Loader Creation" )
+    @Category( { "Maven", "JSR 308 Compiler" } )
+    @StackTrace( false )
+    static final class LoaderCreationEvent
+        extends Event
+    {
+    }
+
+    @Name( PREFIX + "JavacBorrow" )
+    @Label( "Javac Borrowed" )
+    @Category( { "Maven", "JSR 308 Compiler" } )
+    @StackTrace( false )
+    static final class JavacBorrowEvent
+        extends Event
+    {
+        @Label( "Reused" )
+        @Description( "The javac instance was used by an earlier compile" )
+        boolean reused;
+    }
+
+    @Name( PREFIX + "JavacReturn" )
+    @Label( "Javac Returned" )
+    @Category( { "Maven", "JSR 308 Compiler" } )
+    @StackTrace( false )
+    static final class JavacReturnEvent
+        extends Event
+    {
+        @Label( "Pooled" )
+        @Description( "The javac instance is kept for later compiles" )
+        boolean pooled;
+    }
+
+    @Name( PREFIX + "ArgumentBuilding" )
+    @Label( "Argument Building" )
+    @Category( { "Maven", "JSR 308 Compiler" } )
+    @StackTrace( false )
+    static final class ArgumentBuildingEvent
+        extends Event
+    {
+        @Label( "Output Directory" )
+        String outputDirectory;
+    }
+
+    @Name( PREFIX + "Compile" )
+    @Label( "Module Compile" )
+    @Category( { "Maven", "JSR 308 Compiler" } )
+    @StackTrace( false )
+    static final class CompileEvent
+        extends Event
+    {
+        @Label( "Output Directory" )
+        String outputDirectory;
+
+        @Label( "Source Files" )
+        int sourceFiles;
+    }
+
+    @Name( PREFIX + "DiagnosticParsing" )
+    @Label( "Diagnostic Parsing" )
+    @Category( { "Maven", "JSR 308 Compiler" } )
+    @StackTrace( false )
+    static final class DiagnosticParsingEvent
+        extends Event
+    {
+        @Label( "Characters" )
+        int characters;
+    }
+
+    @Name( PREFIX + "CheckerAnalysis" )
+    @Label( "Checker Analysis" )
+    @Category( { "Maven", "JSR 308 Compiler" } )
+    @StackTrace( false )
+    static final class CheckerAnalysisEvent
+        extends Event
+    {
+        @Label( "Source File" )
+        String sourceFile;
+
+        @Label( "Class" )
+        String className;
+
+        @Label( "Checkers" )
+        String checkers;
+    }
+
+    @Override
+    boolean isRecordingCheckerAnalysis()
+    {
+        return new CheckerAnalysisEvent().isEnabled();
+    }
+
+    @Override
+    Span loaderCreation()
+    {
+        return new EventSpan( new LoaderCreationEvent() );
+    }
+
+    @Override
+    void javacBorrowed( boolean reused )
+    {
+        JavacBorrowEvent event = new JavacBorrowEvent();
+        event.reused = reused;
+        event.commit();
+    }
+
+    @Override
+    void javacReturned( boolean pooled )
+    {
+        JavacReturnEvent event = new JavacReturnEvent();
+        event.pooled = pooled;
+        event.commit();
+    }
+
+    @Override
+    Span argumentBuilding( String outputDirectory )
+    {
+        ArgumentBuildingEvent event = new ArgumentBuildingEvent();
+        event.outputDirectory = outputDirectory;
+        return new EventSpan( event );
+    }
+
+    @Override
+    Span compile( String outputDirectory, int sourceFiles )
+    {
+        CompileEvent event = new CompileEvent();
+        event.outputDirectory = outputDirectory;
+        event.sourceFiles = sourceFiles;
+        return new EventSpan( event );
+    }
+
+    @Override
+    Span diagnosticParsing( int characters )
+    {
+        DiagnosticParsingEvent event = new DiagnosticParsingEvent();
+        event.characters = characters;
+        return new EventSpan( event );
+    }
+
+    @Override
+    Span checkerAnalysis( String sourceFile, String className, String checkers )
+    {
+        CheckerAnalysisEvent event = new CheckerAnalysisEvent();
+        event.sourceFile = sourceFile;
+        event.className = className;
+        event.checkers = checkers;
+        return new EventSpan( event );
+    }
+}
@@ -53,6 +53,7 @@ public class ClasspathConfig {
     
     static File getCompilerJar() { return repositoryPath("${org.checkerframework:compiler:jar.relative.repository}"); }
     static File getCheckerJar() { return repositoryPath("${org.checkerframework:checker:jar.relative.repository}"); }
+    static File getCheckerQualJar() { return repositoryPath("${org.checkerframework:checker-qual:jar.relative.repository}"); }
     static File getAnnotatedJDK(String jdkVersion) throws CompilerException {
         if (jdkVersion.startsWith("1.7.")) {
             return repositoryPath("${org.checkerframework:jdk7:jar.relative.repository}");
@@ -0,0 +1,740 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Fingerprint of the ABI of a classpath entry, i.e. of everything in it that can
+ * influence how code compiled against it is compiled and checked.
+ * <p>
+ * The fingerprint covers the public and protected signatures of all public classes
+ * together with their annotations (including type annotations, which the checkers
+ * rely on), generic signatures, thrown exceptions, constant values and annotation
+ * defaults. Method bodies, debug information, private members and the order of
+ * members in the class file are ignored. Annotation processor registrations in
+ * <code>META-INF/services</code> are included, because they change what runs
+ * during the compile.
+ */
+final class AbiFingerprint
+{
+    static final String MISSING = "missing";
+
+    private static final int ACC_PUBLIC = 0x0001;
+
+    private static final int ACC_PROTECTED = 0x0004;
+
+    private static final int ACC_SYNTHETIC = 0x1000;
+
+    // public, final, interface, abstract, annotation, enum
+    private static final int CLASS_FLAGS = 0x0001 | 0x0010 | 0x0200 | 0x0400 | 0x2000 | 0x4000;
+
+    // public, protected, static, final, varargs/transient, abstract
+    private static final int MEMBER_FLAGS = 0x0001 | 0x0004 | 0x0008 | 0x0010 | 0x0080 | 0x0400;
+
+    private static final String SERVICES = "META-INF/services/";
+
+    private static final String PROCESSOR_SERVICE = SERVICES + "javax.annotation.processing.Processor";
+
+    private AbiFingerprint()
+    {
+    }
+
+    /**
+     * Fingerprint of a jar file or class directory. Jar fingerprints are cached in
+     * <code>index</code> as a whole, for class directories every class file is cached
+     * on its own.
+     */
+    static String of( File entry, FingerprintIndex index )
+        throws IOException
+    {
+        if ( !entry.exists() )
+        {
+            return MISSING;
+        }
+        if ( entry.isDirectory() )
+        {
+            return ofDirectory( entry, index );
+        }
+        String hash = index.get( entry );
+        if ( hash == null )
+        {
+            long size = entry.length();
+            long lastModified = entry.lastModified();
+            hash = ofJar( entry );
+            index.put( entry, size, lastModified, hash );
+        }
+        return hash;
+    }
+
+    private static String ofJar( File jar )
+        throws IOException
+    {
+        Map<String, byte[]> parts = new TreeMap<String, byte[]>();
+        // Annotation processors run their method bodies during the compile, so for
+        // jars that provide one every byte counts.
+        MessageDigest content = Hashes.newDigest();
+        boolean processors = false;
+        try ( ZipFile zip = new ZipFile( jar ) )
+        {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while ( entries.hasMoreElements() )
+            {
+                ZipEntry entry = entries.nextElement();
+                String name = entry.getName();
+                if ( entry.isDirectory() || !isRelevant( name ) )
+                {
+                    continue;
+                }
+                byte[] bytes;
+                try ( InputStream in = zip.getInputStream( entry ) )
+                {
+                    bytes = IOUtil.toByteArray( in );
+                }
+                processors |= PROCESSOR_SERVICE.equals( name );
+                content.update( name.getBytes( "UTF-8" ) );
+                content.update( bytes );
+                byte[] part = partFingerprint( name, bytes );
+                if ( part != null )
+                {
+                    parts.put( name, part );
+                }
+            }
+        }
+        if ( processors )
+        {
+            parts.put( "", content.digest() );
+        }
+        return combine( parts );
+    }
+
+    private static String ofDirectory( final File dir, final FingerprintIndex index )
+        throws IOException
+    {
+        final Map<String, byte[]> parts = new TreeMap<String, byte[]>();
+        final Path root = dir.toPath();
+        Files.walkFileTree( root, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult visitFile( Path path, BasicFileAttributes attrs )
+                throws IOException
+            {
+                String name = root.relativize( path ).toString().replace( File.separatorChar, '/' );
+                if ( !isRelevant( name ) )
+                {
+                    return FileVisitResult.CONTINUE;
+                }
+                File file = path.toFile();
+                String hash = index.get( file );
+                if ( hash == null )
+                {
+                    long size = attrs.size();
+                    long lastModified = file.lastModified();
+                    byte[] part = partFingerprint( name, Files.readAllBytes( path ) );
+                    hash = part == null ? "" : Hashes.toHex( part );
+                    index.put( file, size, lastModified, hash );
+                }
+                if ( hash.length() > 0 )
+                {
+                    parts.put( name, hash.getBytes( "UTF-8" ) );
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        } );
+        return combine( parts );
+    }
+
+    private static boolean isRelevant( String name )
+    {
+        if ( name.startsWith( SERVICES ) )
+        {
+            return true;
+        }
+        return name.endsWith( ".class" ) && !name.endsWith( "module-info.class" )
+            && !name.startsWith( "META-INF/" );
+    }
+
+    private static byte[] partFingerprint( String name, byte[] content )
+        throws IOException
+    {
+        if ( name.startsWith( SERVICES ) )
+        {
+            return Hashes.newDigest().digest( content );
+        }
+        return classFingerprint( content );
+    }
+
+    private static String combine( Map<String, byte[]> parts )
+        throws IOException
+    {
+        MessageDigest digest = Hashes.newDigest();
+        DataOutputStream out = Hashes.digestStream( digest );
+        for ( Map.Entry<String, byte[]> part : parts.entrySet() )
+        {
+            out.writeUTF( part.getKey() );
+            out.write( part.getValue() );
+        }
+        out.flush();
+        return Hashes.toHex( digest.digest() );
+    }
+
+    /**
+     * @return the ABI fingerprint of a single class file, or <code>null</code> if the
+     * class is not visible outside of its package.
+     * @throws IOException if <code>bytes</code> is not a valid class file
+     */
+    static byte[] classFingerprint( byte[] bytes )
+        throws IOException
+    {
+        try
+        {
+            return new ClassAbi( bytes ).fingerprint();
+        }
+        catch ( BufferUnderflowException e )
+        {
+            throw new IOException( "Truncated class file", e );
+        }
+        catch ( IndexOutOfBoundsException | IllegalArgumentException e )
+        {
+            throw new IOException( "Invalid class file", e );
+        }
+    }
+
+    /**
+     * @return a copy of a class file without the method bodies, which is all javac
+     * needs to compile against the class
+     * @throws IOException if <code>bytes</code> is not a valid class file
+     */
+    static byte[] stripClass( byte[] bytes )
+        throws IOException
+    {
+        try
+        {
+            return new ClassAbi( bytes ).strip();
+        }
+        catch ( BufferUnderflowException e )
+        {
+            throw new IOException( "Truncated class file", e );
+        }
+        catch ( IndexOutOfBoundsException | IllegalArgumentException e )
+        {
+            throw new IOException( "Invalid class file", e );
+        }
+    }
+
+    /**
+     * Reader for the ABI relevant parts of one class file. All constant pool
+     * references are resolved, so the fingerprint does not depend on the constant
+     * pool layout chosen by the compiler.
+     */
+    private static final class ClassAbi
+    {
+        private final ByteBuffer in;
+
+        private final byte[] bytes;
+
+        private int[] offsets;
+
+        private byte[] tags;
+
+        ClassAbi( byte[] bytes )
+        {
+            this.bytes = bytes;
+            this.in = ByteBuffer.wrap( bytes );
+        }
+
+        byte[] fingerprint()
+            throws IOException
+        {
+            if ( in.getInt() != 0xCAFEBABE )
+            {
+                throw new IOException( "Not a class file" );
+            }
+            in.getShort(); // minor version
+            int major = u2();
+            readConstantPool();
+
+            int access = u2();
+            if ( ( access & ACC_PUBLIC ) == 0 )
+            {
+                return null;
+            }
+
+            MessageDigest digest = Hashes.newDigest();
+            DataOutputStream out = Hashes.digestStream( digest );
+            out.writeShort( major );
+            out.writeShort( access & CLASS_FLAGS );
+            out.writeUTF( className( u2() ) );
+            out.writeUTF( className( u2() ) );
+            int interfaces = u2();
+            for ( int i = 0; i < interfaces; i++ )
+            {
+                out.writeUTF( className( u2() ) );
+            }
+            writeSorted( out, readMembers( 'F' ) );
+            writeSorted( out, readMembers( 'M' ) );
+            writeSorted( out, readAttributes() );
+            out.flush();
+            return digest.digest();
+        }
+
+        byte[] strip()
+            throws IOException
+        {
+            if ( in.getInt() != 0xCAFEBABE )
+            {
+                throw new IOException( "Not a class file" );
+            }
+            in.getInt(); // versions
+            readConstantPool();
+            skip( 6 ); // access, this and super class
+            skip( 2 * u2() );
+            int fields = u2();
+            for ( int i = 0; i < fields; i++ )
+            {
+                skip( 6 );
+                skipAttributes();
+            }
+
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream( bytes.length );
+            DataOutputStream out = new DataOutputStream( buffer );
+            out.write( bytes, 0, in.position() );
+            int methods = u2();
+            out.writeShort( methods );
+            for ( int i = 0; i < methods; i++ )
+            {
+                copy( out, 6 ); // access, name and descriptor
+                int count = u2();
+                int start = in.position();
+                int kept = count;
+                for ( int j = 0; j < count; j++ )
+                {
+                    kept -= "Code".equals( utf8( u2() ) ) ? 1 : 0;
+                    skip( in.getInt() );
+                }
+                out.writeShort( kept );
+                seek( start );
+                for ( int j = 0; j < count; j++ )
+                {
+                    int attributeStart = in.position();
+                    String name = utf8( u2() );
+                    skip( in.getInt() );
+                    if ( !"Code".equals( name ) )
+                    {
+                        out.write( bytes, attributeStart, in.position() - attributeStart );
+                    }
+                }
+            }
+            int classAttributesStart = in.position();
+            skipAttributes();
+            out.write( bytes, classAttributesStart, in.position() - classAttributesStart );
+            out.flush();
+            return buffer.toByteArray();
+        }
+
+        private void skipAttributes()
+        {
+            int count = u2();
+            for ( int i = 0; i < count; i++ )
+            {
+                in.getShort();
+                skip( in.getInt() );
+            }
+        }
+
+        private void skip( int length )
+        {
+            seek( in.position() + length );
+        }
+
+        private Map<String, byte[]> readMembers( char kind )
+            throws IOException
+        {
+            Map<String, byte[]> members = new TreeMap<String, byte[]>();
+            int count = u2();
+            for ( int i = 0; i < count; i++ )
+            {
+                int access = u2();
+                String name = utf8( u2() );
+                String descriptor = utf8( u2() );
+                Map<String, byte[]> attributes = readAttributes();
+                if ( ( access & ( ACC_PUBLIC | ACC_PROTECTED ) ) == 0 || ( access & ACC_SYNTHETIC ) != 0 )
+                {
+                    continue;
+                }
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream( buffer );
+                out.writeShort( access & MEMBER_FLAGS );
+                writeSorted( out, attributes );
+                out.flush();
+                members.put( kind + name + descriptor, buffer.toByteArray() );
+            }
+            return members;
+        }
+
+        private Map<String, byte[]> readAttributes()
+            throws IOException
+        {
+            Map<String, byte[]> attributes = new TreeMap<String, byte[]>();
+            int count = u2();
+            for ( int i = 0; i < count; i++ )
+            {
+                String name = utf8( u2() );
+                int length = in.getInt();
+                int end = in.position() + length;
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream( buffer );
+                if ( readAttribute( name, out ) )
+                {
+                    out.flush();
+                    attributes.put( name, buffer.toByteArray() );
+                }
+                seek( end );
+            }
+            return attributes;
+        }
+
+        /**
+         * @return <code>false</code> if the attribute is not part of the ABI
+         */
+        private boolean readAttribute( String name, DataOutputStream out )
+            throws IOException
+        {
+            if ( "Signature".equals( name ) )
+            {
+                out.writeUTF( utf8( u2() ) );
+            }
+            else if ( "ConstantValue".equals( name ) )
+            {
+                out.writeUTF( constant( u2() ) );
+            }
+            else if ( "Exceptions".equals( name ) )
+            {
+                Map<String, byte[]> exceptions = new TreeMap<String, byte[]>();
+                int count = u2();
+                for ( int i = 0; i < count; i++ )
+                {
+                    exceptions.put( className( u2() ), new byte[0] );
+                }
+                writeSorted( out, exceptions );
+            }
+            else if ( "AnnotationDefault".equals( name ) )
+            {
+                elementValue( out );
+            }
+            else if ( "Deprecated".equals( name ) )
+            {
+                out.writeBoolean( true );
+            }
+            else if ( "RuntimeVisibleAnnotations".equals( name ) || "RuntimeInvisibleAnnotations".equals( name ) )
+            {
+                annotations( out );
+            }
+            else if ( "RuntimeVisibleParameterAnnotations".equals( name )
+                || "RuntimeInvisibleParameterAnnotations".equals( name ) )
+            {
+                int parameters = in.get() & 0xff;
+                out.writeByte( parameters );
+                for ( int i = 0; i < parameters; i++ )
+                {
+                    annotations( out );
+                }
+            }
+            else if ( "RuntimeVisibleTypeAnnotations".equals( name )
+                || "RuntimeInvisibleTypeAnnotations".equals( name ) )
+            {
+                int count = u2();
+                out.writeShort( count );
+                for ( int i = 0; i < count; i++ )
+                {
+                    typeAnnotation( out );
+                }
+            }
+            else if ( "InnerClasses".equals( name ) )
+            {
+                int count = u2();
+                for ( int i = 0; i < count; i++ )
+                {
+                    int inner = u2();
+                    int outer = u2();
+                    int innerName = u2();
+                    int access = u2();
+                    if ( ( access & ( ACC_PUBLIC | ACC_PROTECTED ) ) != 0 )
+                    {
+                        out.writeUTF( className( inner ) );
+                        out.writeUTF( className( outer ) );
+                        out.writeUTF( innerName == 0 ? "" : utf8( innerName ) );
+                        out.writeShort( access & MEMBER_FLAGS );
+                    }
+                }
+            }
+            else
+            {
+                return false;
+            }
+            return true;
+        }
+
+        private void annotations( DataOutputStream out )
+            throws IOException
+        {
+            int count = u2();
+            out.writeShort( count );
+            for ( int i = 0; i < count; i++ )
+            {
+                annotation( out );
+            }
+        }
+
+        private void annotation( DataOutputStream out )
+            throws IOException
+        {
+            out.writeUTF( utf8( u2() ) );
+            int pairs = u2();
+            out.writeShort( pairs );
+            for ( int i = 0; i < pairs; i++ )
+            {
+                out.writeUTF( utf8( u2() ) );
+                elementValue( out );
+            }
+        }
+
+        private void elementValue( DataOutputStream out )
+            throws IOException
+        {
+            int tag = in.get() & 0xff;
+            out.writeByte( tag );
+            switch ( tag )
+            {
+                case 'e':
+                    out.writeUTF( utf8( u2() ) );
+                    out.writeUTF( utf8( u2() ) );
+                    break;
+                case 'c':
+                    out.writeUTF( utf8( u2() ) );
+                    break;
+                case '@':
+                    annotation( out );
+                    break;
+                case '[':
+                    int count = u2();
+                    out.writeShort( count );
+                    for ( int i = 0; i < count; i++ )
+                    {
+                        elementValue( out );
+                    }
+                    break;
+                default:
+                    out.writeUTF( constant( u2() ) );
+            }
+        }
+
+        private void typeAnnotation( DataOutputStream out )
+            throws IOException
+        {
+            int targetType = in.get() & 0xff;
+            out.writeByte( targetType );
+            int targetInfoLength;
+            switch ( targetType )
+            {
+                case 0x00:
+                case 0x01:
+                case 0x16:
+                    targetInfoLength = 1;
+                    break;
+                case 0x10:
+                case 0x17:
+                case 0x42:
+                case 0x43:
+                case 0x44:
+                case 0x45:
+                case 0x46:
+                case 0x11:
+                case 0x12:
+                    targetInfoLength = 2;
+                    break;
+                case 0x13:
+                case 0x14:
+                case 0x15:
+                    targetInfoLength = 0;
+                    break;
+                case 0x40:
+                case 0x41:
+                    targetInfoLength = 2 + 6 * ( in.getShort( in.position() ) & 0xffff );
+                    break;
+                case 0x47:
+                case 0x48:
+                case 0x49:
+                case 0x4A:
+                case 0x4B:
+                    targetInfoLength = 3;
+                    break;
+                default:
+                    throw new IOException( "Unknown type annotation target " + targetType );
+            }
+            copy( out, targetInfoLength );
+            int pathLength = in.get() & 0xff;
+            out.writeByte( pathLength );
+            copy( out, 2 * pathLength );
+            annotation( out );
+        }
+
+        private void copy( DataOutputStream out, int length )
+            throws IOException
+        {
+            out.write( bytes, in.position(), length );
+            seek( in.position() + length );
+        }
+
+        private void readConstantPool()
+        {
+            int count = u2();
+            offsets = new int[count];
+            tags = new byte[count];
+            for ( int i = 1; i < count; i++ )
+            {
+                byte tag = in.get();
+                tags[i] = tag;
+                offsets[i] = in.position();
+                switch ( tag )
+                {
+                    case 1:
+                        seek( in.position() + 2 + u2() );
+                        break;
+                    case 7:
+                    case 8:
+                    case 16:
+                    case 19:
+                    case 20:
+                        seek( in.position() + 2 );
+                        break;
+                    case 15:
+                        seek( in.position() + 3 );
+                        break;
+                    case 5:
+                    case 6:
+                        seek( in.position() + 8 );
+                        i++;
+                        break;
+                    default:
+                        // Integer, Float, field and method refs, NameAndType, (Invoke)Dynamic
+                        seek( in.position() + 4 );
+                }
+            }
+        }
+
+        private String utf8( int index )
+            throws IOException
+        {
+            if ( tags[index] != 1 )
+            {
+                throw new IOException( "Constant " + index + " is not a string" );
+            }
+            return new DataInputStream( new ByteArrayInputStream( bytes, offsets[index], bytes.length - offsets[index] ) )
+                .readUTF();
+        }
+
+        private String className( int index )
+            throws IOException
+        {
+            if ( index == 0 )
+            {
+                return "";
+            }
+            return utf8( in.getShort( offsets[index] ) & 0xffff );
+        }
+
+        private String constant( int index )
+            throws IOException
+        {
+            int offset = offsets[index];
+            switch ( tags[index] )
+            {
+                case 1:
+                    return utf8( index );
+                case 3:
+                    return "I" + in.getInt( offset );
+                case 4:
+                    return "F" + in.getInt( offset );
+                case 5:
+                    return "J" + in.getLong( offset );
+                case 6:
+                    return "D" + in.getLong( offset );
+                case 7:
+                case 8:
+                    return className( index );
+                default:
+                    throw new IOException( "Unsupported constant type " + tags[index] );
+            }
+        }
+
+        private int u2()
+        {
+            return in.getShort() & 0xffff;
+        }
+
+        /**
+         * Move to <code>position</code>, through {@link Buffer}: built on Java 9 or later,
+         * <code>in.position( position )</code> would link the covariant override of
+         * <code>ByteBuffer</code>, which Java 8 does not have.
+         */
+        private void seek( int position )
+        {
+            ( (Buffer) in ).position( position );
+        }
+    }
+
+    private static void writeSorted( DataOutputStream out, Map<String, byte[]> entries )
+        throws IOException
+    {
+        out.writeInt( entries.size() );
+        for ( Map.Entry<String, byte[]> entry : entries.entrySet() )
+        {
+            out.writeUTF( entry.getKey() );
+            out.writeInt( entry.getValue().length );
+            out.write( entry.getValue() );
+        }
+    }
+}
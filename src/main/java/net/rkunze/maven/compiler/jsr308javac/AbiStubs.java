@@ -0,0 +1,314 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import org.codehaus.plexus.compiler.CompilerConfiguration;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.util.IOUtil;
+import org.codehaus.plexus.util.StringUtils;
+
+/**
+ * Compiles against stub jars that contain only what javac needs from the jars on the
+ * classpath.
+ * <p>
+ * Enabled with <code>-Xjsr308.abiStubs=true</code>. For every jar of the project
+ * classpath, a copy without method bodies (and thus without the debug information in
+ * them) is written to <code>abi-stubs</code> in the cache directory, named by the
+ * content hash of the jar, and the checker compile uses the copy instead. Signatures,
+ * annotations and all other resources are kept. Jars that provide annotation
+ * processors are used as they are, because their code runs during the compile. Class
+ * directories are not stubbed. If no processor path is given, the original classpath
+ * becomes the processor path, so processors are still loaded from the full jars.
+ */
+final class AbiStubs
+{
+    private static final String CLASSPATH = "-classpath";
+
+    private static final String PROCESSORPATH = "-processorpath";
+
+    private static final String PROCESSOR_SERVICE = "META-INF/services/javax.annotation.processing.Processor";
+
+    // Part of the stub names, so stubs of an older format are not used
+    private static final String FORMAT = "1";
+
+    /** Stub paths by content hash of the jar, or "" for jars used as they are. */
+    private static final ConcurrentMap<String, String> STUBS = new ConcurrentHashMap<String, String>();
+
+    /** Stub paths by path, size and modification time of the jar, like {@link #STUBS}. */
+    private static final ConcurrentMap<String, String> STUBS_BY_STAT = new ConcurrentHashMap<String, String>();
+
+    /** The jars the stubs were made from, by stub path. */
+    private static final ConcurrentMap<String, String> ORIGINALS = new ConcurrentHashMap<String, String>();
+
+    private final CompilerConfiguration config;
+
+    private final File cacheDir;
+
+    private AbiStubs( CompilerConfiguration config, File cacheDir )
+    {
+        this.config = config;
+        this.cacheDir = cacheDir;
+    }
+
+    /**
+     * @return the stubs, or <code>null</code> if they are disabled
+     */
+    static AbiStubs create( CompilerConfiguration config, PluginOptions options )
+    {
+        if ( !options.getBoolean( "abiStubs", false ) )
+        {
+            return null;
+        }
+        return new AbiStubs( config, options.getCacheDirectory() );
+    }
+
+    /**
+     * @return the jar a stub was made from, or <code>path</code> itself if it is not a
+     * stub
+     */
+    static String originalOf( String path )
+    {
+        String original = ORIGINALS.get( path );
+        return original == null ? path : original;
+    }
+
+    /**
+     * @return <code>args</code> with the jars of the project classpath replaced by their
+     * stubs, or <code>args</code> itself if there is nothing to replace
+     */
+    String[] apply( String[] args, Logger logger )
+    {
+        List<String> result = new ArrayList<String>( Arrays.asList( args ) );
+        int index = result.indexOf( CLASSPATH );
+        if ( index < 0 || index + 1 >= result.size() || config.getClasspathEntries() == null )
+        {
+            return args;
+        }
+        Set<String> candidates = new HashSet<String>( config.getClasspathEntries() );
+        List<String> classpath = Arrays.asList( result.get( index + 1 ).split( File.pathSeparator ) );
+        List<File> jars = new ArrayList<File>();
+        for ( String entry : classpath )
+        {
+            if ( candidates.contains( entry ) && new File( entry ).isFile() )
+            {
+                jars.add( new File( entry ) );
+            }
+        }
+        if ( jars.isEmpty() )
+        {
+            return args;
+        }
+
+        List<String> stubbed = new ArrayList<String>( classpath );
+        int count = 0;
+        try
+        {
+            // Unchanged jars are found by path, size and modification time; only the
+            // others are hashed, and the hashes are kept for the next build
+            List<File> unknown = new ArrayList<File>();
+            for ( File jar : jars )
+            {
+                String stub = STUBS_BY_STAT.get( statKey( jar ) );
+                if ( stub == null || isMissing( stub ) )
+                {
+                    unknown.add( jar );
+                }
+                else if ( use( jar, stub ) )
+                {
+                    stubbed.set( stubbed.indexOf( jar.getPath() ), stub );
+                    count++;
+                }
+            }
+            if ( !unknown.isEmpty() )
+            {
+                Fingerprinter fingerprinter = Fingerprinter.forCacheDirectory( cacheDir );
+                List<String> hashes = fingerprinter.contentHashes( unknown );
+                for ( int i = 0; i < unknown.size(); i++ )
+                {
+                    File jar = unknown.get( i );
+                    String stub = stubFor( jar, hashes.get( i ) );
+                    STUBS_BY_STAT.put( statKey( jar ), stub );
+                    if ( use( jar, stub ) )
+                    {
+                        stubbed.set( stubbed.indexOf( jar.getPath() ), stub );
+                        count++;
+                    }
+                }
+                fingerprinter.save();
+            }
+        }
+        catch ( IOException e )
+        {
+            logger.debug( "Unable to create ABI stubs, compiling against the full jars: " + e.getMessage() );
+            return args;
+        }
+        if ( count == 0 )
+        {
+            return args;
+        }
+        logger.debug( "Compiling against the ABI stubs of " + count + " of " + jars.size() + " jars" );
+
+        result.set( index + 1, StringUtils.join( stubbed.iterator(), File.pathSeparator ) );
+        if ( !result.contains( PROCESSORPATH ) && !result.contains( "-proc:none" ) )
+        {
+            result.add( PROCESSORPATH );
+            result.add( args[index + 1] );
+        }
+        return result.toArray( new String[result.size()] );
+    }
+
+    /**
+     * @return the path of the stub of <code>jar</code>, or "" if the jar is used as it
+     * is
+     */
+    private String stubFor( File jar, String hash )
+        throws IOException
+    {
+        String stub = STUBS.get( hash );
+        if ( stub == null || isMissing( stub ) )
+        {
+            File file = new File( new File( cacheDir, "abi-stubs" ), hash + "-" + FORMAT + ".jar" );
+            stub = file.isFile() || writeStub( jar, file.toPath() ) ? file.getAbsolutePath() : "";
+            STUBS.put( hash, stub );
+        }
+        return stub;
+    }
+
+    /**
+     * @return whether <code>stub</code> replaces <code>jar</code>
+     */
+    private static boolean use( File jar, String stub )
+    {
+        if ( stub.isEmpty() )
+        {
+            return false;
+        }
+        ORIGINALS.put( stub, jar.getPath() );
+        return true;
+    }
+
+    /**
+     * @return whether the stub file was deleted since it was written, for example by
+     * <code>mvn clean</code> on a cache directory in the build directory
+     */
+    private static boolean isMissing( String stub )
+    {
+        return !stub.isEmpty() && !new File( stub ).isFile();
+    }
+
+    private static String statKey( File jar )
+    {
+        return ProcessorDiscovery.statKey( Collections.singletonList( jar ) );
+    }
+
+    /**
+     * @return <code>false</code> if the jar provides annotation processors or has class
+     * files that cannot be stripped
+     */
+    static boolean writeStub( File jar, Path stub )
+        throws IOException
+    {
+        Files.createDirectories( stub.getParent() );
+        Path temp = Files.createTempFile( stub.getParent(), stub.getFileName().toString(), ".tmp" );
+        try
+        {
+            try ( ZipFile zip = new ZipFile( jar );
+                  ZipOutputStream out = new ZipOutputStream( Files.newOutputStream( temp ) ) )
+            {
+                if ( zip.getEntry( PROCESSOR_SERVICE ) != null )
+                {
+                    return false;
+                }
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while ( entries.hasMoreElements() )
+                {
+                    ZipEntry entry = entries.nextElement();
+                    out.putNextEntry( new ZipEntry( entry.getName() ) );
+                    if ( !entry.isDirectory() && !copyEntry( zip, entry, out ) )
+                    {
+                        return false;
+                    }
+                    out.closeEntry();
+                }
+            }
+            try
+            {
+                Files.move( temp, stub, StandardCopyOption.ATOMIC_MOVE );
+            }
+            catch ( AtomicMoveNotSupportedException e )
+            {
+                Files.move( temp, stub, StandardCopyOption.REPLACE_EXISTING );
+            }
+            return true;
+        }
+        finally
+        {
+            Files.deleteIfExists( temp );
+        }
+    }
+
+    private static boolean copyEntry( ZipFile zip, ZipEntry entry, OutputStream out )
+        throws IOException
+    {
+        try ( InputStream in = zip.getInputStream( entry ) )
+        {
+            String name = entry.getName();
+            if ( !name.endsWith( ".class" ) || name.startsWith( "META-INF/" ) )
+            {
+                IOUtil.copy( in, out );
+                return true;
+            }
+            try
+            {
+                out.write( AbiFingerprint.stripClass( IOUtil.toByteArray( in ) ) );
+                return true;
+            }
+            catch ( IOException e )
+            {
+                // Not a class file javac could read either, leave it to javac
+                return false;
+            }
+        }
+    }
+}
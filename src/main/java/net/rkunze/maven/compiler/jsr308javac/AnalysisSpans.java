@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+
+/**
+ * Reports the time the checkers spend on each class as
+ * {@link CompilerEvents#checkerAnalysis checker analysis} events.
+ * <p>
+ * The checkers analyze a class when javac reports that it finished analyzing it, in
+ * a task listener registered after this one, so the span from that event to the next
+ * one is the time of the checkers.
+ * <p>
+ * This class runs inside the javac class loader.
+ */
+final class AnalysisSpans
+    implements TaskListener
+{
+    private final CompilerEvents events;
+
+    private final String checkers;
+
+    private CompilerEvents.Span span;
+
+    /**
+     * @param checkers class names of the configured checkers, may be <code>null</code>
+     */
+    AnalysisSpans( CompilerEvents events, String[] checkers )
+    {
+        this.events = events;
+        StringBuilder names = new StringBuilder();
+        if ( checkers != null )
+        {
+            for ( String checker : checkers )
+            {
+                names.append( names.length() == 0 ? "" : "," ).append( checker );
+            }
+        }
+        this.checkers = names.toString();
+    }
+
+    public void started( TaskEvent e )
+    {
+        end();
+    }
+
+    public void finished( TaskEvent e )
+    {
+        end();
+        if ( e.getKind() == TaskEvent.Kind.ANALYZE && e.getTypeElement() != null )
+        {
+            span = events.checkerAnalysis( e.getSourceFile() == null ? null : e.getSourceFile().getName(),
+                                           e.getTypeElement().getQualifiedName().toString(), checkers );
+        }
+    }
+
+    /**
+     * End the current span, if any. Must also be called when the compile is done.
+     */
+    void end()
+    {
+        if ( span != null )
+        {
+            span.end();
+            span = null;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * State of a compile started with {@link JavacJSR308Compiler#performCompileAsync}:
+ * its listener and whether it was cancelled.
+ * <p>
+ * The compile runs the normal <code>performCompile</code> on an executor thread; it
+ * finds this state through {@link #current()}. In-process compiles with the JSR 308
+ * compiler pass the listener and the cancellation flag on to the
+ * {@link JavacTaskRunner}, so units are reported as they are analyzed and a
+ * cancelled compile stops between two classes. Other compiles only see the
+ * cancellation before they start.
+ */
+final class AsyncCompile
+{
+    /** Used if the caller does not pass an executor. */
+    static final ExecutorService DEFAULT_EXECUTOR = Executors.newCachedThreadPool( new ThreadFactory()
+    {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread( Runnable r )
+        {
+            Thread thread = new Thread( r, "jsr308-compile-" + count.incrementAndGet() );
+            thread.setDaemon( true );
+            return thread;
+        }
+    } );
+
+    private static final ThreadLocal<AsyncCompile> CURRENT = new ThreadLocal<AsyncCompile>();
+
+    private final CompileListener listener;
+
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+
+    /**
+     * Receives the analyzed source files from the {@link ProgressListener} in the javac
+     * class loader, on the thread that runs the compile. Only <code>add</code> is used.
+     */
+    private final Collection<String> analyzed = new AbstractCollection<String>()
+    {
+        @Override
+        public boolean add( String sourceFile )
+        {
+            listener.unitAnalyzed( sourceFile );
+            return true;
+        }
+
+        @Override
+        public Iterator<String> iterator()
+        {
+            return Collections.<String>emptyList().iterator();
+        }
+
+        @Override
+        public int size()
+        {
+            return 0;
+        }
+    };
+
+    AsyncCompile( CompileListener listener )
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * @return the asynchronous compile running on this thread, or <code>null</code>
+     */
+    static AsyncCompile current()
+    {
+        return CURRENT.get();
+    }
+
+    void enter()
+    {
+        CURRENT.set( this );
+    }
+
+    void exit()
+    {
+        CURRENT.remove();
+    }
+
+    void cancel()
+    {
+        cancelled.set( true );
+    }
+
+    boolean isCancelled()
+    {
+        return cancelled.get();
+    }
+
+    void addSettings( Map<String, Object> settings )
+    {
+        if ( listener != null )
+        {
+            settings.put( JavacTaskRunner.PROGRESS, analyzed );
+        }
+        settings.put( JavacTaskRunner.CANCEL, cancelled );
+    }
+
+    void compileStarted( int sourceFiles )
+    {
+        if ( listener != null )
+        {
+            listener.compileStarted( sourceFiles );
+        }
+    }
+}
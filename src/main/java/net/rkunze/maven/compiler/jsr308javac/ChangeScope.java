@@ -0,0 +1,201 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import org.codehaus.plexus.compiler.CompilerConfiguration;
+import org.codehaus.plexus.compiler.CompilerException;
+import org.codehaus.plexus.logging.Logger;
+
+/**
+ * Restricts checking to the classes whose sources changed, while still compiling
+ * the whole module so the checkers see correct types everywhere.
+ * <p>
+ * Enabled with <code>-Xjsr308.checkChangedSince=&lt;reference&gt;</code>, where the
+ * reference is either <code>lastBuild</code> for the sources changed since the last
+ * successful compile (tracked by the {@link SourceScanner} snapshot), or a git
+ * revision such as <code>origin/master</code> for the sources that differ from that
+ * revision in the working tree, including untracked files. The classes defined in the
+ * changed sources are passed to the checkers as <code>-AonlyDefs</code>, combined with
+ * an <code>-AonlyDefs</code> given in the POM.
+ */
+final class ChangeScope
+{
+    static final String LAST_BUILD = "lastBuild";
+
+    // Matches no class name at all
+    private static final String NOTHING = "(?!)";
+
+    private final CompilerConfiguration config;
+
+    private final String reference;
+
+    private final Logger logger;
+
+    private ChangeScope( CompilerConfiguration config, String reference, Logger logger )
+    {
+        this.config = config;
+        this.reference = reference;
+        this.logger = logger;
+    }
+
+    /**
+     * @return the scope, or <code>null</code> if all classes are to be checked
+     */
+    static ChangeScope create( CompilerConfiguration config, PluginOptions options, Logger logger )
+    {
+        String reference = options.get( "checkChangedSince", null );
+        return reference == null ? null : new ChangeScope( config, reference, logger );
+    }
+
+    static boolean needsSourceSnapshot( PluginOptions options )
+    {
+        return LAST_BUILD.equals( options.get( "checkChangedSince", null ) );
+    }
+
+    /**
+     * @param scanner the scanner that found the sources, may be <code>null</code>
+     * @return <code>args</code> with an <code>-AonlyDefs</code> option for the changed
+     * classes, or <code>args</code> itself if the changes are not known
+     */
+    String[] addOnlyDefs( String[] args, SourceScanner scanner )
+        throws CompilerException
+    {
+        Set<String> changed = LAST_BUILD.equals( reference ) ? changedSinceLastBuild( scanner ) : changedInGit();
+        if ( changed == null )
+        {
+            return args;
+        }
+        String regex = DefsPattern.forFiles( config, changed );
+        if ( regex == null )
+        {
+            regex = NOTHING;
+        }
+        String userOnlyDefs = DefsPattern.configured( config, DefsPattern.ONLY_DEFS );
+        if ( userOnlyDefs != null && !NOTHING.equals( regex ) )
+        {
+            // Both must match: the POM pattern anywhere in the name, like the checkers do
+            regex = "^(?=.*?(?:" + userOnlyDefs + "))" + regex.substring( 1 );
+        }
+        logger.info( "Checking only the classes of " + changed.size() + " source file"
+            + ( changed.size() == 1 ? "" : "s" ) + " changed since " + reference );
+
+        List<String> result = new ArrayList<String>( Arrays.asList( args ) );
+        result.add( DefsPattern.ONLY_DEFS + "=" + regex );
+        return result.toArray( new String[result.size()] );
+    }
+
+    private Set<String> changedSinceLastBuild( SourceScanner scanner )
+    {
+        Set<String> changed = scanner == null ? null : scanner.getChangedFiles();
+        if ( changed == null )
+        {
+            logger.info( "No source snapshot of a successful compile yet, checking all classes" );
+        }
+        return changed;
+    }
+
+    private Set<String> changedInGit()
+    {
+        Set<String> changed = new TreeSet<String>();
+        List<String> roots = config.getSourceLocations();
+        for ( String root : roots == null ? Collections.<String>emptyList() : roots )
+        {
+            File dir = new File( root );
+            if ( !dir.isDirectory() )
+            {
+                continue;
+            }
+            try
+            {
+                addExisting( changed, dir, git( dir, "diff", "--name-only", "--relative", "-z", reference, "--" ) );
+                addExisting( changed, dir, git( dir, "ls-files", "--others", "--exclude-standard", "-z" ) );
+            }
+            catch ( IOException e )
+            {
+                logger.warn( "Unable to find the sources changed since " + reference + ", checking all classes: "
+                    + e.getMessage() );
+                return null;
+            }
+        }
+        return changed;
+    }
+
+    private static void addExisting( Set<String> changed, File dir, String output )
+    {
+        for ( String path : output.split( "\0" ) )
+        {
+            File file = new File( dir, path );
+            if ( !path.isEmpty() && file.isFile() )
+            {
+                changed.add( file.getAbsolutePath() );
+            }
+        }
+    }
+
+    private static String git( File dir, String... args )
+        throws IOException
+    {
+        List<String> command = new ArrayList<String>();
+        command.add( "git" );
+        command.addAll( Arrays.asList( args ) );
+        Process process = new ProcessBuilder( command ).directory( dir ).redirectErrorStream( true ).start();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try ( InputStream in = process.getInputStream() )
+        {
+            byte[] buffer = new byte[8192];
+            for ( int n = in.read( buffer ); n >= 0; n = in.read( buffer ) )
+            {
+                output.write( buffer, 0, n );
+            }
+        }
+        int exitCode;
+        try
+        {
+            exitCode = process.waitFor();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            process.destroy();
+            throw new IOException( "interrupted while running git" );
+        }
+        String text = new String( output.toByteArray(), Charset.forName( "UTF-8" ) );
+        if ( exitCode != 0 )
+        {
+            throw new IOException( "git " + args[0] + " failed: " + text.trim() );
+        }
+        return text;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+/**
+ * Finds out which checker a stack trace of the compiling thread belongs to.
+ * <p>
+ * Most of the time is spent in framework code shared by all checkers, so the stack
+ * is searched from the top for the first frame in the package of one of the
+ * configured checkers. If no checkers are configured, the first frame in any
+ * checker package is used.
+ */
+final class CheckerAttribution
+{
+    static final String JAVAC = "javac";
+
+    private static final String CHECKER_PACKAGES = "org.checkerframework.checker.";
+
+    private final String[] checkers;
+
+    private final String[] packages;
+
+    /**
+     * @param checkers class names of the configured checkers, may be <code>null</code>
+     */
+    CheckerAttribution( String[] checkers )
+    {
+        this.checkers = checkers == null ? new String[0] : checkers.clone();
+        this.packages = new String[this.checkers.length];
+        for ( int i = 0; i < this.checkers.length; i++ )
+        {
+            int dot = this.checkers[i].lastIndexOf( '.' );
+            packages[i] = dot < 0 ? "" : this.checkers[i].substring( 0, dot + 1 );
+        }
+    }
+
+    /**
+     * @return the checker class name (or checker package, if no checkers are
+     * configured) for the stack, or {@link #JAVAC} if no checker is active.
+     */
+    String checkerFor( StackTraceElement[] stack )
+    {
+        for ( StackTraceElement frame : stack )
+        {
+            String className = frame.getClassName();
+            for ( int i = 0; i < checkers.length; i++ )
+            {
+                if ( className.startsWith( packages[i] ) && className.indexOf( '.', packages[i].length() ) < 0 )
+                {
+                    return checkers[i];
+                }
+            }
+            if ( checkers.length == 0 && className.startsWith( CHECKER_PACKAGES ) )
+            {
+                return className.substring( 0, className.lastIndexOf( '.' ) );
+            }
+        }
+        return JAVAC;
+    }
+}
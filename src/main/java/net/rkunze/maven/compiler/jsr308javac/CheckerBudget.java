@@ -0,0 +1,211 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import org.codehaus.plexus.compiler.CompilerConfiguration;
+import org.codehaus.plexus.compiler.CompilerException;
+import org.codehaus.plexus.compiler.CompilerMessage;
+import org.codehaus.plexus.compiler.CompilerResult;
+import org.codehaus.plexus.logging.Logger;
+
+/**
+ * Time budget per compilation unit, enforced by the {@link CompileWatchdog}.
+ * <p>
+ * Enabled with <code>-Xjsr308.unitTimeBudget=&lt;milliseconds&gt;</code>. What happens
+ * to a file that exceeds the budget depends on <code>-Xjsr308.budgetAction</code>:
+ * <ul>
+ * <li><code>cancel</code> (the default) cancels the compile and fails it with an
+ * error naming the file and the checker that was running.</li>
+ * <li><code>skip</code> lets the compile finish with a warning and records the file in
+ * <code>skipped-units.txt</code> in the state directory. From the next compile on,
+ * the checkers skip the classes of recorded files (<code>-AskipDefs</code>). Deleting
+ * the file checks them again.</li>
+ * </ul>
+ * The budget is not a hard limit. The watchdog can only act when the checker hands
+ * control back to javac, so a checker that never finishes a class keeps the compile
+ * running; the file is reported as over budget once the compile ends.
+ */
+final class CheckerBudget
+{
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    private final CompilerConfiguration config;
+
+    private final long budgetMillis;
+
+    private final boolean cancel;
+
+    private final File skipFile;
+
+    private CheckerBudget( CompilerConfiguration config, long budgetMillis, boolean cancel, File skipFile )
+    {
+        this.config = config;
+        this.budgetMillis = budgetMillis;
+        this.cancel = cancel;
+        this.skipFile = skipFile;
+    }
+
+    /**
+     * @return the budget, or <code>null</code> if there is none
+     */
+    static CheckerBudget create( CompilerConfiguration config, PluginOptions options )
+        throws CompilerException
+    {
+        long budget = options.getLong( "unitTimeBudget", 0 );
+        if ( budget <= 0 )
+        {
+            return null;
+        }
+        String action = options.get( "budgetAction", "cancel" );
+        if ( !"cancel".equals( action ) && !"skip".equals( action ) )
+        {
+            throw new CompilerException( "Invalid value for " + PluginOptions.PREFIX + "budgetAction: " + action
+                + " (must be 'cancel' or 'skip')" );
+        }
+        return new CheckerBudget( config, budget, "cancel".equals( action ),
+                                  new File( options.getStateDirectory(), "skipped-units.txt" ) );
+    }
+
+    void addSettings( Map<String, Object> settings )
+    {
+        settings.put( JavacTaskRunner.UNIT_TIME_BUDGET, budgetMillis );
+        settings.put( JavacTaskRunner.CANCEL_OVER_BUDGET, cancel );
+        settings.put( JavacTaskRunner.CHECKERS, config.getAnnotationProcessors() );
+    }
+
+    /**
+     * @return <code>args</code> with an <code>-AskipDefs</code> option for the files that
+     * exceeded the budget in earlier compiles, merged with the one given in the POM.
+     */
+    String[] addSkipDefs( String[] args )
+        throws CompilerException
+    {
+        Set<String> skipped = readSkipped();
+        if ( cancel || skipped.isEmpty() )
+        {
+            return args;
+        }
+        String regex = DefsPattern.forFiles( config, skipped );
+        if ( regex == null )
+        {
+            return args;
+        }
+
+        String userSkipDefs = DefsPattern.configured( config, DefsPattern.SKIP_DEFS );
+        String skipDefs = userSkipDefs == null ? regex : "(?:" + userSkipDefs + ")|" + regex;
+
+        List<String> result = new ArrayList<String>( Arrays.asList( args ) );
+        result.add( DefsPattern.SKIP_DEFS + "=" + skipDefs );
+        return result.toArray( new String[result.size()] );
+    }
+
+    /**
+     * Report the files that exceeded the budget, and record them if they are to be
+     * skipped from now on.
+     */
+    @SuppressWarnings( "unchecked" )
+    void report( Map<String, Object> results, CompilerResult result, Logger logger )
+        throws CompilerException
+    {
+        List<String[]> overBudget = (List<String[]>) results.get( JavacTaskRunner.OVER_BUDGET );
+        if ( overBudget == null || overBudget.isEmpty() )
+        {
+            return;
+        }
+        Set<String> skipped = readSkipped();
+        boolean cancelIgnored = Boolean.TRUE.equals( results.get( JavacTaskRunner.CANCEL_IGNORED ) );
+        for ( String[] unit : overBudget )
+        {
+            String text = "Checking took more than " + unit[2] + " ms in " + unit[1] + ", exceeding the budget of "
+                + budgetMillis + " ms per file; ";
+            if ( cancelIgnored )
+            {
+                text += "the compile could not be cancelled while the checker was busy and ran to its end";
+            }
+            else if ( cancel )
+            {
+                text += "compile cancelled";
+            }
+            else
+            {
+                text += "the checkers skip this file from the next compile on (see " + skipFile + ")";
+                skipped.add( unit[0] );
+            }
+            logger.warn( unit[0] + ": " + text );
+            result.getCompilerMessages().add( new CompilerMessage( unit[0], cancel && !cancelIgnored
+                ? CompilerMessage.Kind.ERROR
+                : CompilerMessage.Kind.WARNING, 0, 0, 0, 0, text ) );
+        }
+        if ( Boolean.TRUE.equals( results.get( JavacTaskRunner.CANCELLED ) ) )
+        {
+            result.setSuccess( false );
+        }
+        if ( !cancel )
+        {
+            try
+            {
+                skipFile.getParentFile().mkdirs();
+                Files.write( skipFile.toPath(), skipped, UTF8 );
+            }
+            catch ( IOException e )
+            {
+                throw new CompilerException( "Unable to write " + skipFile, e );
+            }
+        }
+    }
+
+    private Set<String> readSkipped()
+        throws CompilerException
+    {
+        Set<String> skipped = new TreeSet<String>();
+        if ( skipFile.isFile() )
+        {
+            try
+            {
+                for ( String line : Files.readAllLines( skipFile.toPath(), UTF8 ) )
+                {
+                    if ( !line.trim().isEmpty() )
+                    {
+                        skipped.add( line.trim() );
+                    }
+                }
+            }
+            catch ( IOException e )
+            {
+                throw new CompilerException( "Unable to read " + skipFile, e );
+            }
+        }
+        return skipped;
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipFile;
+import org.codehaus.plexus.compiler.CompilerConfiguration;
+import org.codehaus.plexus.compiler.CompilerException;
+import org.codehaus.plexus.compiler.CompilerMessage;
+import org.codehaus.plexus.compiler.CompilerResult;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.util.StringUtils;
+
+/**
+ * Shortens the classpath to the entries the last successful compile read classes from.
+ * <p>
+ * Enabled with <code>-Xjsr308.classpathPruning=&lt;mode&gt;</code>. Every compile records
+ * the classpath entries javac read class files from in <code>classpath-usage.txt</code>
+ * in the state directory. With <code>reorder</code>, later compiles put those entries
+ * first on the classpath, so lookups usually stop early. With <code>prune</code>, the
+ * unused entries are left out, except for those that register annotation processors or
+ * contain a configured one: javac loads processors with a class loader of its own, so
+ * their use is not recorded.
+ * A pruned compile that fails with errors that look like unresolved symbols is repeated
+ * with the full classpath.
+ */
+final class ClasspathPruning
+{
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    private static final String CLASSPATH = "-classpath";
+
+    // Messages of javac for symbols and processors it could not resolve; the last one
+    // is the end of "Annotation processor '...' not found"
+    private static final String[] RESOLUTION_ERRORS =
+        { "cannot find symbol", "does not exist", "cannot access", "class file for", "' not found" };
+
+    private final CompilerConfiguration config;
+
+    private final boolean prune;
+
+    private final File usageFile;
+
+    private String[] fullArguments;
+
+    private ClasspathPruning( CompilerConfiguration config, boolean prune, File usageFile )
+    {
+        this.config = config;
+        this.prune = prune;
+        this.usageFile = usageFile;
+    }
+
+    /**
+     * @return the pruning, or <code>null</code> if it is disabled
+     */
+    static ClasspathPruning create( CompilerConfiguration config, PluginOptions options )
+        throws CompilerException
+    {
+        String mode = options.get( "classpathPruning", "off" );
+        if ( "off".equals( mode ) )
+        {
+            return null;
+        }
+        if ( !"reorder".equals( mode ) && !"prune".equals( mode ) )
+        {
+            throw new CompilerException( "Invalid value for " + PluginOptions.PREFIX + "classpathPruning: " + mode
+                + " (must be 'off', 'reorder' or 'prune')" );
+        }
+        return new ClasspathPruning( config, "prune".equals( mode ),
+                                     new File( options.getStateDirectory(), "classpath-usage.txt" ) );
+    }
+
+    void addSettings( Map<String, Object> settings )
+    {
+        settings.put( JavacTaskRunner.RECORD_CLASSPATH_USAGE, Boolean.TRUE );
+    }
+
+    /**
+     * @return <code>args</code> with the classpath reordered or pruned according to the
+     * recorded usage
+     */
+    String[] apply( String[] args, Logger logger )
+        throws CompilerException
+    {
+        List<String> usage = readUsage();
+        int index = Arrays.asList( args ).indexOf( CLASSPATH );
+        if ( usage == null || index < 0 || index + 1 >= args.length )
+        {
+            return args;
+        }
+        Set<String> used = new HashSet<String>( usage );
+        // Only entries of the project are candidates, not the jars of this compiler
+        Set<String> candidates = new HashSet<String>();
+        if ( config.getClasspathEntries() != null )
+        {
+            candidates.addAll( config.getClasspathEntries() );
+        }
+        candidates.remove( config.getOutputLocation() );
+
+        List<String> first = new ArrayList<String>();
+        List<String> rest = new ArrayList<String>();
+        List<String> classpath = Arrays.asList( args[index + 1].split( File.pathSeparator ) );
+        for ( String entry : classpath )
+        {
+            if ( !candidates.contains( entry ) || used.contains( entry ) )
+            {
+                first.add( entry );
+            }
+            else if ( !prune || ProcessorDiscovery.providesProcessors( new File( entry ) )
+                || containsProcessor( new File( entry ) ) )
+            {
+                rest.add( entry );
+            }
+        }
+        first.addAll( rest );
+        if ( first.equals( classpath ) )
+        {
+            return args;
+        }
+        if ( prune )
+        {
+            logger.info( "Classpath pruned to " + first.size() + " of " + classpath.size() + " entries (see "
+                + usageFile + ")" );
+            fullArguments = args;
+        }
+        String[] result = args.clone();
+        result[index + 1] = StringUtils.join( first.iterator(), File.pathSeparator );
+        return result;
+    }
+
+    /**
+     * @return whether the jar or directory contains one of the configured annotation
+     * processors; if it cannot be read, it is assumed to
+     */
+    private boolean containsProcessor( File entry )
+    {
+        String[] processors = config.getAnnotationProcessors();
+        if ( processors == null || processors.length == 0 )
+        {
+            return false;
+        }
+        if ( entry.isDirectory() )
+        {
+            for ( String processor : processors )
+            {
+                if ( new File( entry, classFile( processor ) ).isFile() )
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if ( !entry.isFile() )
+        {
+            return false;
+        }
+        try ( ZipFile jar = new ZipFile( entry ) )
+        {
+            for ( String processor : processors )
+            {
+                if ( jar.getEntry( classFile( processor ) ) != null )
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+        catch ( IOException e )
+        {
+            return true;
+        }
+    }
+
+    private static String classFile( String className )
+    {
+        return className.replace( '.', '/' ) + ".class";
+    }
+
+    /**
+     * @return whether a compile with the pruned classpath failed in a way that may be
+     * caused by the pruning
+     */
+    boolean shouldRetry( CompilerResult result )
+    {
+        if ( fullArguments == null || result.isSuccess() )
+        {
+            return false;
+        }
+        for ( CompilerMessage message : result.getCompilerMessages() )
+        {
+            if ( message.getKind() != CompilerMessage.Kind.ERROR || message.getMessage() == null )
+            {
+                continue;
+            }
+            for ( String error : RESOLUTION_ERRORS )
+            {
+                if ( message.getMessage().contains( error ) )
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the arguments with the full classpath
+     */
+    String[] getFullArguments()
+    {
+        return fullArguments;
+    }
+
+    /**
+     * Log the classpath usage and record it if the compile succeeded.
+     */
+    @SuppressWarnings( "unchecked" )
+    void recordUsage( Map<String, Object> results, CompilerResult result, Logger logger )
+        throws CompilerException
+    {
+        List<String> recorded = (List<String>) results.get( JavacTaskRunner.USED_CLASSPATH );
+        if ( recorded == null )
+        {
+            return;
+        }
+        List<String> used = new ArrayList<String>( recorded.size() );
+        for ( String entry : recorded )
+        {
+            used.add( AbiStubs.originalOf( entry ) );
+        }
+        logger.info( "Classes were read from " + used.size() + " classpath entries, listing the classpath took "
+            + results.get( JavacTaskRunner.CLASSPATH_LIST_TIME ) + " ms" );
+        if ( !result.isSuccess() )
+        {
+            return;
+        }
+        try
+        {
+            usageFile.getParentFile().mkdirs();
+            Files.write( usageFile.toPath(), used, UTF8 );
+        }
+        catch ( IOException e )
+        {
+            throw new CompilerException( "Unable to write " + usageFile, e );
+        }
+    }
+
+    private List<String> readUsage()
+        throws CompilerException
+    {
+        if ( !usageFile.isFile() )
+        {
+            return null;
+        }
+        try
+        {
+            return Files.readAllLines( usageFile.toPath(), UTF8 );
+        }
+        catch ( IOException e )
+        {
+            throw new CompilerException( "Unable to read " + usageFile, e );
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.ForwardingJavaFileObject;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+/**
+ * File manager that records which classpath entries javac actually reads class files
+ * from, and how much time it spends listing the packages of the classpath.
+ * <p>
+ * This class runs inside the javac class loader.
+ */
+final class ClasspathUsageRecorder
+    extends ForwardingJavaFileManager<JavaFileManager>
+{
+    private final StandardJavaFileManager standardFileManager;
+
+    private Map<String, String> jars;
+
+    private Map<String, String> directories;
+
+    private final Set<String> used = Collections.synchronizedSet( new LinkedHashSet<String>() );
+
+    private final AtomicLong listNanos = new AtomicLong();
+
+    /**
+     * @param standardFileManager the file manager that knows the classpath of the compile
+     */
+    ClasspathUsageRecorder( JavaFileManager fileManager, StandardJavaFileManager standardFileManager )
+    {
+        super( fileManager );
+        this.standardFileManager = standardFileManager;
+    }
+
+    @Override
+    public Iterable<JavaFileObject> list( Location location, String packageName, Set<JavaFileObject.Kind> kinds,
+                                          boolean recurse )
+        throws IOException
+    {
+        if ( location != StandardLocation.CLASS_PATH )
+        {
+            return super.list( location, packageName, kinds, recurse );
+        }
+        long start = System.nanoTime();
+        List<JavaFileObject> files = new ArrayList<JavaFileObject>();
+        for ( JavaFileObject file : super.list( location, packageName, kinds, recurse ) )
+        {
+            files.add( new UsageFileObject( file ) );
+        }
+        listNanos.addAndGet( System.nanoTime() - start );
+        return files;
+    }
+
+    @Override
+    public String inferBinaryName( Location location, JavaFileObject file )
+    {
+        return super.inferBinaryName( location, unwrap( file ) );
+    }
+
+    @Override
+    public boolean isSameFile( FileObject a, FileObject b )
+    {
+        return super.isSameFile( unwrap( a ), unwrap( b ) );
+    }
+
+    private static <T extends FileObject> T unwrap( T file )
+    {
+        if ( file instanceof UsageFileObject )
+        {
+            @SuppressWarnings( "unchecked" )
+            T delegate = (T) ( (UsageFileObject) file ).delegate();
+            return delegate;
+        }
+        return file;
+    }
+
+    /**
+     * @return the classpath entries that class files were read from, in the order of
+     * first use
+     */
+    List<String> getUsedEntries()
+    {
+        synchronized ( used )
+        {
+            return new ArrayList<String>( used );
+        }
+    }
+
+    long getListMillis()
+    {
+        return listNanos.get() / 1000000L;
+    }
+
+    // The classpath is only known once javac has processed its options
+    private synchronized void initEntries()
+    {
+        if ( jars != null )
+        {
+            return;
+        }
+        jars = new HashMap<String, String>();
+        directories = new HashMap<String, String>();
+        Iterable<? extends File> classpath = standardFileManager.getLocation( StandardLocation.CLASS_PATH );
+        for ( File entry : classpath == null ? Collections.<File>emptyList() : classpath )
+        {
+            String uri = entry.getAbsoluteFile().toURI().toString();
+            if ( entry.isDirectory() )
+            {
+                directories.put( uri.endsWith( "/" ) ? uri : uri + "/", entry.getPath() );
+            }
+            else
+            {
+                jars.put( uri, entry.getPath() );
+            }
+        }
+    }
+
+    private void record( JavaFileObject file )
+    {
+        initEntries();
+        String uri = file.toUri().toString();
+        if ( uri.startsWith( "jar:" ) )
+        {
+            int separator = uri.indexOf( "!/" );
+            String entry = jars.get( separator < 0 ? uri.substring( 4 ) : uri.substring( 4, separator ) );
+            if ( entry != null )
+            {
+                used.add( entry );
+            }
+            return;
+        }
+        for ( Map.Entry<String, String> directory : directories.entrySet() )
+        {
+            if ( uri.startsWith( directory.getKey() ) )
+            {
+                used.add( directory.getValue() );
+                return;
+            }
+        }
+    }
+
+    private final class UsageFileObject
+        extends ForwardingJavaFileObject<JavaFileObject>
+    {
+        private boolean recorded;
+
+        UsageFileObject( JavaFileObject file )
+        {
+            super( file );
+        }
+
+        JavaFileObject delegate()
+        {
+            return fileObject;
+        }
+
+        @Override
+        public InputStream openInputStream()
+            throws IOException
+        {
+            if ( !recorded )
+            {
+                recorded = true;
+                record( fileObject );
+            }
+            return super.openInputStream();
+        }
+
+        @Override
+        public CharSequence getCharContent( boolean ignoreEncodingErrors )
+            throws IOException
+        {
+            if ( !recorded )
+            {
+                recorded = true;
+                record( fileObject );
+            }
+            return super.getCharContent( ignoreEncodingErrors );
+        }
+    }
+}
@@ -0,0 +1,362 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import org.codehaus.plexus.compiler.CompilerConfiguration;
+import org.codehaus.plexus.compiler.CompilerMessage;
+import org.codehaus.plexus.compiler.CompilerResult;
+import org.codehaus.plexus.logging.Logger;
+
+/**
+ * Compile avoidance: skips compiling and checking a module if neither its sources,
+ * nor the compiler arguments, nor the ABI of anything on its classpath changed since
+ * the last successful compile, and its outputs are still in place. The messages of
+ * the last compile are reported again in that case.
+ * <p>
+ * Enabled with <code>-Xjsr308.compileAvoidance=true</code>. Classpath entries are
+ * compared by {@link AbiFingerprint}, so a rebuilt upstream jar with changed method
+ * bodies only does not cause a recompile. The output directory is on the classpath,
+ * but left out of the fingerprint, as every compile changes it; the outputs are
+ * compared separately. All hashing is done by the shared
+ * {@link Fingerprinter}. The state is kept in
+ * <code>compile-avoidance.bin</code> in the {@link PluginOptions#getStateDirectory()
+ * state directory}.
+ */
+final class CompileAvoidance
+{
+    private static final int FORMAT_VERSION = 1;
+
+    private final Logger logger;
+
+    private final File stateFile;
+
+    private final File outputDir;
+
+    private final File generatedSourcesDir;
+
+    private final String outputEnding;
+
+    private final String inputsHash;
+
+    private CompileAvoidance( Logger logger, File stateFile, File outputDir, File generatedSourcesDir,
+                              String outputEnding, String inputsHash )
+    {
+        this.logger = logger;
+        this.stateFile = stateFile;
+        this.outputDir = outputDir;
+        this.generatedSourcesDir = generatedSourcesDir;
+        this.outputEnding = outputEnding;
+        this.inputsHash = inputsHash;
+    }
+
+    /**
+     * @param args the compiler arguments before the classpath is pruned or reordered,
+     * or its jars replaced by ABI stubs
+     * @return the compile avoidance for this compile, or <code>null</code> if it is
+     * disabled or the inputs could not be fingerprinted.
+     */
+    static CompileAvoidance create( CompilerConfiguration config, PluginOptions options, Logger logger,
+                                    String[] args, String[] sourceFiles, String outputEnding )
+    {
+        if ( !options.getBoolean( "compileAvoidance", false ) )
+        {
+            return null;
+        }
+        File stateDir = options.getStateDirectory();
+        Fingerprinter fingerprinter = Fingerprinter.forCacheDirectory( options.getCacheDirectory() );
+        try
+        {
+            MessageDigest digest = Hashes.newDigest();
+            DataOutputStream out = Hashes.digestStream( digest );
+
+            Set<String> sources = new HashSet<String>( Arrays.asList( sourceFiles ) );
+            for ( String arg : args )
+            {
+                if ( !sources.contains( arg ) )
+                {
+                    out.writeUTF( arg );
+                }
+            }
+
+            String[] sortedSources = sourceFiles.clone();
+            Arrays.sort( sortedSources );
+            List<File> sourceList = new ArrayList<File>( sortedSources.length );
+            for ( String source : sortedSources )
+            {
+                sourceList.add( new File( source ) );
+            }
+            writeHashes( out, sourceList, fingerprinter.contentHashes( sourceList ) );
+
+            File outputDir = new File( config.getOutputLocation() ).getAbsoluteFile();
+            List<File> classpath = new ArrayList<File>();
+            if ( config.getClasspathEntries() != null )
+            {
+                for ( String entry : config.getClasspathEntries() )
+                {
+                    if ( !new File( entry ).getAbsoluteFile().equals( outputDir ) )
+                    {
+                        classpath.add( new File( entry ) );
+                    }
+                }
+            }
+            writeHashes( out, classpath, fingerprinter.abiHashes( classpath ) );
+            out.flush();
+
+            fingerprinter.save();
+
+            return new CompileAvoidance( logger, new File( stateDir, "compile-avoidance.bin" ),
+                                         new File( config.getOutputLocation() ),
+                                         config.getGeneratedSourcesDirectory(), outputEnding,
+                                         Hashes.toHex( digest.digest() ) );
+        }
+        catch ( IOException e )
+        {
+            logger.warn( "Compile avoidance disabled, unable to fingerprint the inputs: " + e.getMessage() );
+            return null;
+        }
+    }
+
+    private static void writeHashes( DataOutputStream out, List<File> files, List<String> hashes )
+        throws IOException
+    {
+        for ( int i = 0; i < files.size(); i++ )
+        {
+            out.writeUTF( files.get( i ).getPath() );
+            out.writeUTF( hashes.get( i ) );
+        }
+    }
+
+    /**
+     * @return the result of the last compile if nothing changed since then, or
+     * <code>null</code> if the module has to be compiled.
+     */
+    CompilerResult upToDateResult()
+    {
+        if ( !stateFile.isFile() )
+        {
+            return null;
+        }
+        try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( stateFile ) ) ) )
+        {
+            if ( in.readInt() != FORMAT_VERSION || !inputsHash.equals( in.readUTF() ) )
+            {
+                return null;
+            }
+            Map<String, String> recordedOutputs = new TreeMap<String, String>();
+            int outputs = in.readInt();
+            for ( int i = 0; i < outputs; i++ )
+            {
+                recordedOutputs.put( in.readUTF(), in.readUTF() );
+            }
+            if ( !recordedOutputs.equals( currentOutputs() ) )
+            {
+                logger.debug( "Compile avoidance: outputs changed since the last compile" );
+                return null;
+            }
+            int count = in.readInt();
+            List<CompilerMessage> messages = new ArrayList<CompilerMessage>( count );
+            for ( int i = 0; i < count; i++ )
+            {
+                messages.add( readMessage( in ) );
+            }
+            return new CompilerResult( true, messages );
+        }
+        catch ( IOException e )
+        {
+            logger.debug( "Compile avoidance: unable to read " + stateFile + ": " + e.getMessage() );
+            return null;
+        }
+    }
+
+    /**
+     * Remember the result of a successful compile. A failed compile removes the state,
+     * so the next build compiles again.
+     */
+    void recordResult( CompilerResult result )
+    {
+        if ( !result.isSuccess() )
+        {
+            stateFile.delete();
+            return;
+        }
+        try
+        {
+            File dir = stateFile.getParentFile();
+            dir.mkdirs();
+            File tmp = File.createTempFile( stateFile.getName(), ".tmp", dir );
+            try
+            {
+                try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmp ) ) ) )
+                {
+                    out.writeInt( FORMAT_VERSION );
+                    out.writeUTF( inputsHash );
+                    Map<String, String> outputs = currentOutputs();
+                    out.writeInt( outputs.size() );
+                    for ( Map.Entry<String, String> output : outputs.entrySet() )
+                    {
+                        out.writeUTF( output.getKey() );
+                        out.writeUTF( output.getValue() );
+                    }
+                    List<CompilerMessage> messages = result.getCompilerMessages();
+                    out.writeInt( messages.size() );
+                    for ( CompilerMessage message : messages )
+                    {
+                        writeMessage( out, message );
+                    }
+                }
+                Files.move( tmp.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE );
+            }
+            finally
+            {
+                tmp.delete();
+            }
+        }
+        catch ( IOException e )
+        {
+            logger.warn( "Compile avoidance: unable to write " + stateFile + ": " + e.getMessage() );
+        }
+    }
+
+    /**
+     * Size and modification time of all class files in the output directory and of
+     * all generated sources. Other files, like the resources Maven copies to the
+     * output directory, are not compiler outputs.
+     */
+    private Map<String, String> currentOutputs()
+        throws IOException
+    {
+        Map<String, String> outputs = new TreeMap<String, String>();
+        collectOutputs( outputDir, outputEnding, outputs );
+        if ( generatedSourcesDir != null )
+        {
+            collectOutputs( generatedSourcesDir, null, outputs );
+        }
+        return outputs;
+    }
+
+    private static void collectOutputs( File dir, final String ending, final Map<String, String> outputs )
+        throws IOException
+    {
+        if ( !dir.isDirectory() )
+        {
+            return;
+        }
+        Files.walkFileTree( dir.toPath(), new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult visitFile( Path file, BasicFileAttributes attrs )
+            {
+                String name = file.toString();
+                if ( ending == null || name.endsWith( ending ) )
+                {
+                    outputs.put( name, attrs.size() + "/" + attrs.lastModifiedTime().toMillis() );
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        } );
+    }
+
+    private static void writeMessage( DataOutputStream out, CompilerMessage message )
+        throws IOException
+    {
+        out.writeUTF( message.getKind().name() );
+        writeString( out, message.getFile() );
+        out.writeInt( message.getStartLine() );
+        out.writeInt( message.getStartColumn() );
+        out.writeInt( message.getEndLine() );
+        out.writeInt( message.getEndColumn() );
+        writeString( out, message.getMessage() );
+    }
+
+    private static CompilerMessage readMessage( DataInputStream in )
+        throws IOException
+    {
+        CompilerMessage.Kind kind;
+        try
+        {
+            kind = CompilerMessage.Kind.valueOf( in.readUTF() );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            throw new IOException( "Unknown message kind", e );
+        }
+        String file = readString( in );
+        int startLine = in.readInt();
+        int startColumn = in.readInt();
+        int endLine = in.readInt();
+        int endColumn = in.readInt();
+        String message = readString( in );
+        return new CompilerMessage( file, kind, startLine, startColumn, endLine, endColumn, message );
+    }
+
+    // Messages may exceed the 64k limit of writeUTF
+    private static void writeString( DataOutputStream out, String s )
+        throws IOException
+    {
+        if ( s == null )
+        {
+            out.writeInt( -1 );
+            return;
+        }
+        byte[] bytes = s.getBytes( "UTF-8" );
+        out.writeInt( bytes.length );
+        out.write( bytes );
+    }
+
+    private static String readString( DataInputStream in )
+        throws IOException
+    {
+        int length = in.readInt();
+        if ( length < 0 )
+        {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully( bytes );
+        return new String( bytes, "UTF-8" );
+    }
+}
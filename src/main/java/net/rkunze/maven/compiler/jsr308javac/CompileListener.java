@@ -0,0 +1,48 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+/**
+ * Progress callbacks of a compile started with
+ * {@link JavacJSR308Compiler#performCompileAsync}.
+ * <p>
+ * The callbacks are made on the thread that runs the compile, so they should return
+ * quickly.
+ */
+public interface CompileListener
+{
+    /**
+     * The sources are up to date with respect to the compile arguments, and javac is
+     * about to start.
+     *
+     * @param sourceFiles the number of source files passed to javac
+     */
+    void compileStarted( int sourceFiles );
+
+    /**
+     * javac and the checkers are done with the classes of a source file. Only reported
+     * for in-process compiles with the JSR 308 compiler.
+     */
+    void unitAnalyzed( String sourceFile );
+}
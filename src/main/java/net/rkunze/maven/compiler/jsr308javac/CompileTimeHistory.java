@@ -0,0 +1,238 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.codehaus.plexus.compiler.CompilerConfiguration;
+import org.codehaus.plexus.compiler.CompilerException;
+import org.codehaus.plexus.compiler.CompilerMessage;
+import org.codehaus.plexus.compiler.CompilerResult;
+import org.codehaus.plexus.logging.Logger;
+
+/**
+ * History of compile times, and a gate against compile time regressions.
+ * <p>
+ * Enabled with <code>-Xjsr308.timeHistory=&lt;file&gt;</code> or
+ * <code>-Xjsr308.regressionThreshold=&lt;percent&gt;</code>. Every successful compile
+ * appends a line to the history file (by default <code>jsr308-history.csv</code> in
+ * the project directory, so it survives <code>mvn clean</code>) with the time, the
+ * number of source files, the duration, the peak heap usage of the JVM that ran the
+ * compile, the compiler jar and the output directory of the module. With a threshold,
+ * the duration per source file is compared with the median of the last
+ * <code>regressionBaseline</code> compiles of the module (default 10, at least 3 are
+ * needed), and <code>regressionAction</code> decides whether a compile that is slower
+ * by more than the threshold is a warning (<code>warn</code>, the default) or fails
+ * the build (<code>fail</code>). Such a compile is not appended, so regressions do not
+ * move the baseline; to accept a slower compile as the new normal, remove the lines
+ * of the module from the history.
+ */
+final class CompileTimeHistory
+{
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    static final String HEADER = "timestamp,sources,millis,peakHeapMB,compiler,module";
+
+    static final int MIN_BASELINE = 3;
+
+    private final File historyFile;
+
+    private final String module;
+
+    private final long thresholdPercent;
+
+    private final int baselineSize;
+
+    private final boolean fail;
+
+    private CompileTimeHistory( File historyFile, String module, long thresholdPercent, int baselineSize,
+                                boolean fail )
+    {
+        this.historyFile = historyFile;
+        this.module = module;
+        this.thresholdPercent = thresholdPercent;
+        this.baselineSize = baselineSize;
+        this.fail = fail;
+    }
+
+    /**
+     * @return the history, or <code>null</code> if it is disabled
+     */
+    static CompileTimeHistory create( CompilerConfiguration config, PluginOptions options )
+        throws CompilerException
+    {
+        String file = options.get( "timeHistory", null );
+        long threshold = options.getLong( "regressionThreshold", 0 );
+        if ( file == null && threshold <= 0 )
+        {
+            return null;
+        }
+        String action = options.get( "regressionAction", "warn" );
+        if ( !"warn".equals( action ) && !"fail".equals( action ) )
+        {
+            throw new CompilerException( "Invalid value for " + PluginOptions.PREFIX + "regressionAction: " + action
+                + " (must be 'warn' or 'fail')" );
+        }
+        long baseline = options.getLong( "regressionBaseline", 10 );
+
+        File projectDir = config.getWorkingDirectory();
+        if ( projectDir == null )
+        {
+            File buildDir = config.getBuildDirectory() != null ? config.getBuildDirectory()
+                : new File( config.getOutputLocation() ).getAbsoluteFile().getParentFile();
+            projectDir = buildDir.getAbsoluteFile().getParentFile();
+        }
+        File historyFile = new File( file == null ? "jsr308-history.csv" : file );
+        if ( !historyFile.isAbsolute() )
+        {
+            historyFile = new File( projectDir, historyFile.getPath() );
+        }
+
+        // Relative to the history file, so the history can be shared and checked in
+        String module = historyFile.getAbsoluteFile().getParentFile().toPath()
+            .relativize( new File( config.getOutputLocation() ).getAbsoluteFile().toPath() ).toString()
+            .replace( File.separatorChar, '/' );
+        return new CompileTimeHistory( historyFile, module, threshold,
+                                       (int) Math.max( MIN_BASELINE, Math.min( baseline, 1000 ) ),
+                                       "fail".equals( action ) );
+    }
+
+    /**
+     * Compare a successful compile with the baseline, and append it to the history
+     * unless it exceeds the threshold.
+     *
+     * @param peakHeap the peak heap usage of the JVM that ran the compile, in bytes, or
+     * a negative value if it is not known
+     */
+    void record( CompilerResult result, int sources, long millis, long peakHeap, Logger logger )
+        throws CompilerException
+    {
+        if ( !result.isSuccess() || sources == 0 )
+        {
+            return;
+        }
+        List<String> lines = read();
+
+        if ( thresholdPercent > 0 )
+        {
+            double baseline = baselineMillisPerSource( lines, module, baselineSize );
+            double current = (double) millis / sources;
+            if ( baseline > 0 && current > baseline * ( 100 + thresholdPercent ) / 100 )
+            {
+                String text = String.format( "Compile took %.1f ms per source file, %d%% more than the median of "
+                    + "%.1f ms of earlier compiles (%s%s, see %s)", current,
+                                             Math.round( ( current / baseline - 1 ) * 100 ), baseline,
+                                             PluginOptions.PREFIX + "regressionThreshold=", thresholdPercent,
+                                             historyFile );
+                if ( fail )
+                {
+                    logger.error( text );
+                    result.getCompilerMessages().add( new CompilerMessage( text, CompilerMessage.Kind.ERROR ) );
+                    result.setSuccess( false );
+                }
+                else
+                {
+                    logger.warn( text );
+                    result.getCompilerMessages().add( new CompilerMessage( text, CompilerMessage.Kind.WARNING ) );
+                }
+                return;
+            }
+        }
+
+        String line = System.currentTimeMillis() + "," + sources + "," + millis + ","
+            + ( peakHeap < 0 ? "" : Long.toString( peakHeap / ExecutionStrategy.MB ) ) + ","
+            + ClasspathConfig.getCompilerJar().getName() + "," + module;
+        try
+        {
+            historyFile.getAbsoluteFile().getParentFile().mkdirs();
+            Files.write( historyFile.toPath(), lines.isEmpty() ? Arrays.asList( HEADER, line )
+                : Collections.singletonList( line ), UTF8, StandardOpenOption.CREATE, StandardOpenOption.APPEND );
+        }
+        catch ( IOException e )
+        {
+            logger.warn( "Unable to write " + historyFile + ": " + e.getMessage() );
+        }
+    }
+
+    private List<String> read()
+        throws CompilerException
+    {
+        if ( !historyFile.isFile() )
+        {
+            return Collections.emptyList();
+        }
+        try
+        {
+            return Files.readAllLines( historyFile.toPath(), UTF8 );
+        }
+        catch ( IOException e )
+        {
+            throw new CompilerException( "Unable to read " + historyFile, e );
+        }
+    }
+
+    /**
+     * @return the median duration per source file of the last <code>size</code>
+     * compiles of the module in the history, or 0 if there are fewer than
+     * {@link #MIN_BASELINE}
+     */
+    static double baselineMillisPerSource( List<String> lines, String module, int size )
+    {
+        List<Double> values = new ArrayList<Double>();
+        for ( int i = lines.size() - 1; i >= 0 && values.size() < size; i-- )
+        {
+            String[] fields = lines.get( i ).split( ",", 6 );
+            if ( fields.length < 6 || !module.equals( fields[5] ) )
+            {
+                continue;
+            }
+            try
+            {
+                long sources = Long.parseLong( fields[1] );
+                if ( sources > 0 )
+                {
+                    values.add( Long.parseLong( fields[2] ) / (double) sources );
+                }
+            }
+            catch ( NumberFormatException e )
+            {
+                // header or damaged line
+            }
+        }
+        if ( values.size() < MIN_BASELINE )
+        {
+            return 0;
+        }
+        Collections.sort( values );
+        int middle = values.size() / 2;
+        return values.size() % 2 == 1 ? values.get( middle ) : ( values.get( middle - 1 ) + values.get( middle ) ) / 2;
+    }
+}
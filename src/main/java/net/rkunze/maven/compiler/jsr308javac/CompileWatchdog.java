@@ -0,0 +1,218 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tracks the time javac and the checkers spend on each compilation unit and reacts
+ * when a unit exceeds its time budget.
+ * <p>
+ * Time between two task events is charged to the compilation unit of the earlier
+ * event. The checkers do their work when a class has been analyzed, so that time
+ * ends up with the unit being checked. A background thread watches the unit
+ * currently being worked on; when it is over budget, the unit and the checker the
+ * compiling thread is busy in are recorded. If the compile is to be cancelled, the
+ * next task event aborts it. The compile is never stopped from the outside: a checker
+ * that does not return to javac keeps the compile running until it does, and the
+ * compile is reported as over budget but not cancelled.
+ * <p>
+ * This class runs inside the javac class loader.
+ */
+final class CompileWatchdog
+    implements TaskListener, Runnable
+{
+    private static final long NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos( 1 );
+
+    private final Thread compileThread;
+
+    private final long budgetNanos;
+
+    private final boolean cancel;
+
+    private final CheckerAttribution attribution;
+
+    private final Map<String, Long> unitTimes = new HashMap<String, Long>();
+
+    private final List<String[]> offenders = new ArrayList<String[]>();
+
+    private String currentUnit;
+
+    private long sliceStart = System.nanoTime();
+
+    private String reportedUnit;
+
+    private boolean finished;
+
+    private boolean cancelRequested;
+
+    private boolean cancelled;
+
+    /**
+     * @param budgetMillis maximum time for one compilation unit, or 0 for unlimited
+     * @param cancel whether to cancel the compile when the budget is exceeded
+     */
+    CompileWatchdog( Thread compileThread, long budgetMillis, boolean cancel, CheckerAttribution attribution )
+    {
+        this.compileThread = compileThread;
+        this.budgetNanos = budgetMillis * NANOS_PER_MILLI;
+        this.cancel = cancel;
+        this.attribution = attribution;
+    }
+
+    void start()
+    {
+        if ( budgetNanos <= 0 )
+        {
+            return;
+        }
+        Thread thread = new Thread( this, "jsr308-watchdog" );
+        thread.setDaemon( true );
+        thread.start();
+    }
+
+    /**
+     * Must be called by the compiling thread when the compile is done.
+     */
+    synchronized void finish()
+    {
+        charge( System.nanoTime() );
+        finished = true;
+        notifyAll();
+    }
+
+    public void started( TaskEvent e )
+    {
+        switchTo( e );
+    }
+
+    public void finished( TaskEvent e )
+    {
+        switchTo( e );
+    }
+
+    private synchronized void switchTo( TaskEvent e )
+    {
+        if ( cancelRequested )
+        {
+            cancelled = true;
+            throw new CancellationException( "Compile cancelled, time budget exceeded" );
+        }
+        if ( e.getSourceFile() == null )
+        {
+            return;
+        }
+        long now = System.nanoTime();
+        charge( now );
+        currentUnit = e.getSourceFile().getName();
+    }
+
+    private void charge( long now )
+    {
+        if ( currentUnit != null )
+        {
+            Long time = unitTimes.get( currentUnit );
+            unitTimes.put( currentUnit, ( time == null ? 0L : time ) + ( now - sliceStart ) );
+        }
+        sliceStart = now;
+    }
+
+    public void run()
+    {
+        long interval = Math.max( 50L, budgetNanos / NANOS_PER_MILLI / 10 );
+        synchronized ( this )
+        {
+            while ( !finished )
+            {
+                long now = System.nanoTime();
+                if ( currentUnit != null && !currentUnit.equals( reportedUnit ) )
+                {
+                    Long charged = unitTimes.get( currentUnit );
+                    long elapsed = ( charged == null ? 0L : charged ) + ( now - sliceStart );
+                    if ( elapsed > budgetNanos )
+                    {
+                        reportedUnit = currentUnit;
+                        offenders.add( new String[]{ currentUnit,
+                            attribution.checkerFor( compileThread.getStackTrace() ),
+                            Long.toString( elapsed / NANOS_PER_MILLI ) } );
+                        if ( cancel )
+                        {
+                            cancelRequested = true;
+                        }
+                    }
+                }
+                try
+                {
+                    wait( interval );
+                }
+                catch ( InterruptedException e )
+                {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return whether the compile was aborted at a task event
+     */
+    synchronized boolean isCancelled()
+    {
+        return cancelled;
+    }
+
+    /**
+     * @return whether the budget was exceeded with the compile to be cancelled, but the
+     * compile did not reach a task event before it ended
+     */
+    synchronized boolean isCancelIgnored()
+    {
+        return cancelRequested && !cancelled;
+    }
+
+    synchronized Map<String, Long> getUnitTimesMillis()
+    {
+        Map<String, Long> millis = new HashMap<String, Long>();
+        for ( Map.Entry<String, Long> entry : unitTimes.entrySet() )
+        {
+            millis.put( entry.getKey(), entry.getValue() / NANOS_PER_MILLI );
+        }
+        return millis;
+    }
+
+    /**
+     * @return file, checker and elapsed milliseconds of every unit that exceeded the budget
+     */
+    synchronized List<String[]> getOffenders()
+    {
+        return new ArrayList<String[]>( offenders );
+    }
+}
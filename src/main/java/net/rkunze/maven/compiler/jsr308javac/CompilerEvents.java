@@ -0,0 +1,147 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+/**
+ * Events for the steps of a compile, for profiling with JDK Flight Recorder.
+ * <p>
+ * If the JVM has Flight Recorder and the plugin was built with the JFR events (the
+ * <code>jfr</code> profiles, active when the JDK used for the build has
+ * <code>jdk.jfr</code>), {@link #get()} returns the JFR implementation from
+ * <code>src/main/java-jfr</code>. Otherwise it returns this class, which does
+ * nothing. Events cost next to nothing while no recording is running.
+ */
+class CompilerEvents
+{
+    private static final String JFR_EVENTS_CLASSNAME = "net.rkunze.maven.compiler.jsr308javac.JfrCompilerEvents";
+
+    private static final CompilerEvents INSTANCE = create();
+
+    /**
+     * A step in progress.
+     */
+    static class Span
+    {
+        void end()
+        {
+        }
+    }
+
+    static final Span NO_SPAN = new Span();
+
+    CompilerEvents()
+    {
+    }
+
+    private static CompilerEvents create()
+    {
+        try
+        {
+            Class.forName( "jdk.jfr.Event" );
+            return (CompilerEvents) Class.forName( JFR_EVENTS_CLASSNAME ).getDeclaredConstructor().newInstance();
+        }
+        catch ( LinkageError e )
+        {
+            return new CompilerEvents();
+        }
+        catch ( ReflectiveOperationException e )
+        {
+            return new CompilerEvents();
+        }
+    }
+
+    static CompilerEvents get()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * @return whether a running recording records {@link #checkerAnalysis}, which needs
+     * the compile to go through the {@link JavacTaskRunner}
+     */
+    boolean isRecordingCheckerAnalysis()
+    {
+        return false;
+    }
+
+    /**
+     * Creation of a class loader for javac.
+     */
+    Span loaderCreation()
+    {
+        return NO_SPAN;
+    }
+
+    /**
+     * A javac instance was taken for a compile.
+     *
+     * @param reused whether it was used by an earlier compile
+     */
+    void javacBorrowed( boolean reused )
+    {
+    }
+
+    /**
+     * A javac instance was handed back after a compile.
+     *
+     * @param pooled whether it is kept for later compiles
+     */
+    void javacReturned( boolean pooled )
+    {
+    }
+
+    /**
+     * Building the compiler arguments of a module.
+     */
+    Span argumentBuilding( String outputDirectory )
+    {
+        return NO_SPAN;
+    }
+
+    /**
+     * The compile of a module.
+     */
+    Span compile( String outputDirectory, int sourceFiles )
+    {
+        return NO_SPAN;
+    }
+
+    /**
+     * Parsing the output of a compile.
+     */
+    Span diagnosticParsing( int characters )
+    {
+        return NO_SPAN;
+    }
+
+    /**
+     * The checkers analyzing one class.
+     *
+     * @param checkers the configured checkers, may be empty
+     */
+    Span checkerAnalysis( String sourceFile, String className, String checkers )
+    {
+        return NO_SPAN;
+    }
+}
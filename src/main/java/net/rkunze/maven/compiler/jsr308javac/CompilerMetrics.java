@@ -0,0 +1,336 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Collects the {@link CompilerMetricsMXBean metrics} of all compiles in this JVM.
+ * <p>
+ * The MXBean is registered with the platform MBean server on first use, so the
+ * metrics can be watched with jconsole or any other JMX client while Maven runs.
+ * There is only ever one registration: if the plugin is loaded by another class
+ * loader, e.g. by a new plugin realm in a long running Maven daemon, its MXBean
+ * replaces the one registered before, so the MBean server does not keep the class
+ * loaders of disposed realms alive.
+ */
+final class CompilerMetrics
+    implements CompilerMetricsMXBean
+{
+    static final int RECENT_COMPILES = 100;
+
+    static final String OBJECT_NAME = "net.rkunze.maven.compiler.jsr308javac:type=CompilerMetrics";
+
+    private static final CompilerMetrics INSTANCE = new CompilerMetrics();
+
+    private static final int REGISTER_ATTEMPTS = 3;
+
+    static
+    {
+        try
+        {
+            INSTANCE.register( ManagementFactory.getPlatformMBeanServer() );
+        }
+        catch ( SecurityException e )
+        {
+            // The metrics are still collected, just not visible
+        }
+    }
+
+    private final AtomicLong failedCompiles = new AtomicLong();
+
+    private final AtomicLong upToDate = new AtomicLong();
+
+    private final AtomicInteger javacPoolSize = new AtomicInteger();
+
+    private final AtomicLong javacClassHits = new AtomicLong();
+
+    private final AtomicLong javacClassMisses = new AtomicLong();
+
+    private final AtomicLong processorLoaderHits = new AtomicLong();
+
+    private final AtomicLong processorLoaderMisses = new AtomicLong();
+
+    private final AtomicLong processorDiscoveryHits = new AtomicLong();
+
+    private final AtomicLong processorDiscoveryMisses = new AtomicLong();
+
+    private final AtomicLong sourceCacheHits = new AtomicLong();
+
+    private final AtomicLong sourceCacheMisses = new AtomicLong();
+
+    private final AtomicLong diagnosticCharacters = new AtomicLong();
+
+    // Guarded by this: compile times
+    private long compiles;
+
+    private long totalMillis;
+
+    private final long[] buckets = new long[64];
+
+    private final long[] recent = new long[RECENT_COMPILES];
+
+    CompilerMetrics()
+    {
+    }
+
+    static CompilerMetrics get()
+    {
+        return INSTANCE;
+    }
+
+    /**
+     * Register this instance, replacing an instance registered by another class loader.
+     */
+    void register( MBeanServer server )
+    {
+        try
+        {
+            ObjectName name = new ObjectName( OBJECT_NAME );
+            for ( int attempt = 0; attempt < REGISTER_ATTEMPTS; attempt++ )
+            {
+                try
+                {
+                    server.registerMBean( this, name );
+                    return;
+                }
+                catch ( InstanceAlreadyExistsException e )
+                {
+                    try
+                    {
+                        server.unregisterMBean( name );
+                    }
+                    catch ( InstanceNotFoundException gone )
+                    {
+                        // unregistered concurrently, try again
+                    }
+                }
+            }
+        }
+        catch ( JMException e )
+        {
+            // The metrics are still collected, just not visible
+        }
+        catch ( SecurityException e )
+        {
+            // The metrics are still collected, just not visible
+        }
+    }
+
+    synchronized void compiled( long millis, boolean success )
+    {
+        recent[(int) ( compiles % RECENT_COMPILES )] = millis;
+        compiles++;
+        totalMillis += millis;
+        buckets[64 - Long.numberOfLeadingZeros( Math.max( 0, millis ) )]++;
+        if ( !success )
+        {
+            failedCompiles.incrementAndGet();
+        }
+    }
+
+    void upToDate()
+    {
+        upToDate.incrementAndGet();
+    }
+
+    void javacClass( boolean hit )
+    {
+        ( hit ? javacClassHits : javacClassMisses ).incrementAndGet();
+    }
+
+    void javacPooled( int delta )
+    {
+        javacPoolSize.addAndGet( delta );
+    }
+
+    void processorLoader( boolean hit )
+    {
+        ( hit ? processorLoaderHits : processorLoaderMisses ).incrementAndGet();
+    }
+
+    void processorDiscovery( boolean hit )
+    {
+        ( hit ? processorDiscoveryHits : processorDiscoveryMisses ).incrementAndGet();
+    }
+
+    void sourceCache( int hits, int misses )
+    {
+        sourceCacheHits.addAndGet( hits );
+        sourceCacheMisses.addAndGet( misses );
+    }
+
+    void diagnosticsParsed( int characters )
+    {
+        diagnosticCharacters.addAndGet( characters );
+    }
+
+    public synchronized long getCompileCount()
+    {
+        return compiles;
+    }
+
+    public long getFailedCompileCount()
+    {
+        return failedCompiles.get();
+    }
+
+    public long getUpToDateCount()
+    {
+        return upToDate.get();
+    }
+
+    public synchronized long getTotalCompileTimeMillis()
+    {
+        return totalMillis;
+    }
+
+    public long getCompileTimeMedianMillis()
+    {
+        return percentile( 50 );
+    }
+
+    public long getCompileTime90thPercentileMillis()
+    {
+        return percentile( 90 );
+    }
+
+    public long getCompileTime99thPercentileMillis()
+    {
+        return percentile( 99 );
+    }
+
+    public long getRecentCompileTimeMedianMillis()
+    {
+        return recentPercentile( 50 );
+    }
+
+    public long getRecentCompileTime90thPercentileMillis()
+    {
+        return recentPercentile( 90 );
+    }
+
+    public long getRecentCompileTime99thPercentileMillis()
+    {
+        return recentPercentile( 99 );
+    }
+
+    public int getJavacPoolSize()
+    {
+        return javacPoolSize.get();
+    }
+
+    public long getJavacClassHits()
+    {
+        return javacClassHits.get();
+    }
+
+    public long getJavacClassMisses()
+    {
+        return javacClassMisses.get();
+    }
+
+    public long getProcessorLoaderCacheHits()
+    {
+        return processorLoaderHits.get();
+    }
+
+    public long getProcessorLoaderCacheMisses()
+    {
+        return processorLoaderMisses.get();
+    }
+
+    public long getProcessorDiscoveryCacheHits()
+    {
+        return processorDiscoveryHits.get();
+    }
+
+    public long getProcessorDiscoveryCacheMisses()
+    {
+        return processorDiscoveryMisses.get();
+    }
+
+    public long getSourceCacheHits()
+    {
+        return sourceCacheHits.get();
+    }
+
+    public long getSourceCacheMisses()
+    {
+        return sourceCacheMisses.get();
+    }
+
+    public long getDiagnosticCharactersParsed()
+    {
+        return diagnosticCharacters.get();
+    }
+
+    /**
+     * @return the upper bound of the bucket holding the percentile of all compile
+     * times, or 0 if there was no compile
+     */
+    synchronized long percentile( int percent )
+    {
+        long rank = rank( compiles, percent );
+        long seen = 0;
+        for ( int i = 0; i < buckets.length; i++ )
+        {
+            seen += buckets[i];
+            if ( seen >= rank && rank > 0 )
+            {
+                return i == 0 ? 0 : ( 1L << i ) - 1;
+            }
+        }
+        return 0;
+    }
+
+    synchronized long recentPercentile( int percent )
+    {
+        int count = (int) Math.min( compiles, RECENT_COMPILES );
+        if ( count == 0 )
+        {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf( recent, count );
+        Arrays.sort( sorted );
+        return sorted[(int) rank( count, percent ) - 1];
+    }
+
+    /**
+     * @return the 1-based rank of the percentile in <code>count</code> values
+     * (nearest-rank method)
+     */
+    private static long rank( long count, int percent )
+    {
+        return ( count * percent + 99 ) / 100;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+/**
+ * Live metrics of the compiler in this JVM, registered as
+ * <code>net.rkunze.maven.compiler.jsr308javac:type=CompilerMetrics</code>.
+ * <p>
+ * Compile times are those of compiles that actually ran; compiles skipped by compile
+ * avoidance only count as up to date. Percentiles over all compiles are approximated
+ * by the upper bound of power-of-two buckets, recent percentiles are exact over the
+ * last 100 compiles.
+ */
+public interface CompilerMetricsMXBean
+{
+    long getCompileCount();
+
+    long getFailedCompileCount();
+
+    long getUpToDateCount();
+
+    long getTotalCompileTimeMillis();
+
+    long getCompileTimeMedianMillis();
+
+    long getCompileTime90thPercentileMillis();
+
+    long getCompileTime99thPercentileMillis();
+
+    long getRecentCompileTimeMedianMillis();
+
+    long getRecentCompileTime90thPercentileMillis();
+
+    long getRecentCompileTime99thPercentileMillis();
+
+    int getJavacPoolSize();
+
+    long getJavacClassHits();
+
+    long getJavacClassMisses();
+
+    long getProcessorLoaderCacheHits();
+
+    long getProcessorLoaderCacheMisses();
+
+    long getProcessorDiscoveryCacheHits();
+
+    long getProcessorDiscoveryCacheMisses();
+
+    long getSourceCacheHits();
+
+    long getSourceCacheMisses();
+
+    long getDiagnosticCharactersParsed();
+}
@@ -0,0 +1,223 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import org.codehaus.plexus.compiler.CompilerConfiguration;
+
+/**
+ * Values for the <code>-AskipDefs</code> and <code>-AonlyDefs</code> options of the
+ * Checker Framework, which take a regular expression that is matched against the
+ * fully qualified names of the classes to be checked.
+ */
+final class DefsPattern
+{
+    static final String SKIP_DEFS = "-AskipDefs";
+
+    static final String ONLY_DEFS = "-AonlyDefs";
+
+    private static final Set<String> TYPE_KEYWORDS =
+        new HashSet<String>( Arrays.asList( "class", "interface", "enum" ) );
+
+    private DefsPattern()
+    {
+    }
+
+    /**
+     * @return a pattern for the classes defined in <code>files</code> and their nested
+     * classes, or <code>null</code> if none of the files is below a source root
+     */
+    static String forFiles( CompilerConfiguration config, Collection<String> files )
+    {
+        StringBuilder regex = new StringBuilder( "^(?:" );
+        String separator = "";
+        for ( String file : files )
+        {
+            for ( String className : classNamesOf( config, file ) )
+            {
+                regex.append( separator ).append( Pattern.quote( className ) );
+                separator = "|";
+            }
+        }
+        if ( separator.isEmpty() )
+        {
+            return null;
+        }
+        return regex.append( ")(?:$|\\.)" ).toString();
+    }
+
+    /**
+     * @return the value of <code>option</code> given in the POM, or <code>null</code>
+     */
+    static String configured( CompilerConfiguration config, String option )
+    {
+        String value = null;
+        for ( Map.Entry<String, String> arg : config.getCustomCompilerArgumentsAsMap().entrySet() )
+        {
+            if ( option.equals( arg.getKey() ) )
+            {
+                value = arg.getValue();
+            }
+            else if ( arg.getKey().startsWith( option + "=" ) )
+            {
+                value = arg.getKey().substring( option.length() + 1 );
+            }
+        }
+        return value;
+    }
+
+    /**
+     * A source file may declare more top level classes than the one it is named
+     * after, so the declarations are read from the file. If it cannot be read, the
+     * name is derived from its path.
+     *
+     * @return the names of the top level classes in <code>file</code>, empty if it is
+     * not below one of the source roots
+     */
+    static List<String> classNamesOf( CompilerConfiguration config, String file )
+    {
+        List<String> roots = config.getSourceLocations();
+        for ( String root : roots == null ? Collections.<String>emptyList() : roots )
+        {
+            String prefix = new File( root ).getAbsolutePath() + File.separator;
+            String path = new File( file ).getAbsolutePath();
+            if ( path.startsWith( prefix ) && path.endsWith( ".java" ) )
+            {
+                String className = path.substring( prefix.length(), path.length() - ".java".length() )
+                    .replace( File.separatorChar, '.' );
+                List<String> declared = declaredClasses( new File( path ), encoding( config ) );
+                return declared == null || declared.isEmpty() ? Collections.singletonList( className ) : declared;
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * @return the fully qualified names of the top level classes declared in
+     * <code>file</code>, or <code>null</code> if it cannot be read
+     */
+    static List<String> declaredClasses( File file, Charset encoding )
+    {
+        String source;
+        try
+        {
+            source = new String( Files.readAllBytes( file.toPath() ), encoding );
+        }
+        catch ( IOException e )
+        {
+            return null;
+        }
+
+        String packageName = "";
+        List<String> names = new ArrayList<String>();
+        String previous = null;
+        int depth = 0;
+        int i = 0;
+        while ( i < source.length() )
+        {
+            char c = source.charAt( i );
+            if ( c == '/' && source.startsWith( "//", i ) )
+            {
+                int end = source.indexOf( '\n', i );
+                i = end < 0 ? source.length() : end + 1;
+            }
+            else if ( c == '/' && source.startsWith( "/*", i ) )
+            {
+                int end = source.indexOf( "*/", i + 2 );
+                i = end < 0 ? source.length() : end + 2;
+            }
+            else if ( c == '"' || c == '\'' )
+            {
+                i++;
+                while ( i < source.length() && source.charAt( i ) != c && source.charAt( i ) != '\n' )
+                {
+                    i += source.charAt( i ) == '\\' ? 2 : 1;
+                }
+                i++;
+                previous = null;
+            }
+            else if ( Character.isJavaIdentifierStart( c ) )
+            {
+                int start = i;
+                while ( i < source.length()
+                    && ( Character.isJavaIdentifierPart( source.charAt( i ) ) || source.charAt( i ) == '.' ) )
+                {
+                    i++;
+                }
+                String token = source.substring( start, i );
+                if ( depth == 0 && "package".equals( previous ) )
+                {
+                    packageName = token + ".";
+                }
+                else if ( depth == 0 && TYPE_KEYWORDS.contains( previous ) && token.indexOf( '.' ) < 0 )
+                {
+                    names.add( packageName + token );
+                }
+                previous = token;
+            }
+            else
+            {
+                if ( c == '{' )
+                {
+                    depth++;
+                }
+                else if ( c == '}' )
+                {
+                    depth--;
+                }
+                if ( !Character.isWhitespace( c ) )
+                {
+                    previous = null;
+                }
+                i++;
+            }
+        }
+        return names;
+    }
+
+    private static Charset encoding( CompilerConfiguration config )
+    {
+        try
+        {
+            return config.getSourceEncoding() == null ? Charset.defaultCharset()
+                : Charset.forName( config.getSourceEncoding() );
+        }
+        catch ( IllegalArgumentException e )
+        {
+            return Charset.defaultCharset();
+        }
+    }
+}
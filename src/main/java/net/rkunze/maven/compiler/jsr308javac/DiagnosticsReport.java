@@ -0,0 +1,171 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import org.codehaus.plexus.compiler.CompilerException;
+import org.codehaus.plexus.compiler.CompilerMessage;
+import org.codehaus.plexus.compiler.CompilerResult;
+import org.codehaus.plexus.logging.Logger;
+
+/**
+ * Writes the messages of a compile to a machine readable report, for tools that would
+ * otherwise have to scrape the build log.
+ * <p>
+ * Enabled with <code>-Xjsr308.diagnosticsReport=&lt;format&gt;</code>. <code>sarif</code>
+ * writes a SARIF 2.1.0 log to <code>diagnostics.sarif</code> in the state directory,
+ * <code>jsonl</code> writes one JSON object per message to
+ * <code>diagnostics.jsonl</code>. Each message has its file, line and column range
+ * (1-based), severity and, for checker and lint messages, the message key in
+ * brackets at the start of the text.
+ * <p>
+ * In-process and forked compiles write every message to the report as javac reports
+ * it, through a {@link DiagnosticsStream} in the {@link JavacTaskRunner}. Sharded
+ * checks merge and sort the messages of all processes first, so their report is
+ * written after the check from the merged messages, like the report of a compile
+ * skipped as up to date. The file itself is written by a {@link DiagnosticsWriter}.
+ */
+final class DiagnosticsReport
+{
+    private final File file;
+
+    private CompilerResult streamedResult;
+
+    private DiagnosticsReport( File file )
+    {
+        this.file = file;
+    }
+
+    /**
+     * @return the report, or <code>null</code> if it is disabled
+     */
+    static DiagnosticsReport create( PluginOptions options )
+        throws CompilerException
+    {
+        String format = options.get( "diagnosticsReport", "off" );
+        if ( "off".equals( format ) )
+        {
+            return null;
+        }
+        if ( !"sarif".equals( format ) && !"jsonl".equals( format ) )
+        {
+            throw new CompilerException( "Invalid value for " + PluginOptions.PREFIX + "diagnosticsReport: " + format
+                + " (must be 'off', 'sarif' or 'jsonl')" );
+        }
+        return new DiagnosticsReport( new File( options.getStateDirectory(), "diagnostics." + format ) );
+    }
+
+    File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * Have the {@link JavacTaskRunner} write the report while it compiles.
+     */
+    void addSettings( Map<String, Object> settings )
+    {
+        settings.put( JavacTaskRunner.DIAGNOSTICS_REPORT, file.getAbsolutePath() );
+    }
+
+    /**
+     * Note that the messages of <code>result</code> were written while compiling, from
+     * the results of the {@link JavacTaskRunner}.
+     */
+    void streamed( Map<String, ?> results, CompilerResult result, Logger logger )
+        throws CompilerException
+    {
+        if ( results.containsKey( JavacTaskRunner.DIAGNOSTICS_REPORT_ERROR ) )
+        {
+            throw new CompilerException( "Unable to write " + file + ": "
+                + results.get( JavacTaskRunner.DIAGNOSTICS_REPORT_ERROR ) );
+        }
+        if ( results.containsKey( JavacTaskRunner.DIAGNOSTICS_REPORTED ) )
+        {
+            streamed( result );
+            logger.debug( "Wrote " + results.get( JavacTaskRunner.DIAGNOSTICS_REPORTED ) + " messages to " + file
+                + " while compiling" );
+        }
+    }
+
+    /**
+     * Note that the messages of <code>result</code> were written while compiling.
+     */
+    void streamed( CompilerResult result )
+    {
+        streamedResult = result;
+    }
+
+    /**
+     * @return whether the messages of <code>result</code> were written while compiling
+     */
+    boolean wasStreamed( CompilerResult result )
+    {
+        return result == streamedResult;
+    }
+
+    /**
+     * Write all messages of a compile, replacing the report of the last compile.
+     */
+    void write( Iterable<CompilerMessage> messages, Logger logger )
+        throws CompilerException
+    {
+        DiagnosticsWriter out = DiagnosticsWriter.forFile( file );
+        try
+        {
+            out.open();
+            try
+            {
+                for ( CompilerMessage message : messages )
+                {
+                    write( out, message );
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+        catch ( IOException e )
+        {
+            throw new CompilerException( "Unable to write " + file, e );
+        }
+        logger.debug( "Wrote " + out.getCount() + " messages to " + file );
+    }
+
+    private static void write( DiagnosticsWriter out, CompilerMessage message )
+        throws IOException
+    {
+        // CompilerMessage columns are 0-based, the end is exclusive
+        int startColumn = Math.max( 0, message.getStartColumn() ) + 1;
+        out.write( message.getFile(),
+                   message.getKind() == null ? null : message.getKind().name().toLowerCase( Locale.ENGLISH ),
+                   message.getMessage(), message.getStartLine(), startColumn, message.getEndLine(),
+                   message.getEndColumn() + 1 );
+    }
+}
+
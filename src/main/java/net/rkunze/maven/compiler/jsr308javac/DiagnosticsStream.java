@@ -0,0 +1,236 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import com.sun.source.util.JavacTask;
+import com.sun.tools.javac.api.BasicJavacTask;
+import com.sun.tools.javac.api.ClientCodeWrapper;
+import com.sun.tools.javac.util.Context;
+import com.sun.tools.javac.util.DiagnosticSource;
+import com.sun.tools.javac.util.JCDiagnostic;
+import com.sun.tools.javac.util.JavacMessages;
+import com.sun.tools.javac.util.Log;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URI;
+import java.util.Locale;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticListener;
+import javax.tools.JavaFileObject;
+
+/**
+ * Writes the diagnostics of a compile to a {@link DiagnosticsWriter} as javac reports
+ * them, instead of after the compile from the parsed compiler output.
+ * <p>
+ * javac hands its diagnostics to the listener instead of printing them, and then
+ * leaves out the error and warning counts at the end. So the listener prints both to
+ * the compiler output, formatted by javac's own formatter, exactly as javac would.
+ * Errors writing the report do not stop the
+ * compile; the first one is kept for {@link #close()}.
+ * <p>
+ * This class runs inside the javac class loader.
+ */
+final class DiagnosticsStream
+    implements DiagnosticListener<JavaFileObject>
+{
+    private final DiagnosticsWriter report;
+
+    private final PrintWriter out;
+
+    private Log log;
+
+    private JavacMessages messages;
+
+    private boolean open;
+
+    private IOException error;
+
+    DiagnosticsStream( DiagnosticsWriter report, PrintWriter out )
+    {
+        this.report = report;
+        this.out = out;
+        try
+        {
+            report.open();
+            open = true;
+        }
+        catch ( IOException e )
+        {
+            error = e;
+        }
+    }
+
+    /**
+     * Format the diagnostics of <code>task</code> like javac does.
+     */
+    void attach( JavacTask task )
+    {
+        if ( task instanceof BasicJavacTask )
+        {
+            Context context = ( (BasicJavacTask) task ).getContext();
+            log = Log.instance( context );
+            messages = JavacMessages.instance( context );
+        }
+    }
+
+    public void report( Diagnostic<? extends JavaFileObject> diagnostic )
+    {
+        JCDiagnostic jcDiagnostic = unwrap( diagnostic );
+        if ( log != null && jcDiagnostic != null )
+        {
+            Log.printRawLines( out, log.getDiagnosticFormatter().format( jcDiagnostic, messages.getCurrentLocale() ) );
+        }
+        else
+        {
+            out.println( diagnostic );
+        }
+
+        if ( error != null )
+        {
+            return;
+        }
+        // The region is the whole tree the diagnostic is about, where javac knows it
+        int line = (int) diagnostic.getLineNumber();
+        int column = (int) diagnostic.getColumnNumber();
+        int endLine = line;
+        int endColumn = column;
+        long start = diagnostic.getStartPosition();
+        long end = diagnostic.getEndPosition();
+        DiagnosticSource source = jcDiagnostic == null ? null : jcDiagnostic.getDiagnosticSource();
+        if ( source != null && line > 0 && start != Diagnostic.NOPOS && end != Diagnostic.NOPOS && start <= end )
+        {
+            line = source.getLineNumber( (int) start );
+            column = source.getColumnNumber( (int) start, true );
+            endLine = source.getLineNumber( (int) end );
+            endColumn = source.getColumnNumber( (int) end, true );
+        }
+        String message = diagnostic.getMessage( null );
+        if ( jcDiagnostic != null && jcDiagnostic.getLintCategory() != null )
+        {
+            // Like in the compiler output, and thus the messages of the compiler result
+            message = "[" + jcDiagnostic.getLintCategory().option + "] " + message;
+        }
+        try
+        {
+            report.write( path( diagnostic.getSource() ), diagnostic.getKind().name().toLowerCase( Locale.ENGLISH ),
+                          message, Math.max( 0, line ), Math.max( 1, column ), endLine, endColumn );
+        }
+        catch ( IOException e )
+        {
+            error = e;
+        }
+    }
+
+    /**
+     * Print the error and warning counts, which javac leaves to the listener.
+     */
+    void printCounts()
+    {
+        if ( log != null )
+        {
+            printCount( "error", log.nerrors );
+            printCount( "warn", log.nwarnings );
+        }
+    }
+
+    private void printCount( String kind, int count )
+    {
+        if ( count > 0 )
+        {
+            Log.printRawLines( out, log.localize( "count." + kind + ( count == 1 ? "" : ".plural" ),
+                                                  String.valueOf( count ) ) );
+        }
+    }
+
+    /**
+     * Report an error that javac did not report itself.
+     */
+    void error( String message )
+    {
+        if ( error == null )
+        {
+            try
+            {
+                report.write( null, "error", message, 0, 1, 0, 1 );
+            }
+            catch ( IOException e )
+            {
+                error = e;
+            }
+        }
+    }
+
+    /**
+     * @return the number of diagnostics written
+     */
+    int getCount()
+    {
+        return report.getCount();
+    }
+
+    /**
+     * Finish the report.
+     *
+     * @return the first error writing the report, or <code>null</code>
+     */
+    IOException close()
+    {
+        if ( open )
+        {
+            open = false;
+            try
+            {
+                report.close();
+            }
+            catch ( IOException e )
+            {
+                if ( error == null )
+                {
+                    error = e;
+                }
+            }
+        }
+        return error;
+    }
+
+    private static JCDiagnostic unwrap( Diagnostic<? extends JavaFileObject> diagnostic )
+    {
+        if ( diagnostic instanceof ClientCodeWrapper.DiagnosticSourceUnwrapper )
+        {
+            return ( (ClientCodeWrapper.DiagnosticSourceUnwrapper) diagnostic ).d;
+        }
+        return diagnostic instanceof JCDiagnostic ? (JCDiagnostic) diagnostic : null;
+    }
+
+    private static String path( JavaFileObject file )
+    {
+        if ( file == null )
+        {
+            return null;
+        }
+        URI uri = file.toUri();
+        return "file".equals( uri.getScheme() ) ? new File( uri ).getPath() : file.getName();
+    }
+}
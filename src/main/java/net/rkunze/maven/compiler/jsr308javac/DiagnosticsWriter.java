@@ -0,0 +1,264 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+/**
+ * Writes a {@link DiagnosticsReport} file as SARIF 2.1.0 or as JSON lines.
+ * <p>
+ * Only uses <code>java.*</code> types, since it also runs in the javac class loader
+ * and in forked worker processes, which have none of the Maven and Plexus classes.
+ */
+final class DiagnosticsWriter
+{
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    private final File file;
+
+    private final boolean sarif;
+
+    private Writer out;
+
+    private int count;
+
+    private DiagnosticsWriter( File file, boolean sarif )
+    {
+        this.file = file;
+        this.sarif = sarif;
+    }
+
+    /**
+     * @return a writer for <code>file</code>, as SARIF if its name ends with
+     * <code>.sarif</code>, else as JSON lines
+     */
+    static DiagnosticsWriter forFile( File file )
+    {
+        return new DiagnosticsWriter( file, file.getName().endsWith( ".sarif" ) );
+    }
+
+    File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * @return the number of messages written since the report was opened
+     */
+    int getCount()
+    {
+        return count;
+    }
+
+    void open()
+        throws IOException
+    {
+        Files.createDirectories( file.getAbsoluteFile().getParentFile().toPath() );
+        out = new BufferedWriter( new OutputStreamWriter( Files.newOutputStream( file.toPath() ), UTF8 ) );
+        count = 0;
+        if ( sarif )
+        {
+            out.write( "{\"version\":\"2.1.0\",\"$schema\":\"https://json.schemastore.org/sarif-2.1.0.json\","
+                + "\"runs\":[{\"tool\":{\"driver\":{\"name\":\"javac+jsr308\","
+                + "\"informationUri\":\"https://checkerframework.org/\"}},\"results\":[\n" );
+        }
+    }
+
+    /**
+     * Write a message.
+     *
+     * @param severity <code>error</code>, <code>warning</code>,
+     * <code>mandatory_warning</code>, <code>note</code>, <code>other</code> or
+     * <code>null</code>
+     * @param startLine the 1-based line, or 0 if the message has no position
+     * @param startColumn the 1-based column
+     * @param endColumn the 1-based column after the end
+     */
+    void write( String path, String severity, String message, int startLine, int startColumn, int endLine,
+                int endColumn )
+        throws IOException
+    {
+        String text = message == null ? "" : message;
+        String key = key( text );
+        if ( sarif )
+        {
+            if ( count > 0 )
+            {
+                out.write( ",\n" );
+            }
+            out.write( "{" );
+            if ( key != null )
+            {
+                out.write( "\"ruleId\":" );
+                string( key );
+                out.write( "," );
+            }
+            out.write( "\"level\":" );
+            string( sarifLevel( severity ) );
+            out.write( ",\"message\":{\"text\":" );
+            string( text );
+            out.write( "}" );
+            if ( path != null )
+            {
+                out.write( ",\"locations\":[{\"physicalLocation\":{\"artifactLocation\":{\"uri\":" );
+                string( new File( path ).toPath().toUri().toString() );
+                out.write( "}" );
+                if ( startLine > 0 )
+                {
+                    out.write( ",\"region\":" );
+                    region( startLine, startColumn, endLine, endColumn );
+                }
+                out.write( "}}]" );
+            }
+            out.write( "}" );
+        }
+        else
+        {
+            out.write( "{\"file\":" );
+            string( path );
+            out.write( ",\"severity\":" );
+            string( severity );
+            out.write( ",\"key\":" );
+            string( key );
+            out.write( ",\"message\":" );
+            string( text );
+            if ( startLine > 0 )
+            {
+                out.write( ",\"region\":" );
+                region( startLine, startColumn, endLine, endColumn );
+            }
+            out.write( "}\n" );
+        }
+        count++;
+    }
+
+    void close()
+        throws IOException
+    {
+        try
+        {
+            if ( sarif )
+            {
+                out.write( "\n]}]}\n" );
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * @return the key of a checker or lint message, e.g. <code>dereference.of.nullable</code>
+     * for <code>[dereference.of.nullable] dereference of possibly-null reference</code>,
+     * or <code>null</code>
+     */
+    static String key( String text )
+    {
+        int end = text.indexOf( ']' );
+        if ( !text.startsWith( "[" ) || end < 2 || !Character.isLetter( text.charAt( 1 ) ) )
+        {
+            return null;
+        }
+        for ( int i = 2; i < end; i++ )
+        {
+            char c = text.charAt( i );
+            if ( !Character.isLetterOrDigit( c ) && ".-_:".indexOf( c ) < 0 )
+            {
+                return null;
+            }
+        }
+        return text.substring( 1, end );
+    }
+
+    private static String sarifLevel( String severity )
+    {
+        if ( "error".equals( severity ) )
+        {
+            return "error";
+        }
+        if ( "warning".equals( severity ) || "mandatory_warning".equals( severity ) )
+        {
+            return "warning";
+        }
+        return "note";
+    }
+
+    private void region( int startLine, int startColumn, int endLine, int endColumn )
+        throws IOException
+    {
+        out.write( "{\"startLine\":" + startLine + ",\"startColumn\":" + startColumn + ",\"endLine\":"
+            + Math.max( startLine, endLine ) + ",\"endColumn\":"
+            + ( endLine > startLine ? Math.max( 1, endColumn ) : Math.max( startColumn, endColumn ) ) + "}" );
+    }
+
+    private void string( String value )
+        throws IOException
+    {
+        if ( value == null )
+        {
+            out.write( "null" );
+            return;
+        }
+        out.write( '"' );
+        for ( int i = 0; i < value.length(); i++ )
+        {
+            char c = value.charAt( i );
+            switch ( c )
+            {
+                case '"':
+                    out.write( "\\\"" );
+                    break;
+                case '\\':
+                    out.write( "\\\\" );
+                    break;
+                case '\n':
+                    out.write( "\\n" );
+                    break;
+                case '\r':
+                    out.write( "\\r" );
+                    break;
+                case '\t':
+                    out.write( "\\t" );
+                    break;
+                default:
+                    if ( c < 0x20 )
+                    {
+                        out.write( String.format( "\\u%04x", (int) c ) );
+                    }
+                    else
+                    {
+                        out.write( c );
+                    }
+            }
+        }
+        out.write( '"' );
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+import com.sun.tools.javac.api.BasicJavacTask;
+import com.sun.tools.javac.util.Log;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Cancels a compile as soon as it has reported a given number of errors.
+ * <p>
+ * The error count of javac's log is checked on every task event, so the compile
+ * stops at the latest when javac or a checker moves on to the next class. The
+ * messages reported until then are kept. Since the compile is cancelled between two
+ * steps, the javac instance can be reused.
+ * <p>
+ * This class runs inside the javac class loader.
+ */
+final class ErrorLimit
+    implements TaskListener
+{
+    private final Log log;
+
+    private final int maxErrors;
+
+    private volatile boolean reached;
+
+    private ErrorLimit( Log log, int maxErrors )
+    {
+        this.log = log;
+        this.maxErrors = maxErrors;
+    }
+
+    /**
+     * @return the limit, or <code>null</code> if the task does not expose its log
+     */
+    static ErrorLimit create( JavacTask task, int maxErrors )
+    {
+        if ( !( task instanceof BasicJavacTask ) )
+        {
+            return null;
+        }
+        return new ErrorLimit( Log.instance( ( (BasicJavacTask) task ).getContext() ), maxErrors );
+    }
+
+    public void started( TaskEvent e )
+    {
+        check();
+    }
+
+    public void finished( TaskEvent e )
+    {
+        check();
+    }
+
+    private void check()
+    {
+        if ( log.nerrors >= maxErrors )
+        {
+            reached = true;
+            throw new CancellationException( "Compile cancelled after " + log.nerrors + " errors" );
+        }
+    }
+
+    boolean isReached()
+    {
+        return reached;
+    }
+}
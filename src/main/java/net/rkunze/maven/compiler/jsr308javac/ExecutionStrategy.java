@@ -0,0 +1,401 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.codehaus.plexus.compiler.CompilerConfiguration;
+import org.codehaus.plexus.compiler.CompilerException;
+import org.codehaus.plexus.compiler.CompilerMessage;
+import org.codehaus.plexus.compiler.CompilerResult;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Decides whether a compile runs in the Maven JVM or in a forked {@link ShardWorker}.
+ * <p>
+ * Enabled with <code>-Xjsr308.execution=fork</code> or <code>auto</code> (the default
+ * is <code>inProcess</code>). <code>auto</code> estimates the heap the compile needs
+ * and compiles in-process if the Maven JVM has enough free heap for it, and in a
+ * forked JVM with a heap of one and a half times the estimate otherwise. The estimate
+ * is scaled from the peak heap usage of the last compile of the module, recorded in
+ * <code>compile-memory.txt</code> in the state directory. Without a recorded compile,
+ * it is derived from the number of sources, the size of the classpath and the number
+ * of annotation processors.
+ * <p>
+ * Features that hook into the compile in the Maven JVM (time budget, classpath
+ * usage, processor loader reuse, unchanged outputs) only apply to in-process compiles.
+ */
+final class ExecutionStrategy
+{
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    static final long MB = 1024 * 1024;
+
+    /** Heap needed by javac itself, with the JDK symbols loaded. */
+    static final long BASE_HEAP = 64 * MB;
+
+    /** Heap per source file for parsing and attribution. */
+    static final long SOURCE_HEAP = MB / 4;
+
+    /** Additional heap per source file if checkers run, for the annotated types. */
+    static final long CHECKED_SOURCE_HEAP = MB;
+
+    /** Heap per annotation processor. */
+    static final long PROCESSOR_HEAP = 16 * MB;
+
+    /** Part of the classpath size that ends up as symbols in the heap. */
+    static final int CLASSPATH_HEAP_DIVISOR = 8;
+
+    /** Minimum heap of a forked compile. */
+    static final long MIN_FORK_HEAP = 256 * MB;
+
+    private final CompilerConfiguration config;
+
+    private final boolean auto;
+
+    private final int sourceCount;
+
+    private final File historyFile;
+
+    private final FailFast failFast;
+
+    private final Logger logger;
+
+    private Boolean forked;
+
+    private String forkHeap;
+
+    private long usedBeforeCompile;
+
+    private long peakHeap = -1;
+
+    private ExecutionStrategy( CompilerConfiguration config, boolean auto, int sourceCount, File historyFile,
+                               FailFast failFast, Logger logger )
+    {
+        this.config = config;
+        this.auto = auto;
+        this.sourceCount = sourceCount;
+        this.historyFile = historyFile;
+        this.failFast = failFast;
+        this.logger = logger;
+    }
+
+    /**
+     * @return the strategy, or <code>null</code> if compiles run in-process
+     */
+    static ExecutionStrategy create( CompilerConfiguration config, PluginOptions options, int sourceCount,
+                                     Logger logger )
+        throws CompilerException
+    {
+        String execution = options.get( "execution", "inProcess" );
+        if ( "inProcess".equals( execution ) )
+        {
+            return null;
+        }
+        if ( !"fork".equals( execution ) && !"auto".equals( execution ) )
+        {
+            throw new CompilerException( "Invalid value for " + PluginOptions.PREFIX + "execution: " + execution
+                + " (must be 'inProcess', 'fork' or 'auto')" );
+        }
+        return new ExecutionStrategy( config, "auto".equals( execution ), sourceCount,
+                                      new File( options.getStateDirectory(), "compile-memory.txt" ),
+                                      FailFast.create( options ), logger );
+    }
+
+    /**
+     * Decide where to compile, on the first call, and log why.
+     *
+     * @return whether the compile runs in a forked JVM
+     */
+    boolean isForked( String[] args, boolean checkers )
+    {
+        if ( forked != null )
+        {
+            return forked.booleanValue();
+        }
+        if ( !auto )
+        {
+            forked = Boolean.TRUE;
+            forkHeap = config.getMaxmem();
+            logger.info( "Compiling in a forked JVM (" + PluginOptions.PREFIX + "execution=fork)" );
+            return true;
+        }
+
+        long[] history = readHistory();
+        long classpathSize = classpathSize();
+        int processors = processorCount( args );
+        long estimate = estimate( sourceCount, classpathSize, processors, checkers, history );
+        String basis = history != null ? "scaled from the last compile of " + history[0] + " source files"
+            : "for " + sourceCount + " source files, " + classpathSize / MB + " MB of classpath and " + processors
+                + " annotation processors";
+        Runtime runtime = Runtime.getRuntime();
+        long available = runtime.maxMemory() - ( runtime.totalMemory() - runtime.freeMemory() );
+
+        forked = estimate > available / 4 * 3;
+        if ( forked )
+        {
+            forkHeap = config.getMaxmem() != null ? config.getMaxmem()
+                : Math.max( MIN_FORK_HEAP, estimate / 2 * 3 ) / MB + "m";
+            logger.info( "Compiling in a forked JVM with -Xmx" + forkHeap + ": the compile needs about "
+                + estimate / MB + " MB of heap (" + basis + "), only " + available / MB
+                + " MB are available in this JVM" );
+        }
+        else
+        {
+            logger.info( "Compiling in-process: the compile needs about " + estimate / MB + " MB of heap (" + basis
+                + "), " + available / MB + " MB are available in this JVM" );
+        }
+        return forked.booleanValue();
+    }
+
+    /**
+     * Estimate the heap a compile needs.
+     *
+     * @param history the number of source files and the peak heap usage of an earlier
+     * compile, or <code>null</code>
+     * @return the estimate in bytes
+     */
+    static long estimate( int sources, long classpathBytes, int processors, boolean checkers, long[] history )
+    {
+        if ( history != null && history[0] > 0 )
+        {
+            long perCompile = Math.max( 0, history[1] - BASE_HEAP );
+            return BASE_HEAP + (long) ( (double) perCompile * sources / history[0] );
+        }
+        return BASE_HEAP + sources * ( checkers ? SOURCE_HEAP + CHECKED_SOURCE_HEAP : SOURCE_HEAP )
+            + classpathBytes / CLASSPATH_HEAP_DIVISOR + processors * PROCESSOR_HEAP;
+    }
+
+    private long classpathSize()
+    {
+        long size = 0;
+        if ( config.getClasspathEntries() != null )
+        {
+            for ( String entry : config.getClasspathEntries() )
+            {
+                size += new File( entry ).length();
+            }
+        }
+        return size;
+    }
+
+    private int processorCount( String[] args )
+    {
+        List<String> argList = Arrays.asList( args );
+        int i = argList.indexOf( "-processor" );
+        if ( i >= 0 && i + 1 < args.length )
+        {
+            return args[i + 1].split( "," ).length;
+        }
+        return config.getAnnotationProcessors() == null ? 0 : config.getAnnotationProcessors().length;
+    }
+
+    /**
+     * Start measuring the heap usage of an in-process compile.
+     */
+    void beforeInProcess()
+    {
+        usedBeforeCompile = HeapUsage.resetPeak();
+    }
+
+    /**
+     * Record the heap usage of an in-process compile.
+     */
+    void afterInProcess()
+    {
+        long peak = HeapUsage.peak();
+        peakHeap = Math.max( peakHeap, peak );
+        writeHistory( Math.max( 0, peak - usedBeforeCompile ) );
+    }
+
+    /**
+     * @return the peak heap usage of the JVM that ran the compiles so far, in or out
+     * of process, in bytes, or -1 if it is not known
+     */
+    long getPeakHeap()
+    {
+        return peakHeap;
+    }
+
+    /**
+     * Compile in a forked JVM.
+     *
+     * @param report the report for the forked JVM to write the messages to while
+     * compiling, or <code>null</code>
+     */
+    CompilerResult compileForked( String[] args, DiagnosticsReport report )
+        throws CompilerException
+    {
+        File workDir;
+        try
+        {
+            workDir = Files.createTempDirectory( "jsr308-fork" ).toFile();
+        }
+        catch ( IOException e )
+        {
+            throw new CompilerException( "Unable to create a directory for the forked compile", e );
+        }
+        Process process = null;
+        try
+        {
+            File argsFile = new File( workDir, "args" );
+            File heapFile = new File( workDir, "heap" );
+            Files.write( argsFile.toPath(), Arrays.asList( args ), UTF8 );
+
+            Map<String, String> properties = new HashMap<String, String>();
+            if ( failFast != null )
+            {
+                properties.put( ShardWorker.MAX_ERRORS_PROPERTY, Integer.toString( failFast.getMaxErrors() ) );
+            }
+            if ( report != null )
+            {
+                properties.put( ShardWorker.DIAGNOSTICS_REPORT_PROPERTY, report.getFile().getAbsolutePath() );
+            }
+            List<String> command = WorkerCommand.create( forkHeap, properties, argsFile.getAbsolutePath(),
+                                                         new File( workDir, "times" ).getAbsolutePath(),
+                                                         heapFile.getAbsolutePath() );
+            process = new ProcessBuilder( command ).redirectErrorStream( true ).start();
+            String output = WorkerCommand.readOutput( process );
+            int exitCode = process.waitFor();
+
+            List<CompilerMessage> messages = JavacJSR308Compiler.parseOutput( exitCode, output );
+            CompilerResult result = new CompilerResult( exitCode == 0, messages );
+            if ( failFast != null && failFast.isReached( messages ) )
+            {
+                failFast.stopped( result, "Compile", logger );
+            }
+            else if ( exitCode != 0 && !hasError( messages ) )
+            {
+                messages.add( new CompilerMessage( "Forked compile failed with exit code " + exitCode + ": "
+                    + output.trim(), CompilerMessage.Kind.ERROR ) );
+            }
+            if ( heapFile.isFile() )
+            {
+                // The worker ran to its end and closed the report
+                if ( report != null )
+                {
+                    report.streamed( result );
+                }
+                long peak = Long.parseLong( Files.readAllLines( heapFile.toPath(), UTF8 ).get( 0 ).trim() );
+                peakHeap = Math.max( peakHeap, peak );
+                writeHistory( peak );
+            }
+            return result;
+        }
+        catch ( IOException e )
+        {
+            throw new CompilerException( "Unable to run the forked compile", e );
+        }
+        catch ( NumberFormatException e )
+        {
+            throw new CompilerException( "Unable to read the heap usage of the forked compile", e );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new CompilerException( "Interrupted while compiling", e );
+        }
+        finally
+        {
+            if ( process != null )
+            {
+                // Only has an effect if the compile was interrupted or its output could not be read
+                process.destroy();
+            }
+            try
+            {
+                FileUtils.deleteDirectory( workDir );
+            }
+            catch ( IOException e )
+            {
+                logger.debug( "Unable to delete " + workDir + ": " + e.getMessage() );
+            }
+        }
+    }
+
+    private static boolean hasError( List<CompilerMessage> messages )
+    {
+        for ( CompilerMessage message : messages )
+        {
+            if ( message.getKind() == CompilerMessage.Kind.ERROR )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of source files and the peak heap usage of the last
+     * compile, or <code>null</code> if none is recorded
+     */
+    private long[] readHistory()
+    {
+        if ( !historyFile.isFile() )
+        {
+            return null;
+        }
+        try
+        {
+            List<String> lines = Files.readAllLines( historyFile.toPath(), UTF8 );
+            if ( lines.isEmpty() )
+            {
+                return null;
+            }
+            String[] fields = lines.get( 0 ).split( "\t" );
+            return new long[]{ Long.parseLong( fields[0] ), Long.parseLong( fields[1] ) };
+        }
+        catch ( IOException e )
+        {
+            return null;
+        }
+        catch ( RuntimeException e )
+        {
+            // Unreadable history, estimate from scratch
+            return null;
+        }
+    }
+
+    private void writeHistory( long peakHeap )
+    {
+        logger.debug( "Peak heap usage of the compile: " + peakHeap / MB + " MB" );
+        try
+        {
+            historyFile.getParentFile().mkdirs();
+            Files.write( historyFile.toPath(), Collections.singletonList( sourceCount + "\t" + peakHeap ), UTF8 );
+        }
+        catch ( IOException e )
+        {
+            logger.warn( "Unable to write " + historyFile + ": " + e.getMessage() );
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.util.List;
+import java.util.Map;
+import org.codehaus.plexus.compiler.CompilerException;
+import org.codehaus.plexus.compiler.CompilerMessage;
+import org.codehaus.plexus.compiler.CompilerResult;
+import org.codehaus.plexus.logging.Logger;
+
+/**
+ * Stops a compile once it has reported a given number of errors.
+ * <p>
+ * Enabled with <code>-Xjsr308.maxErrors=&lt;n&gt;</code>. The compile is cancelled by
+ * an {@link ErrorLimit} as soon as javac or the checkers have reported <code>n</code>
+ * errors, and the errors found until then are reported. With a {@link ShardedCheck},
+ * every worker process stops at the limit, and the remaining processes are killed as
+ * soon as the processes that finished have reported <code>n</code> errors together.
+ */
+final class FailFast
+{
+    private final int maxErrors;
+
+    private FailFast( int maxErrors )
+    {
+        this.maxErrors = maxErrors;
+    }
+
+    /**
+     * @return the error limit, or <code>null</code> if there is none
+     */
+    static FailFast create( PluginOptions options )
+        throws CompilerException
+    {
+        long maxErrors = options.getLong( "maxErrors", 0 );
+        if ( maxErrors <= 0 )
+        {
+            return null;
+        }
+        return new FailFast( (int) Math.min( maxErrors, Integer.MAX_VALUE ) );
+    }
+
+    int getMaxErrors()
+    {
+        return maxErrors;
+    }
+
+    void addSettings( Map<String, Object> settings )
+    {
+        settings.put( JavacTaskRunner.MAX_ERRORS, maxErrors );
+    }
+
+    /**
+     * @return whether <code>messages</code> contain enough errors to stop
+     */
+    boolean isReached( List<CompilerMessage> messages )
+    {
+        int errors = 0;
+        for ( CompilerMessage message : messages )
+        {
+            if ( message.getKind() == CompilerMessage.Kind.ERROR && ++errors >= maxErrors )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Report that the compile was stopped at the limit.
+     */
+    void report( Map<String, Object> results, CompilerResult result, Logger logger )
+    {
+        if ( Boolean.TRUE.equals( results.get( JavacTaskRunner.ERROR_LIMIT_REACHED ) ) )
+        {
+            stopped( result, "Compile", logger );
+        }
+    }
+
+    /**
+     * Add the message that <code>what</code> was stopped at the limit to <code>result</code>.
+     */
+    void stopped( CompilerResult result, String what, Logger logger )
+    {
+        String text = what + " stopped after " + maxErrors + " error" + ( maxErrors == 1 ? "" : "s" ) + " ("
+            + PluginOptions.PREFIX + "maxErrors)";
+        logger.info( text );
+        result.getCompilerMessages().add( new CompilerMessage( text, CompilerMessage.Kind.ERROR ) );
+        result.setSuccess( false );
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Persistent map from file path to a hash of the file, keyed by path, size and
+ * modification time. A cached hash is only returned as long as size and modification
+ * time of the file are unchanged.
+ * <p>
+ * There is one instance per index file and JVM, so all modules of a reactor build
+ * share the hashes of the jars they have in common. Saving writes a temporary file
+ * and renames it, so concurrent builds may lose each other's updates but never see
+ * a corrupt index. Only the entries that were looked up or stored by this JVM are
+ * saved, so hashes of jars that are no longer on any classpath do not pile up.
+ */
+final class FingerprintIndex
+{
+    private static final int FORMAT_VERSION = 1;
+
+    private static final ConcurrentMap<File, FingerprintIndex> INSTANCES =
+        new ConcurrentHashMap<File, FingerprintIndex>();
+
+    private static final class Entry
+    {
+        final long size;
+
+        final long lastModified;
+
+        final String hash;
+
+        Entry( long size, long lastModified, String hash )
+        {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+
+    private final File indexFile;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    private final Set<String> seen = Collections.newSetFromMap( new ConcurrentHashMap<String, Boolean>() );
+
+    private volatile boolean dirty;
+
+    private FingerprintIndex( File indexFile )
+    {
+        this.indexFile = indexFile;
+    }
+
+    static FingerprintIndex forFile( File indexFile )
+    {
+        File key = indexFile.getAbsoluteFile();
+        FingerprintIndex index = INSTANCES.get( key );
+        if ( index == null )
+        {
+            FingerprintIndex created = new FingerprintIndex( key );
+            created.load();
+            index = INSTANCES.putIfAbsent( key, created );
+            if ( index == null )
+            {
+                index = created;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return the cached hash for <code>file</code>, or <code>null</code> if there is
+     * none or the file has changed since it was hashed.
+     */
+    String get( File file )
+    {
+        String path = file.getAbsolutePath();
+        seen.add( path );
+        Entry entry = entries.get( path );
+        if ( entry == null || entry.size != file.length() || entry.lastModified != file.lastModified() )
+        {
+            return null;
+        }
+        return entry.hash;
+    }
+
+    void put( File file, long size, long lastModified, String hash )
+    {
+        String path = file.getAbsolutePath();
+        seen.add( path );
+        entries.put( path, new Entry( size, lastModified, hash ) );
+        dirty = true;
+    }
+
+    int size()
+    {
+        return entries.size();
+    }
+
+    private void load()
+    {
+        if ( !indexFile.isFile() )
+        {
+            return;
+        }
+        try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( indexFile ) ) ) )
+        {
+            if ( in.readInt() != FORMAT_VERSION )
+            {
+                return;
+            }
+            int count = in.readInt();
+            for ( int i = 0; i < count; i++ )
+            {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                String hash = in.readUTF();
+                entries.put( path, new Entry( size, lastModified, hash ) );
+            }
+        }
+        catch ( IOException e )
+        {
+            // A broken index only costs the time for rehashing
+            entries.clear();
+        }
+    }
+
+    synchronized void save()
+        throws IOException
+    {
+        Map<String, Entry> snapshot = new HashMap<String, Entry>( entries );
+        snapshot.keySet().retainAll( seen );
+        if ( !dirty && snapshot.size() == entries.size() )
+        {
+            return;
+        }
+        File dir = indexFile.getParentFile();
+        dir.mkdirs();
+        File tmp = File.createTempFile( indexFile.getName(), ".tmp", dir );
+        try
+        {
+            try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmp ) ) ) )
+            {
+                out.writeInt( FORMAT_VERSION );
+                out.writeInt( snapshot.size() );
+                for ( Map.Entry<String, Entry> e : snapshot.entrySet() )
+                {
+                    out.writeUTF( e.getKey() );
+                    out.writeLong( e.getValue().size );
+                    out.writeLong( e.getValue().lastModified );
+                    out.writeUTF( e.getValue().hash );
+                }
+            }
+            Files.move( tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE );
+            dirty = false;
+        }
+        finally
+        {
+            tmp.delete();
+        }
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Content and ABI hashes of the files that go into a compile, computed in parallel
+ * and cached in a persistent {@link FingerprintIndex} keyed by path, size and
+ * modification time, so unchanged files are never read twice.
+ * <p>
+ * There is one instance per cache directory and JVM.
+ */
+final class Fingerprinter
+{
+    // Mapping has a fixed cost, small files are cheaper to read
+    private static final long MAP_THRESHOLD = 256 * 1024;
+
+    private static final long MAP_CHUNK = 64L * 1024 * 1024;
+
+    private static final Map<File, Fingerprinter> INSTANCES = new TreeMap<File, Fingerprinter>();
+
+    private static final ExecutorService EXECUTOR =
+        Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors(), new ThreadFactory()
+        {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread( Runnable r )
+            {
+                Thread thread = new Thread( r, "jsr308-fingerprint-" + count.incrementAndGet() );
+                thread.setDaemon( true );
+                return thread;
+            }
+        } );
+
+    private final FingerprintIndex contentIndex;
+
+    private final FingerprintIndex abiIndex;
+
+    private Fingerprinter( File cacheDir )
+    {
+        contentIndex = FingerprintIndex.forFile( new File( cacheDir, "content-index.bin" ) );
+        abiIndex = FingerprintIndex.forFile( new File( cacheDir, "abi-index.bin" ) );
+    }
+
+    static Fingerprinter forCacheDirectory( File cacheDir )
+    {
+        File key = cacheDir.getAbsoluteFile();
+        synchronized ( INSTANCES )
+        {
+            Fingerprinter fingerprinter = INSTANCES.get( key );
+            if ( fingerprinter == null )
+            {
+                fingerprinter = new Fingerprinter( key );
+                INSTANCES.put( key, fingerprinter );
+            }
+            return fingerprinter;
+        }
+    }
+
+    /**
+     * Write the updated indexes to disk.
+     */
+    void save()
+        throws IOException
+    {
+        contentIndex.save();
+        abiIndex.save();
+    }
+
+    /**
+     * Content hash of a file, or of all files below a directory.
+     */
+    String contentHash( File file )
+        throws IOException
+    {
+        if ( file.isDirectory() )
+        {
+            return directoryHash( file );
+        }
+        if ( !file.isFile() )
+        {
+            return AbiFingerprint.MISSING;
+        }
+        String hash = contentIndex.get( file );
+        if ( hash == null )
+        {
+            long size = file.length();
+            long lastModified = file.lastModified();
+            hash = Hashes.toHex( hashFile( file.toPath() ) );
+            contentIndex.put( file, size, lastModified, hash );
+        }
+        return hash;
+    }
+
+    /**
+     * {@link AbiFingerprint ABI fingerprint} of a jar file or class directory.
+     */
+    String abiHash( File file )
+        throws IOException
+    {
+        return AbiFingerprint.of( file, abiIndex );
+    }
+
+    /**
+     * Content hashes of many files, computed in parallel.
+     *
+     * @return the hashes, in the order of <code>files</code>
+     */
+    List<String> contentHashes( List<File> files )
+        throws IOException
+    {
+        return hashAll( files, false );
+    }
+
+    /**
+     * ABI fingerprints of many classpath entries, computed in parallel.
+     *
+     * @return the fingerprints, in the order of <code>files</code>
+     */
+    List<String> abiHashes( List<File> files )
+        throws IOException
+    {
+        return hashAll( files, true );
+    }
+
+    private List<String> hashAll( List<File> files, final boolean abi )
+        throws IOException
+    {
+        List<Future<String>> futures = new ArrayList<Future<String>>( files.size() );
+        for ( final File file : files )
+        {
+            futures.add( EXECUTOR.submit( new Callable<String>()
+            {
+                public String call()
+                    throws IOException
+                {
+                    return abi ? abiHash( file ) : contentHash( file );
+                }
+            } ) );
+        }
+        List<String> hashes = new ArrayList<String>( files.size() );
+        try
+        {
+            for ( Future<String> future : futures )
+            {
+                hashes.add( future.get() );
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException( "Interrupted while hashing", e );
+        }
+        catch ( ExecutionException e )
+        {
+            if ( e.getCause() instanceof IOException )
+            {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException( "Error while hashing", e.getCause() );
+        }
+        finally
+        {
+            for ( Future<String> future : futures )
+            {
+                future.cancel( false );
+            }
+        }
+        return hashes;
+    }
+
+    private String directoryHash( File dir )
+        throws IOException
+    {
+        final Path root = dir.toPath();
+        final Map<String, File> files = new TreeMap<String, File>();
+        Files.walkFileTree( root, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult visitFile( Path file, BasicFileAttributes attrs )
+            {
+                files.put( root.relativize( file ).toString().replace( File.separatorChar, '/' ), file.toFile() );
+                return FileVisitResult.CONTINUE;
+            }
+        } );
+        MessageDigest digest = Hashes.newDigest();
+        DataOutputStream out = Hashes.digestStream( digest );
+        for ( Map.Entry<String, File> file : files.entrySet() )
+        {
+            out.writeUTF( file.getKey() );
+            out.writeUTF( contentHash( file.getValue() ) );
+        }
+        out.flush();
+        return Hashes.toHex( digest.digest() );
+    }
+
+    /**
+     * Hash a file, memory-mapping it if it is large enough for that to pay off.
+     * Mapped regions are released by the garbage collector, not when the channel is
+     * closed.
+     */
+    static byte[] hashFile( Path file )
+        throws IOException
+    {
+        MessageDigest digest = Hashes.newDigest();
+        try ( FileChannel channel = FileChannel.open( file, StandardOpenOption.READ ) )
+        {
+            long size = channel.size();
+            if ( size < MAP_THRESHOLD )
+            {
+                ByteBuffer buffer = ByteBuffer.allocate( (int) size );
+                while ( buffer.hasRemaining() && channel.read( buffer ) >= 0 )
+                {
+                    // read fully
+                }
+                // As a Buffer, or a build on Java 9 or later fails on Java 8
+                ( (Buffer) buffer ).flip();
+                digest.update( buffer );
+            }
+            else
+            {
+                for ( long position = 0; position < size; position += MAP_CHUNK )
+                {
+                    digest.update( channel.map( FileChannel.MapMode.READ_ONLY, position,
+                                                Math.min( MAP_CHUNK, size - position ) ) );
+                }
+            }
+        }
+        return digest.digest();
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import org.codehaus.plexus.compiler.CompilerConfiguration;
+import org.codehaus.plexus.compiler.CompilerException;
+import org.codehaus.plexus.logging.Logger;
+
+/**
+ * Controls what javac does with sources that are referenced by, but not part of, the
+ * compile.
+ * <p>
+ * The <code>-sourcepath</code> passed for MCOMPILER-98 makes javac parse and attribute
+ * every referenced source it finds there, and with the checkers on, analyze it too.
+ * <code>-Xjsr308.implicitSources</code> changes that:
+ * <ul>
+ * <li><code>compile</code> (the default) keeps the behavior of javac.</li>
+ * <li><code>none</code> adds <code>-implicit:none</code>: referenced sources are still
+ * read, but no class files are generated for them.</li>
+ * <li><code>classes</code> also leaves out <code>-sourcepath</code>, so referenced types
+ * that are not compiled come from the classes in the output directory. This is only
+ * done when it is safe: either all sources of the source roots are compiled, or the
+ * output directory already holds class files from an earlier compile.</li>
+ * </ul>
+ */
+final class ImplicitSources
+{
+    private static final String SOURCEPATH = "-sourcepath";
+
+    private static final String CLASSPATH = "-classpath";
+
+    private ImplicitSources()
+    {
+    }
+
+    /**
+     * @param outputFileEnding the ending of the class files in the output directory
+     */
+    static String[] apply( CompilerConfiguration config, PluginOptions options, String[] args,
+                           String outputFileEnding, Logger logger )
+        throws CompilerException
+    {
+        String mode = options.get( "implicitSources", "compile" );
+        if ( "compile".equals( mode ) )
+        {
+            return args;
+        }
+        if ( !"none".equals( mode ) && !"classes".equals( mode ) )
+        {
+            throw new CompilerException( "Invalid value for " + PluginOptions.PREFIX + "implicitSources: " + mode
+                + " (must be 'compile', 'none' or 'classes')" );
+        }
+        List<String> result = new ArrayList<String>( Arrays.asList( args ) );
+        if ( !result.contains( "-implicit:none" ) && !result.contains( "-implicit:class" ) )
+        {
+            result.add( "-implicit:none" );
+        }
+        if ( "classes".equals( mode ) )
+        {
+            if ( isSafeWithoutSourcepath( config, outputFileEnding ) )
+            {
+                removeSourcepath( config, result );
+            }
+            else
+            {
+                logger.info( "Only some sources are compiled and there are no classes from an earlier compile, "
+                    + "keeping the source path" );
+            }
+        }
+        return result.toArray( new String[result.size()] );
+    }
+
+    private static boolean isSafeWithoutSourcepath( CompilerConfiguration config, String outputFileEnding )
+    {
+        Set<File> sourceFiles = config.getSourceFiles();
+        if ( sourceFiles == null || sourceFiles.isEmpty() )
+        {
+            // All sources of the source roots are compiled
+            return true;
+        }
+        // Resources are copied to the output directory before the compile, only classes count
+        return containsFile( new File( config.getOutputLocation() ), outputFileEnding );
+    }
+
+    private static boolean containsFile( File dir, String ending )
+    {
+        File[] files = dir.listFiles();
+        if ( files == null )
+        {
+            return false;
+        }
+        for ( File file : files )
+        {
+            if ( file.isDirectory() ? containsFile( file, ending ) : file.getName().endsWith( ending ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void removeSourcepath( CompilerConfiguration config, List<String> args )
+    {
+        int index = args.indexOf( SOURCEPATH );
+        if ( index < 0 || index + 1 >= args.size() )
+        {
+            return;
+        }
+        args.subList( index, index + 2 ).clear();
+
+        // Types not compiled now have to come from the classes of the earlier compile
+        String output = new File( config.getOutputLocation() ).getAbsolutePath();
+        int classpath = args.indexOf( CLASSPATH );
+        if ( classpath >= 0 && classpath + 1 < args.size() )
+        {
+            List<String> entries = Arrays.asList( args.get( classpath + 1 ).split( File.pathSeparator ) );
+            if ( !entries.contains( output ) && !entries.contains( config.getOutputLocation() ) )
+            {
+                args.set( classpath + 1, args.get( classpath + 1 ) + File.pathSeparator + output );
+            }
+        }
+    }
+}
@@ -43,6 +43,7 @@ package net.rkunze.maven.compiler.jsr308javac;
  */
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -50,20 +51,32 @@ import java.io.StringReader;
 import java.io.StringWriter;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
 import org.codehaus.plexus.compiler.AbstractCompiler;
 import org.codehaus.plexus.compiler.CompilerConfiguration;
 import org.codehaus.plexus.compiler.CompilerException;
 import org.codehaus.plexus.compiler.CompilerMessage;
 import org.codehaus.plexus.compiler.CompilerOutputStyle;
 import org.codehaus.plexus.compiler.CompilerResult;
+import org.codehaus.plexus.logging.Logger;
 import org.codehaus.plexus.util.StringUtils;
 
 /**
@@ -87,7 +100,7 @@ public class JavacJSR308Compiler
     private static final Object LOCK = new Object();
 
     private static final String JAVAC_CLASSNAME = "com.sun.tools.javac.Main";
-    private static volatile Class<?> JAVAC_CLASS;
+    private static final String TASK_RUNNER_CLASSNAME = "net.rkunze.maven.compiler.jsr308javac.JavacTaskRunner";
 
     private List<Class<?>> javaccClasses = new CopyOnWriteArrayList<Class<?>>();
 
@@ -98,12 +111,66 @@ public class JavacJSR308Compiler
     public JavacJSR308Compiler()
     {
         super( CompilerOutputStyle.ONE_OUTPUT_FILE_PER_INPUT_FILE, ".java", ".class", null );
+        WarmUp.startIfEnabled( this );
     }
     
     // ----------------------------------------------------------------------
     // Compiler Implementation
     // ----------------------------------------------------------------------
 
+    /**
+     * Compile on a thread of a shared pool of daemon threads.
+     *
+     * @see #performCompileAsync(CompilerConfiguration, Executor, CompileListener)
+     */
+    public Future<CompilerResult> performCompileAsync( CompilerConfiguration config, CompileListener listener )
+    {
+        return performCompileAsync( config, AsyncCompile.DEFAULT_EXECUTOR, listener );
+    }
+
+    /**
+     * Compile like {@link #performCompile}, but on a thread of <code>executor</code>, so
+     * the caller can go on with other work. The compile takes its javac instance from
+     * the same pool as synchronous compiles. Cancelling the future stops an in-process
+     * compile with the JSR 308 compiler between two classes; other compiles are only
+     * prevented from starting, their result is discarded.
+     *
+     * @param listener receives progress callbacks, may be <code>null</code>
+     * @return the result of the compile; a {@link CompilerException} is the cause of
+     * the <code>ExecutionException</code> thrown by <code>get()</code>
+     */
+    public Future<CompilerResult> performCompileAsync( final CompilerConfiguration config, Executor executor,
+                                                       CompileListener listener )
+    {
+        final AsyncCompile async = new AsyncCompile( listener );
+        FutureTask<CompilerResult> future = new FutureTask<CompilerResult>( new Callable<CompilerResult>()
+        {
+            public CompilerResult call()
+                throws CompilerException
+            {
+                async.enter();
+                try
+                {
+                    return performCompile( config );
+                }
+                finally
+                {
+                    async.exit();
+                }
+            }
+        } )
+        {
+            @Override
+            public boolean cancel( boolean mayInterruptIfRunning )
+            {
+                async.cancel();
+                return super.cancel( mayInterruptIfRunning );
+            }
+        };
+        executor.execute( future );
+        return future;
+    }
+
     public CompilerResult performCompile( CompilerConfiguration config )
         throws CompilerException
     {
@@ -119,13 +186,87 @@ public class JavacJSR308Compiler
             destinationDir.mkdirs();
         }
 
-        String[] sourceFiles = getSourceFiles( config );
+        PluginOptions options = PluginOptions.of( config );
+
+        SourceScanner scanner = SourceScanner.create( config, options );
+
+        String[] sourceFiles = scanner == null ? getSourceFiles( config ) : scanner.scan();
 
         if ( ( sourceFiles == null ) || ( sourceFiles.length == 0 ) )
         {
             return new CompilerResult();
         }
 
+        boolean checkers = runsCheckers( config );
+
+        CompilerEvents.Span argumentSpan = CompilerEvents.get().argumentBuilding( destinationDir.getAbsolutePath() );
+
+        String[] args = buildCompilerArguments( config, sourceFiles, checkers );
+
+        CheckerBudget budget = CheckerBudget.create( config, options );
+
+        if ( budget != null )
+        {
+            args = budget.addSkipDefs( args );
+        }
+
+        if ( checkers && ProcessorPath.isEnabled( options ) )
+        {
+            args = ProcessorPath.apply( args );
+        }
+
+        args = ProcessorDiscovery.apply( config, options, args, getLogger() );
+
+        args = ImplicitSources.apply( config, options, args, getOutputFileEnding( config ), getLogger() );
+
+        ChangeScope scope = ChangeScope.create( config, options, getLogger() );
+
+        if ( scope != null )
+        {
+            args = scope.addOnlyDefs( args, scanner );
+        }
+
+        // Pruning and ABI stubs change the classpath, but not the result of the compile
+        String[] avoidanceArgs = args;
+
+        ClasspathPruning pruning = ClasspathPruning.create( config, options );
+
+        if ( pruning != null )
+        {
+            args = pruning.apply( args, getLogger() );
+        }
+
+        AbiStubs stubs = checkers ? AbiStubs.create( config, options ) : null;
+
+        if ( stubs != null )
+        {
+            args = stubs.apply( args, getLogger() );
+        }
+
+        argumentSpan.end();
+
+        DiagnosticsReport report = DiagnosticsReport.create( options );
+
+        CompileAvoidance avoidance =
+            CompileAvoidance.create( config, options, getLogger(), avoidanceArgs, sourceFiles,
+                                     getOutputFileEnding( config ) );
+
+        if ( avoidance != null )
+        {
+            CompilerResult previous = avoidance.upToDateResult();
+            if ( previous != null )
+            {
+                getLogger().info( "Nothing to compile - sources and classpath ABI unchanged since the last compile" );
+                CompilerMetrics.get().upToDate();
+                if ( report != null )
+                {
+                    report.write( previous.getCompilerMessages(), getLogger() );
+                }
+                saveSourceSnapshot( scanner );
+                return previous;
+            }
+        }
+
         if ( ( getLogger() != null ) && getLogger().isInfoEnabled() )
         {
             getLogger().info( "Compiling " + sourceFiles.length + " " +
@@ -133,28 +274,155 @@ public class JavacJSR308Compiler
                                   " to " + destinationDir.getAbsolutePath() );
         }
 
-        String[] args = buildCompilerArguments( config, sourceFiles );
+        AsyncCompile async = AsyncCompile.current();
+
+        if ( async != null )
+        {
+            if ( async.isCancelled() )
+            {
+                throw new CancellationException( "Compile cancelled" );
+            }
+            async.compileStarted( sourceFiles.length );
+        }
 
         CompilerResult result;
 
-        result = compileInProcess( args, config );
+        CompileTimeHistory timeHistory = CompileTimeHistory.create( config, options );
+
+        long start = System.nanoTime();
+
+        CompilerEvents.Span compileSpan =
+            CompilerEvents.get().compile( destinationDir.getAbsolutePath(), sourceFiles.length );
+
+        ShardedCheck sharded = checkers ? ShardedCheck.create( config, options, getLogger() ) : null;
+
+        ExecutionStrategy execution = ExecutionStrategy.create( config, options, sourceFiles.length, getLogger() );
+
+        if ( timeHistory != null && execution == null )
+        {
+            // With an execution strategy, it measures the heap of the JVM that compiles
+            HeapUsage.resetPeak();
+        }
+
+        // Sharded checks merge the messages of all processes, their report is written afterwards
+        DiagnosticsReport streamedReport = sharded == null ? report : null;
+
+        result = compile( sharded == null ? args : sharded.compileArguments( args ), config, checkers, execution,
+                          budget, streamedReport );
+
+        if ( pruning != null && pruning.shouldRetry( result ) )
+        {
+            getLogger().info( "Compile with the pruned classpath failed, compiling again with the full classpath" );
+            args = pruning.getFullArguments();
+            if ( stubs != null )
+            {
+                args = stubs.apply( args, getLogger() );
+            }
+            result = compile( sharded == null ? args : sharded.compileArguments( args ), config, checkers, execution,
+                              budget, streamedReport );
+        }
+
+        if ( sharded != null && result.isSuccess() )
+        {
+            result = sharded.check( args, sourceFiles, result );
+        }
+
+        compileSpan.end();
+
+        if ( report != null && !report.wasStreamed( result ) )
+        {
+            report.write( result.getCompilerMessages(), getLogger() );
+        }
+
+        long millis = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - start );
+
+        CompilerMetrics.get().compiled( millis, result.isSuccess() );
+
+        if ( timeHistory != null )
+        {
+            timeHistory.record( result, sourceFiles.length, millis,
+                                execution != null ? execution.getPeakHeap() : HeapUsage.peak(), getLogger() );
+        }
+
+        if ( avoidance != null )
+        {
+            avoidance.recordResult( result );
+        }
+
+        if ( result.isSuccess() )
+        {
+            saveSourceSnapshot( scanner );
+        }
 
         return result;
     }
 
+    private void saveSourceSnapshot( SourceScanner scanner )
+    {
+        if ( scanner == null )
+        {
+            return;
+        }
+        try
+        {
+            scanner.saveSnapshot();
+        }
+        catch ( IOException e )
+        {
+            getLogger().warn( "Unable to save the source snapshot: " + e.getMessage() );
+        }
+    }
+
     public String[] createCommandLine( CompilerConfiguration config )
         throws CompilerException
     {
-        return buildCompilerArguments( config, getSourceFiles( config ) );
+        return buildCompilerArguments( config, getSourceFiles( config ), runsCheckers( config ) );
     }
 
     public static String[] buildCompilerArguments( CompilerConfiguration config, String[] sourceFiles ) throws CompilerException
     {
-        if (!ClasspathConfig.getCheckerJar().exists()) {
-            throw new CompilerException("Type checker jar not found: " + ClasspathConfig.getCheckerJar().getAbsolutePath());
+        return buildCompilerArguments( config, sourceFiles, true );
+    }
+
+    /**
+     * Whether the compile runs any annotation processors, i.e. checkers. Without them,
+     * neither the annotated JDK nor the JSR 308 compiler are needed. Without configured
+     * processors, javac discovers them on the classpath; then the compile runs checkers
+     * if one of the {@link ProcessorDiscovery#registeredCheckers registered processors}
+     * looks like a checker.
+     */
+    static boolean runsCheckers( CompilerConfiguration config )
+    {
+        if ( "none".equals( config.getProc() ) )
+        {
+            return false;
         }
-        if (!ClasspathConfig.getAnnotatedJDK(System.getProperty("java.version")).exists()) {
-            throw new CompilerException("Annotaded JDK jar not found: " + ClasspathConfig.getAnnotatedJDK(System.getProperty("java.version")).getAbsolutePath());
+        String[] processors = config.getAnnotationProcessors();
+        if ( processors != null && processors.length > 0 )
+        {
+            return true;
+        }
+        for ( String key : config.getCustomCompilerArgumentsAsMap().keySet() )
+        {
+            if ( "-processor".equals( key ) )
+            {
+                return true;
+            }
+        }
+        return !ProcessorDiscovery.registeredCheckers( config ).isEmpty();
+    }
+
+    /**
+     * @param checkers if <code>false</code>, the arguments are for the stock javac: no
+     * annotated JDK on the boot classpath, and only the type qualifiers instead of the
+     * checker jar on the classpath
+     */
+    static String[] buildCompilerArguments( CompilerConfiguration config, String[] sourceFiles, boolean checkers )
+        throws CompilerException
+    {
+        if ( checkers )
+        {
+            checkCheckerJars();
         }
         List<String> args = new ArrayList<String>();
 
@@ -173,15 +441,20 @@ public class JavacJSR308Compiler
         // ----------------------------------------------------------------------
         
         // FIXME: Handle "bootclasspath" argument
-        args.add( "-Xbootclasspath/p:" + getPathString(Arrays.asList(
-                    ClasspathConfig.getAnnotatedJDK(System.getProperty("java.version")).getAbsolutePath(),
-                    ClasspathConfig.getCompilerJar().getAbsolutePath()
-                )));
+        if ( checkers )
+        {
+            args.add( "-Xbootclasspath/p:" + getPathString(Arrays.asList(
+                        ClasspathConfig.getAnnotatedJDK(System.getProperty("java.version")).getAbsolutePath(),
+                        ClasspathConfig.getCompilerJar().getAbsolutePath()
+                    )));
+        }
 
         args.add( "-classpath" );
         List<String> originalClasspath = config.getClasspathEntries();
         List<String> classpathEntries = new ArrayList<>(originalClasspath==null ? 1 : originalClasspath.size() + 1);
-        classpathEntries.add(ClasspathConfig.getCheckerJar().getAbsolutePath());
+        // The sources may use the type qualifiers even if no checker runs
+        classpathEntries.add( ( checkers ? ClasspathConfig.getCheckerJar()
+            : ClasspathConfig.getCheckerQualJar() ).getAbsolutePath() );
         if ( originalClasspath != null && !originalClasspath.isEmpty() )
         {
             classpathEntries.addAll(originalClasspath);
@@ -302,7 +575,7 @@ public class JavacJSR308Compiler
         {
             String key = entry.getKey();
 
-            if ( StringUtils.isEmpty( key ) || key.startsWith( "-J" ) )
+            if ( StringUtils.isEmpty( key ) || key.startsWith( "-J" ) || PluginOptions.isPluginOption( key ) )
             {
                 continue;
             }
@@ -322,6 +595,17 @@ public class JavacJSR308Compiler
         return args.toArray( new String[args.size()] );
     }
 
+    private static void checkCheckerJars()
+        throws CompilerException
+    {
+        if (!ClasspathConfig.getCheckerJar().exists()) {
+            throw new CompilerException("Type checker jar not found: " + ClasspathConfig.getCheckerJar().getAbsolutePath());
+        }
+        if (!ClasspathConfig.getAnnotatedJDK(System.getProperty("java.version")).exists()) {
+            throw new CompilerException("Annotaded JDK jar not found: " + ClasspathConfig.getAnnotatedJDK(System.getProperty("java.version")).getAbsolutePath());
+        }
+    }
+
     /**
      * Determine if the compiler is a version prior to 1.4.
      * This is needed as 1.3 and earlier did not support -source or -encoding parameters
@@ -381,43 +665,223 @@ public class JavacJSR308Compiler
         return isPreJava14( config );
     }
 
+    /**
+     * Compile in-process or in a forked JVM, as decided by the execution strategy.
+     *
+     * @param execution the execution strategy, or <code>null</code> to compile in-process
+     * @param budget the time budget per compilation unit, or <code>null</code>
+     * @param report the report to write the messages to while compiling, or <code>null</code>
+     */
+    private CompilerResult compile( String[] args, CompilerConfiguration config, boolean checkers,
+                                    ExecutionStrategy execution, CheckerBudget budget, DiagnosticsReport report )
+        throws CompilerException
+    {
+        if ( execution == null )
+        {
+            return compileInProcess( args, config, checkers, budget, report );
+        }
+        if ( execution.isForked( args, checkers ) )
+        {
+            return execution.compileForked( args, report );
+        }
+        execution.beforeInProcess();
+        CompilerResult result = compileInProcess( args, config, checkers, budget, report );
+        execution.afterInProcess();
+        return result;
+    }
+
     /**
      * Compile the java sources in the current JVM, without calling an external executable,
      * using <code>com.sun.tools.javac.Main</code> class
      *
      * @param args   arguments for the compiler as they would be used in the command line javac
      * @param config compiler configuration
+     * @param checkers whether the compile runs checkers; if not and no feature needs
+     * the JSR 308 compiler, the stock system compiler is used
+     * @param budget the time budget per compilation unit, or <code>null</code>
+     * @param report the report to write the messages to while compiling, or <code>null</code>
      * @return a CompilerResult object encapsulating the result of the compilation and any compiler messages
      * @throws CompilerException
      */
-    CompilerResult compileInProcess( String[] args, CompilerConfiguration config )
+    CompilerResult compileInProcess( String[] args, CompilerConfiguration config, boolean checkers,
+                                     CheckerBudget budget, DiagnosticsReport report )
         throws CompilerException
     {
+        PluginOptions options = PluginOptions.of( config );
+
+        // Settings for the features that need javac's task API, see JavacTaskRunner
+        Map<String, Object> settings = new HashMap<String, Object>();
+        if ( budget != null )
+        {
+            budget.addSettings( settings );
+        }
+        if ( checkers && ProcessorPath.isEnabled( options ) )
+        {
+            ProcessorPath.addSettings( settings );
+        }
+        ClasspathPruning pruning = ClasspathPruning.create( config, options );
+        if ( pruning != null )
+        {
+            pruning.addSettings( settings );
+        }
+        if ( options.getBoolean( "skipUnchangedOutputs", false ) )
+        {
+            settings.put( JavacTaskRunner.SKIP_UNCHANGED_OUTPUTS, Boolean.TRUE );
+        }
+        FailFast failFast = FailFast.create( options );
+        if ( failFast != null )
+        {
+            failFast.addSettings( settings );
+        }
+        long sourceCacheSize = options.getLong( "sourceCacheSize", 0 );
+        if ( sourceCacheSize > 0 )
+        {
+            settings.put( JavacTaskRunner.SOURCE_CACHE_SIZE, sourceCacheSize * 1024 * 1024 );
+        }
+        if ( checkers && options.getBoolean( "mapBootArchives", false ) )
+        {
+            settings.put( JavacTaskRunner.MAPPED_ARCHIVES, new String[] {
+                ClasspathConfig.getAnnotatedJDK( System.getProperty( "java.version" ) ).getAbsolutePath(),
+                ClasspathConfig.getCompilerJar().getAbsolutePath() } );
+        }
+        if ( checkers && CompilerEvents.get().isRecordingCheckerAnalysis()
+            && !settings.containsKey( JavacTaskRunner.CHECKERS ) )
+        {
+            // The analysis of each class is only recorded by the task runner, which is
+            // only used for it while a recording is running
+            String[] processors = config.getAnnotationProcessors();
+            settings.put( JavacTaskRunner.CHECKERS, processors == null ? new String[0] : processors );
+        }
+        if ( report != null )
+        {
+            report.addSettings( settings );
+        }
+        Map<String, Object> results = new HashMap<String, Object>();
+
+        // Progress and cancellation alone do not switch to the JSR 308 compiler
+        AsyncCompile async = AsyncCompile.current();
+        if ( async != null && ( checkers || !settings.isEmpty() ) )
+        {
+            async.addSettings( settings );
+        }
+
+        if ( !checkers && settings.isEmpty() )
+        {
+            JavaCompiler systemCompiler = ToolProvider.getSystemJavaCompiler();
+            if ( systemCompiler != null )
+            {
+                getLogger().info( "No checkers configured - compiling with the system Java compiler" );
+                return compileWithSystemCompiler( systemCompiler, args );
+            }
+            getLogger().info( "No checkers configured, but no system Java compiler available - "
+                + "compiling with the JSR 308 compiler" );
+        }
+        else if ( checkers )
+        {
+            String[] processors = config.getAnnotationProcessors();
+            String processorArg = config.getCustomCompilerArgumentsAsMap().get( "-processor" );
+            getLogger().info( "Compiling with the JSR 308 compiler, checkers: "
+                + ( processors != null && processors.length > 0 ? StringUtils.join( processors, "," )
+                : processorArg != null ? processorArg
+                : StringUtils.join( ProcessorDiscovery.registeredCheckers( config ).iterator(), "," )
+                    + " (registered on the classpath)" ) );
+        }
+        else
+        {
+            getLogger().info( "No checkers configured - compiling with the JSR 308 compiler for the "
+                + PluginOptions.PREFIX + " options in use" );
+        }
+
         final Class<?> javacClass = getJavacClass( config );
         final Thread thread = Thread.currentThread();
         final ClassLoader contextClassLoader = thread.getContextClassLoader();
         thread.setContextClassLoader( javacClass.getClassLoader() );
         getLogger().debug( "ttcl changed run compileInProcessWithProperClassloader" );
+        StackSampler sampler = StackSampler.create( config, options );
+        if ( sampler != null )
+        {
+            sampler.start();
+        }
+        CompilerResult result;
         try
         {
-            return compileInProcessWithProperClassloader(javacClass, args);
+            result = compileInProcessWithProperClassloader( javacClass, args, settings, results );
         }
         finally
         {
+            if ( sampler != null )
+            {
+                sampler.stop( getLogger() );
+            }
             releaseJavaccClass( javacClass, config );
             thread.setContextClassLoader( contextClassLoader );
         }
+
+        if ( budget != null )
+        {
+            budget.report( results, result, getLogger() );
+        }
+        if ( pruning != null )
+        {
+            pruning.recordUsage( results, result, getLogger() );
+        }
+        if ( failFast != null )
+        {
+            failFast.report( results, result, getLogger() );
+        }
+        if ( report != null )
+        {
+            report.streamed( results, result, getLogger() );
+        }
+        if ( results.containsKey( JavacTaskRunner.SOURCE_CACHE_HITS ) )
+        {
+            int hits = (Integer) results.get( JavacTaskRunner.SOURCE_CACHE_HITS );
+            int misses = (Integer) results.get( JavacTaskRunner.SOURCE_CACHE_MISSES );
+            CompilerMetrics.get().sourceCache( hits, misses );
+            getLogger().debug( "Read " + hits + " sources from the source cache, " + misses + " from disk" );
+        }
+        if ( results.containsKey( JavacTaskRunner.PROCESSOR_LOADER_REUSED ) )
+        {
+            CompilerMetrics.get().processorLoader(
+                Boolean.TRUE.equals( results.get( JavacTaskRunner.PROCESSOR_LOADER_REUSED ) ) );
+        }
+        if ( results.containsKey( JavacTaskRunner.OUTPUTS_WRITTEN ) && getLogger().isDebugEnabled() )
+        {
+            getLogger().debug( "Wrote " + results.get( JavacTaskRunner.OUTPUTS_WRITTEN ) + " output files, "
+                + results.get( JavacTaskRunner.OUTPUTS_UNCHANGED ) + " unchanged" );
+        }
+        return result;
     }
 
     protected CompilerResult compileInProcessWithProperClassloader( Class<?> javacClass, String[] args )
         throws CompilerException {
-      return compileInProcess0(javacClass, args);
+      return compileInProcess0(javacClass, args, Collections.<String, Object>emptyMap(), new HashMap<String, Object>());
+    }
+
+    /**
+     * Like {@link #compileInProcessWithProperClassloader(Class, String[])}, for compiles
+     * that use features of {@link JavacTaskRunner}.
+     *
+     * @param settings settings for <code>JavacTaskRunner</code>; if empty, the compile
+     * is done by {@link #compileInProcessWithProperClassloader(Class, String[])}
+     * @param results receives the results from <code>JavacTaskRunner</code>
+     */
+    protected CompilerResult compileInProcessWithProperClassloader( Class<?> javacClass, String[] args,
+                                                                    Map<String, ?> settings,
+                                                                    Map<String, Object> results )
+        throws CompilerException {
+      if ( settings.isEmpty() )
+      {
+          return compileInProcessWithProperClassloader( javacClass, args );
+      }
+      return compileInProcess0(javacClass, args, settings, results);
     }
 
     /**
      * Helper method for compileInProcess()
      */
-    private static CompilerResult compileInProcess0( Class<?> javacClass, String[] args )
+    static CompilerResult compileInProcess0( Class<?> javacClass, String[] args, Map<String, ?> settings,
+                                             Map<String, Object> results )
         throws CompilerException
     {
         StringWriter out = new StringWriter();
@@ -428,11 +892,28 @@ public class JavacJSR308Compiler
 
         try
         {
-            Method compile = javacClass.getMethod( "compile", new Class[]{ String[].class, PrintWriter.class } );
+            if ( settings.isEmpty() )
+            {
+                Method compile = javacClass.getMethod( "compile", new Class[]{ String[].class, PrintWriter.class } );
+
+                ok = (Integer) compile.invoke( null, new Object[]{ args, new PrintWriter( out ) } );
+            }
+            else
+            {
+                // The runner has to be loaded by the javac class loader, see JavacTaskRunner
+                Class<?> runner = javacClass.getClassLoader().loadClass( TASK_RUNNER_CLASSNAME );
 
-            ok = (Integer) compile.invoke( null, new Object[]{ args, new PrintWriter( out ) } );
+                Method compile = runner.getMethod( "compile", new Class<?>[]{ String[].class, PrintWriter.class,
+                    Map.class, Map.class } );
 
-            messages = parseModernStream( ok.intValue(), new BufferedReader( new StringReader( out.toString() ) ) );
+                ok = (Integer) compile.invoke( null, new Object[]{ args, new PrintWriter( out ), settings, results } );
+            }
+
+            messages = parseOutput( ok.intValue(), out.toString() );
+        }
+        catch ( ClassNotFoundException e )
+        {
+            throw new CompilerException( "Error while executing the compiler.", e );
         }
         catch ( NoSuchMethodException e )
         {
@@ -455,6 +936,49 @@ public class JavacJSR308Compiler
         return new CompilerResult( success, messages );
     }
 
+    /**
+     * Compile with the stock javac of the running JDK, without the JSR 308 compiler and
+     * its class loader.
+     */
+    private static CompilerResult compileWithSystemCompiler( JavaCompiler compiler, String[] args )
+        throws CompilerException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        int exitCode = compiler.run( null, out, out, args );
+
+        List<CompilerMessage> messages;
+        try
+        {
+            messages = parseOutput( exitCode, out.toString() );
+        }
+        catch ( IOException e )
+        {
+            throw new CompilerException( "Error while executing the compiler.", e );
+        }
+
+        return new CompilerResult( exitCode == 0, messages );
+    }
+
+    /**
+     * Like {@link #parseModernStream(int, BufferedReader)}, counting the parsed output
+     * in the {@link CompilerMetrics}.
+     */
+    static List<CompilerMessage> parseOutput( int exitCode, String output )
+        throws IOException
+    {
+        CompilerMetrics.get().diagnosticsParsed( output.length() );
+        CompilerEvents.Span span = CompilerEvents.get().diagnosticParsing( output.length() );
+        try
+        {
+            return parseModernStream( exitCode, new BufferedReader( new StringReader( output ) ) );
+        }
+        finally
+        {
+            span.end();
+        }
+    }
+
     /**
      * Parse the output from the compiler into a list of CompilerMessage objects
      *
@@ -690,12 +1214,22 @@ public class JavacJSR308Compiler
             == CompilerConfiguration.CompilerReuseStrategy.ReuseCreated )
         {
             javaccClasses.add( javaccClass );
+            CompilerMetrics.get().javacPooled( 1 );
         }
+        CompilerEvents.get().javacReturned( compilerConfiguration.getCompilerReuseStrategy()
+            != CompilerConfiguration.CompilerReuseStrategy.AlwaysNew );
+
+    }
 
+    private static void javacBorrowed( boolean reused )
+    {
+        CompilerMetrics.get().javacClass( reused );
+        CompilerEvents.get().javacBorrowed( reused );
     }
 
     /**
-     * Find the main class of JavaC. Return the same class for subsequent calls.
+     * Find the main class of JavaC. With <code>ReuseSame</code>, return the same class
+     * for subsequent calls while the javac jars stay the same, see {@link JavacLoaderCache}.
      *
      * @return the non-null class.
      * @throws CompilerException if the class has not been found.
@@ -707,6 +1241,7 @@ public class JavacJSR308Compiler
         switch ( compilerConfiguration.getCompilerReuseStrategy() )
         {
             case AlwaysNew:
+                javacBorrowed( false );
                 return createJavacClass();
             case ReuseCreated:
                 synchronized ( javaccClasses )
@@ -715,29 +1250,74 @@ public class JavacJSR308Compiler
                     {
                         c = javaccClasses.get( 0 );
                         javaccClasses.remove( c );
+                        CompilerMetrics.get().javacPooled( -1 );
+                        javacBorrowed( true );
                         return c;
                     }
                 }
+                javacBorrowed( false );
                 c = createJavacClass();
                 return c;
             case ReuseSame:
             default:
-                c = JavacJSR308Compiler.JAVAC_CLASS;
-                if ( c != null )
-                {
-                    return c;
-                }
-                synchronized ( JavacJSR308Compiler.LOCK )
+                return getSharedJavacClass( true );
+        }
+    }
+
+    /**
+     * Find the javac main class shared by all compiles, creating it if there is none yet
+     * or the jars it was loaded from have changed.
+     *
+     * @param borrowed whether a compile is going to use it, as opposed to a warm-up
+     */
+    Class<?> getSharedJavacClass( boolean borrowed )
+        throws CompilerException
+    {
+        String key = JavacLoaderCache.key( getJavacClassPath() );
+        Class<?> c = JavacLoaderCache.get( key );
+        if ( c != null )
+        {
+            if ( borrowed )
+            {
+                javacBorrowed( true );
+            }
+            return c;
+        }
+        synchronized ( JavacJSR308Compiler.LOCK )
+        {
+            c = JavacLoaderCache.get( key );
+            if ( borrowed )
+            {
+                javacBorrowed( c != null );
+            }
+            if ( c == null )
+            {
+                c = createJavacClass();
+                if ( JavacLoaderCache.put( key, c ) && getLogger() != null )
                 {
-                    if ( c == null )
-                    {
-                        JavacJSR308Compiler.JAVAC_CLASS = c = createJavacClass();
-                    }
-                    return c;
+                    getLogger().debug( "The compiler jars have changed, replaced the shared javac instance" );
                 }
+            }
+            return c;
+        }
+    }
 
+    /**
+     * The logger, for helpers that run outside of a compile such as {@link WarmUp}.
+     *
+     * @return the logger, or <code>null</code> if the component has none yet
+     */
+    Logger logger()
+    {
+        return getLogger();
+    }
 
-        }
+    /**
+     * @return the class path of the javac class loader
+     */
+    private URL[] getJavacClassPath()
+    {
+        return ( (URLClassLoader) getClass().getClassLoader() ).getURLs();
     }
 
 
@@ -747,14 +1327,14 @@ public class JavacJSR308Compiler
     protected Class<?> createJavacClass()
         throws CompilerException
     {
+        CompilerEvents.Span span = CompilerEvents.get().loaderCreation();
         try
         {
             if (!ClasspathConfig.getCompilerJar().exists()) {
                 throw new CompilerException("Javac jar file not found: " + ClasspathConfig.getCompilerJar().getAbsolutePath());
             }
 
-            ClassLoader javacClassLoader = new DelegateLastClassLoader(
-                    ((URLClassLoader)getClass().getClassLoader()).getURLs() );
+            ClassLoader javacClassLoader = new DelegateLastClassLoader( getJavacClassPath() );
 
             final Thread thread = Thread.currentThread();
             final ClassLoader contextClassLoader = thread.getContextClassLoader();
@@ -773,6 +1353,10 @@ public class JavacJSR308Compiler
             throw new CompilerException( "Unable to locate the javac compiler in " 
                     + ClasspathConfig.getCompilerJar().getAbsolutePath(), ex );
         }
+        finally
+        {
+            span.end();
+        }
     }
 
 }
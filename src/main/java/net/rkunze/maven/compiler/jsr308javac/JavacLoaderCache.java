@@ -0,0 +1,108 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.net.URL;
+
+/**
+ * The javac instance shared by all compiles with the <code>ReuseSame</code> reuse
+ * strategy.
+ * <p>
+ * A javac instance is a class loader for the class path of this plugin's own class
+ * loader: the compiler jar, the checkers and the plugin itself. That class path is
+ * fixed for the plugin realm, which also holds this cache, and other plugin versions
+ * or configurations with other dependencies get a realm and cache of their own. So
+ * there is only one instance to keep. It is keyed by the jars with their size and
+ * modification time, and replaced when a jar is rebuilt while the JVM runs (e.g. a
+ * snapshot of the plugin in a Maven daemon). The replaced instance is not closed,
+ * because a concurrent compile may still use it.
+ */
+final class JavacLoaderCache
+{
+    private static String cachedKey;
+
+    private static Class<?> cachedClass;
+
+    private JavacLoaderCache()
+    {
+    }
+
+    /**
+     * @return the key for a javac instance loaded from <code>urls</code>
+     */
+    static String key( URL[] urls )
+    {
+        StringBuilder key = new StringBuilder();
+        for ( URL url : urls )
+        {
+            key.append( url );
+            File file = toFile( url );
+            if ( file != null )
+            {
+                key.append( '\0' ).append( file.length() ).append( '\0' ).append( file.lastModified() );
+            }
+            key.append( '\n' );
+        }
+        return key.toString();
+    }
+
+    private static File toFile( URL url )
+    {
+        if ( !"file".equals( url.getProtocol() ) )
+        {
+            return null;
+        }
+        try
+        {
+            return new File( url.toURI() );
+        }
+        catch ( URISyntaxException | IllegalArgumentException e )
+        {
+            return null;
+        }
+    }
+
+    /**
+     * @return the javac main class cached for <code>key</code>, or <code>null</code>
+     */
+    static synchronized Class<?> get( String key )
+    {
+        return key.equals( cachedKey ) ? cachedClass : null;
+    }
+
+    /**
+     * Cache a javac main class, replacing the one for other versions of the jars.
+     *
+     * @return whether an instance was replaced
+     */
+    static synchronized boolean put( String key, Class<?> javacClass )
+    {
+        boolean replaced = cachedClass != null && !key.equals( cachedKey );
+        cachedKey = key;
+        cachedClass = javacClass;
+        return replaced;
+    }
+}
@@ -0,0 +1,389 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import com.sun.source.util.JavacTask;
+import com.sun.tools.javac.api.JavacTool;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+
+/**
+ * Runs javac through the compiler API instead of <code>com.sun.tools.javac.Main</code>,
+ * for features that need to hook into the compile.
+ * <p>
+ * This class is loaded by the javac class loader, not by the class loader of the
+ * plugin, so it links against the javac classes used for the compile. Only types
+ * from <code>java.*</code> are passed in and out: settings are passed in and
+ * results are passed back in maps keyed by the constants defined here.
+ */
+public final class JavacTaskRunner
+{
+    /** Time budget per compilation unit in milliseconds (Long). */
+    public static final String UNIT_TIME_BUDGET = "unitTimeBudget";
+
+    /** Whether to cancel the compile when a unit exceeds its budget (Boolean). */
+    public static final String CANCEL_OVER_BUDGET = "cancelOverBudget";
+
+    /** Class names of the configured checkers (String[]). */
+    public static final String CHECKERS = "checkers";
+
+    /** Only write outputs whose content changed, in the background (Boolean). */
+    public static final String SKIP_UNCHANGED_OUTPUTS = "skipUnchangedOutputs";
+
+    /** Reuse the class loader for the annotation processor path between compiles (Boolean). */
+    public static final String CACHE_PROCESSOR_LOADER = "cacheProcessorLoader";
+
+    /** Record which classpath entries the compile reads classes from (Boolean). */
+    public static final String RECORD_CLASSPATH_USAGE = "recordClasspathUsage";
+
+    /** Memory in bytes for caching decoded sources between compiles (Long). */
+    public static final String SOURCE_CACHE_SIZE = "sourceCacheSize";
+
+    /** Absolute paths of boot class path archives to serve memory-mapped (String[]). */
+    public static final String MAPPED_ARCHIVES = "mappedArchives";
+
+    /** Cancel the compile once it has reported this many errors (Integer). */
+    public static final String MAX_ERRORS = "maxErrors";
+
+    /** Receives the path of every analyzed source file through <code>add</code> (Collection&lt;String&gt;). */
+    public static final String PROGRESS = "progress";
+
+    /** Cancels the compile when set (java.util.concurrent.atomic.AtomicBoolean). */
+    public static final String CANCEL = "cancel";
+
+    /** Path of the {@link DiagnosticsReport} to write the diagnostics to as they are reported (String). */
+    public static final String DIAGNOSTICS_REPORT = "diagnosticsReport";
+
+    /** Result: milliseconds spent per compilation unit (Map&lt;String, Long&gt;). */
+    public static final String UNIT_TIMES = "unitTimes";
+
+    /** Result: file, checker and milliseconds of units over budget (List&lt;String[]&gt;). */
+    public static final String OVER_BUDGET = "overBudget";
+
+    /** Result: the compile was cancelled (Boolean). */
+    public static final String CANCELLED = "cancelled";
+
+    /** Result: the compile was to be cancelled, but ran to its end without reaching a task event (Boolean). */
+    public static final String CANCEL_IGNORED = "cancelIgnored";
+
+    /** Result: number of output files written (Integer). */
+    public static final String OUTPUTS_WRITTEN = "outputsWritten";
+
+    /** Result: number of output files left alone because their content did not change (Integer). */
+    public static final String OUTPUTS_UNCHANGED = "outputsUnchanged";
+
+    /** Result: classpath entries classes were read from, in the order of first use (List&lt;String&gt;). */
+    public static final String USED_CLASSPATH = "usedClasspath";
+
+    /** Result: milliseconds spent listing the packages of the classpath (Long). */
+    public static final String CLASSPATH_LIST_TIME = "classpathListTime";
+
+    /** Result: number of source reads served from the source cache (Integer). */
+    public static final String SOURCE_CACHE_HITS = "sourceCacheHits";
+
+    /** Result: number of source reads that had to read the file (Integer). */
+    public static final String SOURCE_CACHE_MISSES = "sourceCacheMisses";
+
+    /** Result: the annotation processor class loader came from the cache (Boolean). */
+    public static final String PROCESSOR_LOADER_REUSED = "processorLoaderReused";
+
+    /** Result: the compile was cancelled because it reached {@link #MAX_ERRORS} (Boolean). */
+    public static final String ERROR_LIMIT_REACHED = "errorLimitReached";
+
+    /** Result: number of diagnostics written to the {@link #DIAGNOSTICS_REPORT} (Integer). */
+    public static final String DIAGNOSTICS_REPORTED = "diagnosticsReported";
+
+    /** Result: why the {@link #DIAGNOSTICS_REPORT} could not be written (String). */
+    public static final String DIAGNOSTICS_REPORT_ERROR = "diagnosticsReportError";
+
+    private JavacTaskRunner()
+    {
+    }
+
+    /**
+     * Compile like <code>com.sun.tools.javac.Main.compile(args, out)</code>.
+     *
+     * @return the javac exit code
+     */
+    public static int compile( String[] args, PrintWriter out, Map<String, ?> settings, Map<String, Object> results )
+    {
+        JavacTool tool = JavacTool.create();
+        StandardJavaFileManager fileManager = tool.getStandardFileManager( null, null, null );
+
+        List<String> options = new ArrayList<String>();
+        List<String> files = new ArrayList<String>();
+        for ( int i = 0; i < args.length; i++ )
+        {
+            String arg = args[i];
+            if ( !arg.startsWith( "-" ) )
+            {
+                files.add( arg );
+                continue;
+            }
+            options.add( arg );
+            int optionArgs = tool.isSupportedOption( arg );
+            if ( optionArgs < 0 )
+            {
+                optionArgs = fileManager.isSupportedOption( arg );
+            }
+            if ( optionArgs > 0 && i + 1 < args.length )
+            {
+                options.add( args[++i] );
+            }
+        }
+
+        StringWriter buffer = new StringWriter();
+        PrintWriter bufferedOut = new PrintWriter( buffer );
+
+        Long budget = (Long) settings.get( UNIT_TIME_BUDGET );
+        CompileWatchdog watchdog =
+            new CompileWatchdog( Thread.currentThread(), budget == null ? 0L : budget.longValue(),
+                                 Boolean.TRUE.equals( settings.get( CANCEL_OVER_BUDGET ) ),
+                                 new CheckerAttribution( (String[]) settings.get( CHECKERS ) ) );
+
+        JavaFileManager taskFileManager = fileManager;
+        ProcessorLoaderCache.CachingFileManager cachingFileManager = null;
+        if ( Boolean.TRUE.equals( settings.get( CACHE_PROCESSOR_LOADER ) ) )
+        {
+            cachingFileManager = ProcessorLoaderCache.wrap( fileManager );
+            taskFileManager = cachingFileManager;
+        }
+        String[] mappedArchives = (String[]) settings.get( MAPPED_ARCHIVES );
+        if ( mappedArchives != null && mappedArchives.length > 0 )
+        {
+            taskFileManager = new MappedArchives( taskFileManager, fileManager,
+                                                  new HashSet<String>( Arrays.asList( mappedArchives ) ) );
+        }
+        ClasspathUsageRecorder usageRecorder = null;
+        if ( Boolean.TRUE.equals( settings.get( RECORD_CLASSPATH_USAGE ) ) )
+        {
+            usageRecorder = new ClasspathUsageRecorder( taskFileManager, fileManager );
+            taskFileManager = usageRecorder;
+        }
+        Long sourceCacheSize = (Long) settings.get( SOURCE_CACHE_SIZE );
+        SourceCache sourceCache = null;
+        if ( sourceCacheSize != null && sourceCacheSize.longValue() > 0 )
+        {
+            sourceCache = new SourceCache( taskFileManager, encoding( options ), sourceCacheSize.longValue() );
+            taskFileManager = sourceCache;
+        }
+        OutputFileManager outputFileManager = null;
+        if ( Boolean.TRUE.equals( settings.get( SKIP_UNCHANGED_OUTPUTS ) ) )
+        {
+            outputFileManager = new OutputFileManager( taskFileManager, encoding( options ) );
+            taskFileManager = outputFileManager;
+        }
+
+        String reportPath = (String) settings.get( DIAGNOSTICS_REPORT );
+        DiagnosticsStream diagnostics = null;
+        if ( reportPath != null )
+        {
+            diagnostics = new DiagnosticsStream( DiagnosticsWriter.forFile( new File( reportPath ) ), bufferedOut );
+        }
+
+        Integer maxErrors = (Integer) settings.get( MAX_ERRORS );
+        ErrorLimit errorLimit = null;
+        AnalysisSpans analysisSpans = null;
+        List<String> outputErrors = null;
+
+        int exitCode;
+        try
+        {
+            try
+            {
+                Iterable<? extends JavaFileObject> units = fileManager.getJavaFileObjectsFromStrings( files );
+                if ( sourceCache != null )
+                {
+                    units = sourceCache.wrap( units );
+                }
+                JavacTask task = tool.getTask( bufferedOut, taskFileManager, diagnostics, options, null, units );
+                if ( diagnostics != null )
+                {
+                    diagnostics.attach( task );
+                }
+                task.addTaskListener( watchdog );
+                if ( CompilerEvents.get().isRecordingCheckerAnalysis() )
+                {
+                    analysisSpans = new AnalysisSpans( CompilerEvents.get(), (String[]) settings.get( CHECKERS ) );
+                    task.addTaskListener( analysisSpans );
+                }
+                if ( settings.containsKey( PROGRESS ) || settings.containsKey( CANCEL ) )
+                {
+                    @SuppressWarnings( "unchecked" )
+                    Collection<String> analyzed = (Collection<String>) settings.get( PROGRESS );
+                    task.addTaskListener( new ProgressListener( analyzed, (AtomicBoolean) settings.get( CANCEL ) ) );
+                }
+                if ( maxErrors != null && maxErrors.intValue() > 0 )
+                {
+                    errorLimit = ErrorLimit.create( task, maxErrors.intValue() );
+                    if ( errorLimit != null )
+                    {
+                        task.addTaskListener( errorLimit );
+                    }
+                }
+                watchdog.start();
+                exitCode = task.call() ? 0 : 1;
+            }
+            catch ( IllegalArgumentException e )
+            {
+                bufferedOut.println( "javac: " + e.getMessage() );
+                if ( diagnostics != null )
+                {
+                    diagnostics.error( "javac: " + e.getMessage() );
+                }
+                exitCode = 2;
+            }
+            catch ( RuntimeException e )
+            {
+                if ( !isCancellation( e ) )
+                {
+                    throw e;
+                }
+                exitCode = 1;
+            }
+            finally
+            {
+                if ( diagnostics != null )
+                {
+                    diagnostics.printCounts();
+                }
+                watchdog.finish();
+                if ( analysisSpans != null )
+                {
+                    analysisSpans.end();
+                }
+                if ( outputFileManager != null )
+                {
+                    // also on an unexpected exception, or the writer thread is never shut down
+                    outputErrors = outputFileManager.finish();
+                }
+            }
+            if ( outputFileManager != null )
+            {
+                for ( String error : outputErrors )
+                {
+                    bufferedOut.println( "error: " + error );
+                    if ( diagnostics != null )
+                    {
+                        diagnostics.error( error );
+                    }
+                    exitCode = 1;
+                }
+                results.put( OUTPUTS_WRITTEN, outputFileManager.getWrittenCount() );
+                results.put( OUTPUTS_UNCHANGED, outputFileManager.getUnchangedCount() );
+            }
+            if ( cachingFileManager != null && cachingFileManager.isLoaderReused() != null )
+            {
+                results.put( PROCESSOR_LOADER_REUSED, cachingFileManager.isLoaderReused() );
+            }
+            if ( sourceCache != null )
+            {
+                results.put( SOURCE_CACHE_HITS, sourceCache.getHits() );
+                results.put( SOURCE_CACHE_MISSES, sourceCache.getMisses() );
+            }
+            if ( usageRecorder != null )
+            {
+                results.put( USED_CLASSPATH, usageRecorder.getUsedEntries() );
+                results.put( CLASSPATH_LIST_TIME, usageRecorder.getListMillis() );
+            }
+        }
+        finally
+        {
+            if ( diagnostics != null )
+            {
+                IOException error = diagnostics.close();
+                if ( error != null )
+                {
+                    results.put( DIAGNOSTICS_REPORT_ERROR, error.toString() );
+                }
+                results.put( DIAGNOSTICS_REPORTED, diagnostics.getCount() );
+            }
+            if ( cachingFileManager != null )
+            {
+                cachingFileManager.release();
+            }
+            try
+            {
+                fileManager.close();
+            }
+            catch ( IOException e )
+            {
+                // nothing left to do with it
+            }
+            bufferedOut.flush();
+            out.write( buffer.toString() );
+            out.flush();
+        }
+
+        results.put( UNIT_TIMES, watchdog.getUnitTimesMillis() );
+        results.put( OVER_BUDGET, watchdog.getOffenders() );
+        results.put( CANCELLED, watchdog.isCancelled() );
+        results.put( CANCEL_IGNORED, watchdog.isCancelIgnored() );
+        results.put( ERROR_LIMIT_REACHED, errorLimit != null && errorLimit.isReached() );
+        return exitCode;
+    }
+
+    private static Charset encoding( List<String> options )
+    {
+        int i = options.indexOf( "-encoding" );
+        if ( i >= 0 && i + 1 < options.size() )
+        {
+            try
+            {
+                return Charset.forName( options.get( i + 1 ) );
+            }
+            catch ( IllegalArgumentException e )
+            {
+                // javac reports the unsupported encoding
+            }
+        }
+        return Charset.defaultCharset();
+    }
+
+    private static boolean isCancellation( Throwable e )
+    {
+        for ( Throwable t = e; t != null; t = t.getCause() )
+        {
+            if ( t instanceof CancellationException )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+}
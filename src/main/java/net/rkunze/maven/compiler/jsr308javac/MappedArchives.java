@@ -0,0 +1,550 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+/**
+ * File manager that serves the class files of some archives on the boot class path
+ * from memory-mapped, pre-indexed copies.
+ * <p>
+ * The archives (the annotated JDK and the compiler jar prepended with
+ * <code>-Xbootclasspath/p:</code>) never change while a JVM runs, but javac opens
+ * them and reads their directory again in every compile. Here, each archive is
+ * mapped and its central directory is indexed by package once, for as long as the
+ * javac instance lives, and the archives are taken out of javac's own boot class
+ * path. Class files stored uncompressed are read straight from the mapping,
+ * compressed ones are inflated from it. An archive is used again only while its size
+ * and modification time stay the same.
+ * <p>
+ * This class runs inside the javac class loader.
+ */
+final class MappedArchives
+    extends ForwardingJavaFileManager<JavaFileManager>
+{
+    private static final Map<String, Archive> ARCHIVES = new HashMap<String, Archive>();
+
+    private final StandardJavaFileManager standardFileManager;
+
+    private final Set<String> paths;
+
+    private List<Archive> archives;
+
+    /**
+     * @param paths absolute paths of the archives to map, if they are on the boot
+     * class path of the compile
+     */
+    MappedArchives( JavaFileManager fileManager, StandardJavaFileManager standardFileManager, Set<String> paths )
+    {
+        super( fileManager );
+        this.standardFileManager = standardFileManager;
+        this.paths = paths;
+    }
+
+    /**
+     * Map the archives on first use, when javac has set up the boot class path, and
+     * remove them from it.
+     */
+    private synchronized List<Archive> archives()
+        throws IOException
+    {
+        if ( archives != null )
+        {
+            return archives;
+        }
+        archives = new ArrayList<Archive>();
+        Iterable<? extends File> bootClasspath = standardFileManager.getLocation( StandardLocation.PLATFORM_CLASS_PATH );
+        if ( bootClasspath == null )
+        {
+            return archives;
+        }
+        List<File> rest = new ArrayList<File>();
+        for ( File entry : bootClasspath )
+        {
+            Archive archive = paths.contains( entry.getAbsolutePath() ) ? archive( entry ) : null;
+            if ( archive != null )
+            {
+                archives.add( archive );
+            }
+            else
+            {
+                rest.add( entry );
+            }
+        }
+        if ( !archives.isEmpty() )
+        {
+            standardFileManager.setLocation( StandardLocation.PLATFORM_CLASS_PATH, rest );
+        }
+        return archives;
+    }
+
+    /**
+     * @return the mapped archive, or <code>null</code> if it cannot be mapped, e.g.
+     * because it is a ZIP64 archive
+     */
+    private static Archive archive( File file )
+    {
+        String key = file.getAbsolutePath() + '\0' + file.length() + '\0' + file.lastModified();
+        synchronized ( ARCHIVES )
+        {
+            Archive archive = ARCHIVES.get( key );
+            if ( archive == null )
+            {
+                try
+                {
+                    archive = Archive.open( file );
+                }
+                catch ( IOException e )
+                {
+                    return null;
+                }
+                ARCHIVES.put( key, archive );
+            }
+            return archive;
+        }
+    }
+
+    @Override
+    public Iterable<JavaFileObject> list( Location location, String packageName, Set<JavaFileObject.Kind> kinds,
+                                          boolean recurse )
+        throws IOException
+    {
+        if ( location != StandardLocation.PLATFORM_CLASS_PATH || !kinds.contains( JavaFileObject.Kind.CLASS ) )
+        {
+            return super.list( location, packageName, kinds, recurse );
+        }
+        List<JavaFileObject> result = new ArrayList<JavaFileObject>();
+        for ( Archive archive : archives() )
+        {
+            archive.list( packageName, recurse, result );
+        }
+        for ( JavaFileObject file : super.list( location, packageName, kinds, recurse ) )
+        {
+            result.add( file );
+        }
+        return result;
+    }
+
+    @Override
+    public String inferBinaryName( Location location, JavaFileObject file )
+    {
+        if ( file instanceof ArchiveClassFile )
+        {
+            return ( (ArchiveClassFile) file ).binaryName();
+        }
+        return super.inferBinaryName( location, file );
+    }
+
+    @Override
+    public boolean isSameFile( FileObject a, FileObject b )
+    {
+        if ( a instanceof ArchiveClassFile || b instanceof ArchiveClassFile )
+        {
+            return a.equals( b );
+        }
+        return super.isSameFile( a, b );
+    }
+
+    /**
+     * A memory-mapped ZIP archive with an index of its class files by package.
+     */
+    static final class Archive
+    {
+        private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+        private static final int END_SIGNATURE = 0x06054b50;
+
+        private static final int CENTRAL_SIGNATURE = 0x02014b50;
+
+        private static final int LOCAL_SIGNATURE = 0x04034b50;
+
+        private final File file;
+
+        private final long lastModified;
+
+        private final MappedByteBuffer buffer;
+
+        private final Map<String, List<Entry>> packages = new LinkedHashMap<String, List<Entry>>();
+
+        private Archive( File file, MappedByteBuffer buffer )
+        {
+            this.file = file;
+            this.lastModified = file.lastModified();
+            this.buffer = buffer;
+        }
+
+        static Archive open( File file )
+            throws IOException
+        {
+            MappedByteBuffer buffer;
+            try ( RandomAccessFile in = new RandomAccessFile( file, "r" ) )
+            {
+                buffer = in.getChannel().map( FileChannel.MapMode.READ_ONLY, 0, in.length() );
+            }
+            buffer.order( ByteOrder.LITTLE_ENDIAN );
+            Archive archive = new Archive( file, buffer );
+            archive.index();
+            return archive;
+        }
+
+        private void index()
+            throws IOException
+        {
+            int end = -1;
+            for ( int i = buffer.limit() - 22; i >= Math.max( 0, buffer.limit() - 22 - 0xffff ); i-- )
+            {
+                if ( buffer.getInt( i ) == END_SIGNATURE )
+                {
+                    end = i;
+                    break;
+                }
+            }
+            if ( end < 0 )
+            {
+                throw new IOException( "Not a ZIP archive: " + file );
+            }
+            int count = buffer.getShort( end + 10 ) & 0xffff;
+            long offset = buffer.getInt( end + 16 ) & 0xffffffffL;
+            if ( count == 0xffff || offset == 0xffffffffL )
+            {
+                throw new IOException( "ZIP64 archives are not supported: " + file );
+            }
+            int pos = (int) offset;
+            for ( int i = 0; i < count; i++ )
+            {
+                if ( buffer.getInt( pos ) != CENTRAL_SIGNATURE )
+                {
+                    throw new IOException( "Damaged ZIP archive: " + file );
+                }
+                int method = buffer.getShort( pos + 10 ) & 0xffff;
+                int compressedSize = buffer.getInt( pos + 20 );
+                int size = buffer.getInt( pos + 24 );
+                int nameLength = buffer.getShort( pos + 28 ) & 0xffff;
+                int extraLength = buffer.getShort( pos + 30 ) & 0xffff;
+                int commentLength = buffer.getShort( pos + 32 ) & 0xffff;
+                int localOffset = buffer.getInt( pos + 42 );
+                byte[] nameBytes = new byte[nameLength];
+                ByteBuffer name = duplicate( pos + 46 );
+                name.get( nameBytes );
+                String entryName = new String( nameBytes, UTF8 );
+                pos += 46 + nameLength + extraLength + commentLength;
+
+                if ( !entryName.endsWith( ".class" ) || ( method != 0 && method != 8 ) )
+                {
+                    continue;
+                }
+                int slash = entryName.lastIndexOf( '/' );
+                String packageName = slash < 0 ? "" : entryName.substring( 0, slash ).replace( '/', '.' );
+                List<Entry> entries = packages.get( packageName );
+                if ( entries == null )
+                {
+                    entries = new ArrayList<Entry>();
+                    packages.put( packageName, entries );
+                }
+                entries.add( new Entry( entryName, method, localOffset, compressedSize, size ) );
+            }
+        }
+
+        /**
+         * Add the class files of a package (and its subpackages, if
+         * <code>recurse</code>) to <code>result</code>.
+         */
+        void list( String packageName, boolean recurse, List<JavaFileObject> result )
+        {
+            for ( Map.Entry<String, List<Entry>> pkg : packages.entrySet() )
+            {
+                String name = pkg.getKey();
+                if ( name.equals( packageName ) || recurse
+                    && ( packageName.isEmpty() || name.startsWith( packageName + "." ) ) )
+                {
+                    for ( Entry entry : pkg.getValue() )
+                    {
+                        result.add( new ArchiveClassFile( this, entry ) );
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return the content of the entry, without copying it if it is stored
+         */
+        ByteBuffer content( Entry entry )
+            throws IOException
+        {
+            if ( buffer.getInt( entry.localOffset ) != LOCAL_SIGNATURE )
+            {
+                throw new IOException( "Damaged ZIP archive: " + file );
+            }
+            int start = entry.localOffset + 30 + ( buffer.getShort( entry.localOffset + 26 ) & 0xffff )
+                + ( buffer.getShort( entry.localOffset + 28 ) & 0xffff );
+            ByteBuffer content = duplicate( start );
+            ( (Buffer) content ).limit( start + entry.compressedSize );
+            return content.slice();
+        }
+
+        /**
+         * @return a view of the archive starting at <code>position</code>; through
+         * {@link Buffer}, since a build on Java 9 or later would otherwise link
+         * overrides with covariant return types that Java 8 does not have
+         */
+        private ByteBuffer duplicate( int position )
+        {
+            ByteBuffer view = ( (ByteBuffer) buffer ).duplicate();
+            ( (Buffer) view ).position( position );
+            return view;
+        }
+
+        File getFile()
+        {
+            return file;
+        }
+    }
+
+    static final class Entry
+    {
+        final String name;
+
+        final int method;
+
+        final int localOffset;
+
+        final int compressedSize;
+
+        final int size;
+
+        Entry( String name, int method, int localOffset, int compressedSize, int size )
+        {
+            this.name = name;
+            this.method = method;
+            this.localOffset = localOffset;
+            this.compressedSize = compressedSize;
+            this.size = size;
+        }
+    }
+
+    /**
+     * A class file in a mapped archive. Not a <code>SimpleJavaFileObject</code>, which
+     * does not accept <code>jar:</code> URIs.
+     */
+    static final class ArchiveClassFile
+        implements JavaFileObject
+    {
+        private final Archive archive;
+
+        private final Entry entry;
+
+        ArchiveClassFile( Archive archive, Entry entry )
+        {
+            this.archive = archive;
+            this.entry = entry;
+        }
+
+        String binaryName()
+        {
+            return entry.name.substring( 0, entry.name.length() - Kind.CLASS.extension.length() ).replace( '/', '.' );
+        }
+
+        @Override
+        public URI toUri()
+        {
+            return URI.create( "jar:" + archive.getFile().toURI() + "!/" + entry.name );
+        }
+
+        @Override
+        public String getName()
+        {
+            return archive.getFile().getPath() + "(" + entry.name + ")";
+        }
+
+        @Override
+        public Kind getKind()
+        {
+            return Kind.CLASS;
+        }
+
+        @Override
+        public boolean isNameCompatible( String simpleName, Kind kind )
+        {
+            String baseName = simpleName + kind.extension;
+            return kind == Kind.CLASS
+                && ( entry.name.equals( baseName ) || entry.name.endsWith( "/" + baseName ) );
+        }
+
+        @Override
+        public InputStream openInputStream()
+            throws IOException
+        {
+            InputStream in = new ByteBufferInputStream( archive.content( entry ) );
+            return entry.method == 0 ? in : new InflaterInputStream( in, new Inflater( true ) )
+            {
+                @Override
+                public void close()
+                    throws IOException
+                {
+                    super.close();
+                    inf.end();
+                }
+            };
+        }
+
+        @Override
+        public OutputStream openOutputStream()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Reader openReader( boolean ignoreEncodingErrors )
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public CharSequence getCharContent( boolean ignoreEncodingErrors )
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Writer openWriter()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long getLastModified()
+        {
+            return archive.lastModified;
+        }
+
+        @Override
+        public boolean delete()
+        {
+            return false;
+        }
+
+        @Override
+        public NestingKind getNestingKind()
+        {
+            return null;
+        }
+
+        @Override
+        public Modifier getAccessLevel()
+        {
+            return null;
+        }
+
+        @Override
+        public boolean equals( Object obj )
+        {
+            return obj instanceof ArchiveClassFile && ( (ArchiveClassFile) obj ).archive == archive
+                && ( (ArchiveClassFile) obj ).entry == entry;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return System.identityHashCode( entry );
+        }
+
+        @Override
+        public String toString()
+        {
+            return getName();
+        }
+    }
+
+    private static final class ByteBufferInputStream
+        extends InputStream
+    {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream( ByteBuffer buffer )
+        {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read()
+        {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read( byte[] b, int off, int len )
+        {
+            if ( !buffer.hasRemaining() )
+            {
+                return len == 0 ? 0 : -1;
+            }
+            int n = Math.min( len, buffer.remaining() );
+            buffer.get( b, off, n );
+            return n;
+        }
+
+        @Override
+        public int available()
+        {
+            return buffer.remaining();
+        }
+
+        @Override
+        public long skip( long n )
+        {
+            int skipped = (int) Math.max( 0, Math.min( n, buffer.remaining() ) );
+            ( (Buffer) buffer ).position( buffer.position() + skipped );
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,403 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.tools.FileObject;
+import javax.tools.ForwardingFileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.ForwardingJavaFileObject;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * File manager that only writes outputs whose content actually changed.
+ * <p>
+ * Everything javac or an annotation processor writes is collected in memory. When
+ * the file is closed, a background thread compares the new content with the file on
+ * disk and writes it only if it differs, so unchanged class files and generated
+ * sources keep their modification time and the disk I/O overlaps with the analysis
+ * of the remaining classes. Until the write is done, the content is served from
+ * memory to anyone reading the file through this file manager.
+ * <p>
+ * This class runs inside the javac class loader.
+ */
+final class OutputFileManager
+    extends ForwardingJavaFileManager<JavaFileManager>
+{
+    private final Charset encoding;
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor( new ThreadFactory()
+    {
+        public Thread newThread( Runnable r )
+        {
+            Thread thread = new Thread( r, "jsr308-output-writer" );
+            thread.setDaemon( true );
+            return thread;
+        }
+    } );
+
+    private final ConcurrentMap<URI, byte[]> pending = new ConcurrentHashMap<URI, byte[]>();
+
+    private final List<String> errors = new ArrayList<String>();
+
+    private final AtomicInteger written = new AtomicInteger();
+
+    private final AtomicInteger unchanged = new AtomicInteger();
+
+    /**
+     * @param encoding the encoding for writing generated sources
+     */
+    OutputFileManager( JavaFileManager fileManager, Charset encoding )
+    {
+        super( fileManager );
+        this.encoding = encoding;
+    }
+
+    @Override
+    public JavaFileObject getJavaFileForOutput( Location location, String className, JavaFileObject.Kind kind,
+                                                FileObject sibling )
+        throws IOException
+    {
+        return new OutputJavaFileObject( super.getJavaFileForOutput( location, className, kind, unwrap( sibling ) ) );
+    }
+
+    @Override
+    public FileObject getFileForOutput( Location location, String packageName, String relativeName,
+                                        FileObject sibling )
+        throws IOException
+    {
+        return new OutputFileObject( super.getFileForOutput( location, packageName, relativeName, unwrap( sibling ) ) );
+    }
+
+    @Override
+    public JavaFileObject getJavaFileForInput( Location location, String className, JavaFileObject.Kind kind )
+        throws IOException
+    {
+        if ( isOutput( location ) )
+        {
+            // Pending first: once the write is done, the file is on disk
+            JavaFileObject file = super.getJavaFileForOutput( location, className, kind, null );
+            if ( pending.containsKey( file.toUri() ) )
+            {
+                return new OutputJavaFileObject( file );
+            }
+        }
+        return super.getJavaFileForInput( location, className, kind );
+    }
+
+    @Override
+    public FileObject getFileForInput( Location location, String packageName, String relativeName )
+        throws IOException
+    {
+        if ( isOutput( location ) )
+        {
+            FileObject file = super.getFileForOutput( location, packageName, relativeName, null );
+            if ( pending.containsKey( file.toUri() ) )
+            {
+                return new OutputFileObject( file );
+            }
+        }
+        return super.getFileForInput( location, packageName, relativeName );
+    }
+
+    private static boolean isOutput( Location location )
+    {
+        return location == StandardLocation.CLASS_OUTPUT || location == StandardLocation.SOURCE_OUTPUT;
+    }
+
+    @Override
+    public String inferBinaryName( Location location, JavaFileObject file )
+    {
+        return super.inferBinaryName( location, unwrap( file ) );
+    }
+
+    @Override
+    public boolean isSameFile( FileObject a, FileObject b )
+    {
+        return super.isSameFile( unwrap( a ), unwrap( b ) );
+    }
+
+    private static <T extends FileObject> T unwrap( T file )
+    {
+        if ( file instanceof OutputJavaFileObject )
+        {
+            @SuppressWarnings( "unchecked" )
+            T delegate = (T) ( (OutputJavaFileObject) file ).delegate();
+            return delegate;
+        }
+        if ( file instanceof OutputFileObject )
+        {
+            @SuppressWarnings( "unchecked" )
+            T delegate = (T) ( (OutputFileObject) file ).delegate();
+            return delegate;
+        }
+        return file;
+    }
+
+    /**
+     * Wait for all pending writes.
+     *
+     * @return the errors that occurred while writing
+     */
+    List<String> finish()
+    {
+        writer.shutdown();
+        try
+        {
+            while ( !writer.awaitTermination( 1, TimeUnit.MINUTES ) )
+            {
+                // keep waiting, the outputs have to be complete
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            synchronized ( errors )
+            {
+                errors.add( "interrupted while writing the compiler outputs" );
+            }
+        }
+        synchronized ( errors )
+        {
+            return new ArrayList<String>( errors );
+        }
+    }
+
+    int getWrittenCount()
+    {
+        return written.get();
+    }
+
+    int getUnchangedCount()
+    {
+        return unchanged.get();
+    }
+
+    private void commit( final FileObject file, final byte[] content )
+    {
+        final URI uri = file.toUri();
+        pending.put( uri, content );
+        writer.execute( new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    Path path = Paths.get( uri );
+                    if ( Files.isRegularFile( path ) && Files.size( path ) == content.length
+                        && Arrays.equals( Files.readAllBytes( path ), content ) )
+                    {
+                        unchanged.incrementAndGet();
+                    }
+                    else
+                    {
+                        Files.createDirectories( path.getParent() );
+                        Files.write( path, content );
+                        written.incrementAndGet();
+                    }
+                }
+                catch ( IOException e )
+                {
+                    synchronized ( errors )
+                    {
+                        errors.add( "could not write " + uri.getPath() + ": " + e );
+                    }
+                }
+                catch ( RuntimeException e )
+                {
+                    synchronized ( errors )
+                    {
+                        errors.add( "could not write " + uri + ": " + e );
+                    }
+                }
+                finally
+                {
+                    pending.remove( uri, content );
+                }
+            }
+        } );
+    }
+
+    private OutputStream openOutputStream( final FileObject file )
+    {
+        return new ByteArrayOutputStream()
+        {
+            private boolean closed;
+
+            @Override
+            public void close()
+            {
+                if ( !closed )
+                {
+                    closed = true;
+                    commit( file, toByteArray() );
+                }
+            }
+        };
+    }
+
+    private byte[] content( FileObject file )
+    {
+        return pending.get( file.toUri() );
+    }
+
+    private class OutputJavaFileObject
+        extends ForwardingJavaFileObject<JavaFileObject>
+    {
+        OutputJavaFileObject( JavaFileObject file )
+        {
+            super( file );
+        }
+
+        JavaFileObject delegate()
+        {
+            return fileObject;
+        }
+
+        @Override
+        public OutputStream openOutputStream()
+        {
+            return OutputFileManager.this.openOutputStream( fileObject );
+        }
+
+        @Override
+        public Writer openWriter()
+        {
+            return new OutputStreamWriter( openOutputStream(), encoding );
+        }
+
+        @Override
+        public InputStream openInputStream()
+            throws IOException
+        {
+            byte[] content = content( fileObject );
+            return content != null ? new ByteArrayInputStream( content ) : super.openInputStream();
+        }
+
+        @Override
+        public Reader openReader( boolean ignoreEncodingErrors )
+            throws IOException
+        {
+            byte[] content = content( fileObject );
+            return content != null ? new InputStreamReader( new ByteArrayInputStream( content ), encoding )
+                : super.openReader( ignoreEncodingErrors );
+        }
+
+        @Override
+        public CharSequence getCharContent( boolean ignoreEncodingErrors )
+            throws IOException
+        {
+            byte[] content = content( fileObject );
+            return content != null ? new String( content, encoding ) : super.getCharContent( ignoreEncodingErrors );
+        }
+
+        @Override
+        public long getLastModified()
+        {
+            return content( fileObject ) != null ? System.currentTimeMillis() : super.getLastModified();
+        }
+    }
+
+    private class OutputFileObject
+        extends ForwardingFileObject<FileObject>
+    {
+        OutputFileObject( FileObject file )
+        {
+            super( file );
+        }
+
+        FileObject delegate()
+        {
+            return fileObject;
+        }
+
+        @Override
+        public OutputStream openOutputStream()
+        {
+            return OutputFileManager.this.openOutputStream( fileObject );
+        }
+
+        @Override
+        public Writer openWriter()
+        {
+            return new OutputStreamWriter( openOutputStream(), encoding );
+        }
+
+        @Override
+        public InputStream openInputStream()
+            throws IOException
+        {
+            byte[] content = content( fileObject );
+            return content != null ? new ByteArrayInputStream( content ) : super.openInputStream();
+        }
+
+        @Override
+        public Reader openReader( boolean ignoreEncodingErrors )
+            throws IOException
+        {
+            byte[] content = content( fileObject );
+            return content != null ? new InputStreamReader( new ByteArrayInputStream( content ), encoding )
+                : super.openReader( ignoreEncodingErrors );
+        }
+
+        @Override
+        public CharSequence getCharContent( boolean ignoreEncodingErrors )
+            throws IOException
+        {
+            byte[] content = content( fileObject );
+            return content != null ? new String( content, encoding ) : super.getCharContent( ignoreEncodingErrors );
+        }
+
+        @Override
+        public long getLastModified()
+        {
+            return content( fileObject ) != null ? System.currentTimeMillis() : super.getLastModified();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import org.codehaus.plexus.compiler.CompilerConfiguration;
+import org.codehaus.plexus.compiler.CompilerException;
+import org.codehaus.plexus.util.StringUtils;
+
+/**
+ * Options for this compiler that are not javac options.
+ * <p>
+ * Plugin options are passed like any other custom compiler argument, but with the
+ * prefix <code>-Xjsr308.</code>, either as key/value pair
+ * (<code>&lt;Xjsr308.compileAvoidance&gt;true&lt;/Xjsr308.compileAvoidance&gt;</code> in
+ * <code>compilerArguments</code>) or as a single argument
+ * (<code>-Xjsr308.compileAvoidance=true</code> in <code>compilerArgs</code>). They are
+ * never passed on to javac. If an option is not given in the configuration, the system
+ * property <code>jsr308.&lt;name&gt;</code> is used instead, which allows setting
+ * defaults for a whole build or a long-running Maven daemon.
+ */
+final class PluginOptions
+{
+    static final String PREFIX = "-Xjsr308.";
+
+    private static final String PROPERTY_PREFIX = "jsr308.";
+
+    private final Map<String, String> values;
+
+    private final CompilerConfiguration config;
+
+    private PluginOptions( CompilerConfiguration config, Map<String, String> values )
+    {
+        this.config = config;
+        this.values = values;
+    }
+
+    static boolean isPluginOption( String key )
+    {
+        return key != null && key.startsWith( PREFIX );
+    }
+
+    static PluginOptions of( CompilerConfiguration config )
+    {
+        Map<String, String> values = new HashMap<String, String>();
+        for ( Map.Entry<String, String> entry : config.getCustomCompilerArgumentsAsMap().entrySet() )
+        {
+            String key = entry.getKey();
+            if ( !isPluginOption( key ) )
+            {
+                continue;
+            }
+            String name = key.substring( PREFIX.length() );
+            String value = entry.getValue();
+            int eq = name.indexOf( '=' );
+            if ( eq >= 0 )
+            {
+                value = name.substring( eq + 1 );
+                name = name.substring( 0, eq );
+            }
+            values.put( name, value == null ? "true" : value );
+        }
+        return new PluginOptions( config, values );
+    }
+
+    String get( String name, String defaultValue )
+    {
+        String value = values.get( name );
+        if ( value == null )
+        {
+            value = System.getProperty( PROPERTY_PREFIX + name );
+        }
+        return StringUtils.isEmpty( value ) ? defaultValue : value.trim();
+    }
+
+    boolean getBoolean( String name, boolean defaultValue )
+    {
+        String value = get( name, null );
+        return value == null ? defaultValue : Boolean.parseBoolean( value );
+    }
+
+    long getLong( String name, long defaultValue )
+        throws CompilerException
+    {
+        String value = get( name, null );
+        if ( value == null )
+        {
+            return defaultValue;
+        }
+        try
+        {
+            return Long.parseLong( value );
+        }
+        catch ( NumberFormatException e )
+        {
+            throw new CompilerException( "Invalid value for " + PREFIX + name + ": " + value, e );
+        }
+    }
+
+    /**
+     * Per-module directory for state that has to survive between builds of the
+     * module, e.g. the data needed for compile avoidance. Defaults to
+     * <code>jsr308</code> in the build directory.
+     */
+    File getStateDirectory()
+    {
+        String dir = get( "stateDir", null );
+        if ( dir != null )
+        {
+            return new File( dir );
+        }
+        File buildDir = config.getBuildDirectory();
+        if ( buildDir == null )
+        {
+            buildDir = new File( config.getOutputLocation() ).getAbsoluteFile().getParentFile();
+        }
+        return new File( buildDir, "jsr308" );
+    }
+
+    /**
+     * Directory for caches shared by all modules, e.g. fingerprints of the jars in the
+     * local repository. Defaults to <code>~/.m2/jsr308-cache</code>.
+     */
+    File getCacheDirectory()
+    {
+        String dir = get( "cacheDir", null );
+        if ( dir != null )
+        {
+            return new File( dir );
+        }
+        return new File( System.getProperty( "user.home" ) + File.separator + ".m2" + File.separator + "jsr308-cache" );
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import org.codehaus.plexus.compiler.CompilerConfiguration;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.util.StringUtils;
+
+/**
+ * Finds the annotation processors javac would discover on the processor search path
+ * once, and passes them to javac explicitly from then on.
+ * <p>
+ * Enabled with <code>-Xjsr308.cacheProcessorDiscovery=true</code>. Only applies if no
+ * processors are configured and annotation processing is not switched off, which
+ * includes compiles with checkers that are only registered as services. Without an
+ * explicit <code>-processor</code>, javac opens every jar of the processor path (or
+ * the classpath, if there is none) to look for
+ * <code>META-INF/services/javax.annotation.processing.Processor</code>. The result
+ * is cached for the lifetime of the JVM, keyed by path, size and modification time
+ * of the jars and of the service files in directories, so only the first compile
+ * with a given path pays for the scan, and looking up the result reads no jar. If
+ * no processor is found, annotation processing is switched off with
+ * <code>-proc:none</code>.
+ * <p>
+ * {@link #registeredCheckers} uses the same scan to find checkers that are not
+ * configured, but registered as services on the classpath.
+ */
+final class ProcessorDiscovery
+{
+    private static final String SERVICES = "META-INF/services/javax.annotation.processing.Processor";
+
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    private static final ConcurrentMap<String, List<String>> DISCOVERED = new ConcurrentHashMap<String, List<String>>();
+
+    private static final ConcurrentMap<String, List<String>> REGISTERED = new ConcurrentHashMap<String, List<String>>();
+
+    private ProcessorDiscovery()
+    {
+    }
+
+    /**
+     * @return <code>args</code> with the discovered processors passed explicitly, or
+     * <code>args</code> itself if discovery does not apply or fails
+     */
+    static String[] apply( CompilerConfiguration config, PluginOptions options, String[] args, Logger logger )
+    {
+        List<String> argList = Arrays.asList( args );
+        if ( !options.getBoolean( "cacheProcessorDiscovery", false ) || "none".equals( config.getProc() )
+            || config.getAnnotationProcessors() != null || argList.contains( "-processor" )
+            || argList.contains( "-proc:none" ) )
+        {
+            return args;
+        }
+        int index = argList.indexOf( "-processorpath" );
+        if ( index < 0 )
+        {
+            index = argList.indexOf( "-classpath" );
+        }
+        if ( index < 0 || index + 1 >= args.length )
+        {
+            return args;
+        }
+        List<File> path = new ArrayList<File>();
+        for ( String entry : args[index + 1].split( File.pathSeparator ) )
+        {
+            if ( !entry.isEmpty() )
+            {
+                path.add( new File( entry ) );
+            }
+        }
+
+        String key = statKey( path );
+        List<String> processors = DISCOVERED.get( key );
+        CompilerMetrics.get().processorDiscovery( processors != null );
+        if ( processors == null )
+        {
+            try
+            {
+                processors = discover( path );
+            }
+            catch ( IOException e )
+            {
+                logger.debug( "Annotation processor discovery failed, leaving it to javac: " + e.getMessage() );
+                return args;
+            }
+            DISCOVERED.put( key, processors );
+        }
+
+        List<String> result = new ArrayList<String>( argList );
+        if ( processors.isEmpty() )
+        {
+            logger.debug( "No annotation processors on the processor search path" );
+            result.add( "-proc:none" );
+        }
+        else
+        {
+            logger.debug( "Annotation processors on the processor search path: " + processors );
+            result.add( "-processor" );
+            result.add( StringUtils.join( processors.iterator(), "," ) );
+        }
+        return result.toArray( new String[result.size()] );
+    }
+
+    /**
+     * The checkers javac would discover on the processor search path the POM sets up,
+     * if no processors are configured. There is no way to tell a checker from other
+     * processors without loading it, so these are the processors in the packages of
+     * the Checker Framework and those whose name ends with <code>Checker</code>, its
+     * naming convention. The result is cached by path, size and modification time of
+     * the entries.
+     *
+     * @return the checkers, empty if there are none or the path cannot be read
+     */
+    static List<String> registeredCheckers( CompilerConfiguration config )
+    {
+        List<File> path = new ArrayList<File>();
+        String processorPath = config.getCustomCompilerArgumentsAsMap().get( "-processorpath" );
+        if ( processorPath != null )
+        {
+            for ( String entry : processorPath.split( File.pathSeparator ) )
+            {
+                path.add( new File( entry ) );
+            }
+        }
+        else if ( config.getClasspathEntries() != null )
+        {
+            for ( String entry : config.getClasspathEntries() )
+            {
+                path.add( new File( entry ) );
+            }
+        }
+
+        String key = statKey( path );
+        List<String> checkers = REGISTERED.get( key );
+        if ( checkers == null )
+        {
+            checkers = new ArrayList<String>();
+            try
+            {
+                for ( String processor : discover( path ) )
+                {
+                    if ( processor.startsWith( "org.checkerframework." ) || processor.endsWith( "Checker" ) )
+                    {
+                        checkers.add( processor );
+                    }
+                }
+            }
+            catch ( IOException e )
+            {
+                // javac reports unreadable entries
+            }
+            REGISTERED.put( key, checkers );
+        }
+        return checkers;
+    }
+
+    /**
+     * @return a key for <code>path</code> that changes when an entry, or the service
+     * file of a directory entry, is replaced, without reading any of them
+     */
+    static String statKey( List<File> path )
+    {
+        StringBuilder key = new StringBuilder();
+        for ( File entry : path )
+        {
+            File file = entry.isDirectory() ? new File( entry, SERVICES ) : entry;
+            key.append( entry.getAbsolutePath() ).append( '\0' ).append( file.length() ).append( '\0' )
+                .append( file.lastModified() ).append( '\n' );
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return whether the jar or directory registers annotation processors; if it
+     * cannot be read, it is assumed to
+     */
+    static boolean providesProcessors( File entry )
+    {
+        if ( entry.isDirectory() )
+        {
+            return new File( entry, SERVICES ).isFile();
+        }
+        if ( !entry.isFile() )
+        {
+            return false;
+        }
+        try ( ZipFile jar = new ZipFile( entry ) )
+        {
+            return jar.getEntry( SERVICES ) != null;
+        }
+        catch ( IOException e )
+        {
+            return true;
+        }
+    }
+
+    /**
+     * @return the processors registered in <code>path</code>, in the order javac's
+     * <code>ServiceLoader</code> would find them
+     */
+    static List<String> discover( List<File> path )
+        throws IOException
+    {
+        Set<String> processors = new LinkedHashSet<String>();
+        for ( File entry : path )
+        {
+            if ( entry.isDirectory() )
+            {
+                File services = new File( entry, SERVICES );
+                if ( services.isFile() )
+                {
+                    try ( InputStream in = Files.newInputStream( services.toPath() ) )
+                    {
+                        parse( in, processors );
+                    }
+                }
+            }
+            else if ( entry.isFile() )
+            {
+                try ( ZipFile jar = new ZipFile( entry ) )
+                {
+                    ZipEntry services = jar.getEntry( SERVICES );
+                    if ( services != null )
+                    {
+                        try ( InputStream in = jar.getInputStream( services ) )
+                        {
+                            parse( in, processors );
+                        }
+                    }
+                }
+            }
+        }
+        return new ArrayList<String>( processors );
+    }
+
+    private static void parse( InputStream in, Set<String> processors )
+        throws IOException
+    {
+        BufferedReader reader = new BufferedReader( new InputStreamReader( in, UTF8 ) );
+        for ( String line = reader.readLine(); line != null; line = reader.readLine() )
+        {
+            int comment = line.indexOf( '#' );
+            String name = ( comment < 0 ? line : line.substring( 0, comment ) ).trim();
+            if ( !name.isEmpty() )
+            {
+                processors.add( name );
+            }
+        }
+    }
+}
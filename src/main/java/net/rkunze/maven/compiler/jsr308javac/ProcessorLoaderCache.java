@@ -0,0 +1,231 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileManager;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+/**
+ * Class loaders for the annotation processor path, kept between compiles.
+ * <p>
+ * javac creates a new class loader for the processor path in every compile and
+ * closes it at the end, so the checkers are loaded and initialized again and again.
+ * The file manager returned by {@link #wrap} hands out a cached loader instead. It is
+ * wrapped in a class loader that does not implement <code>Closeable</code>, so javac
+ * cannot close it. A cached loader is reused while the processor path and the size
+ * and modification time of its jars stay the same. Class directories on the path
+ * only count with their name: they are rebuilt with every compile of their module,
+ * so their time stamps would never match. The least recently used loaders are
+ * dropped when there are too many, and closed as soon as no compile uses them
+ * any more.
+ * <p>
+ * This class runs inside the javac class loader, so the cache lives as long as the
+ * javac instance.
+ */
+final class ProcessorLoaderCache
+{
+    private static final int MAX_LOADERS = 4;
+
+    private static final Map<String, CachedLoader> LOADERS =
+        new LinkedHashMap<String, CachedLoader>( 16, 0.75f, true )
+        {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<String, CachedLoader> eldest )
+            {
+                if ( size() <= MAX_LOADERS )
+                {
+                    return false;
+                }
+                eldest.getValue().evicted = true;
+                eldest.getValue().closeIfUnused();
+                return true;
+            }
+        };
+
+    /**
+     * A cached loader and the number of compiles using it. Guarded by {@link #LOADERS}.
+     */
+    private static final class CachedLoader
+    {
+        final URLClassLoader loader;
+
+        int users;
+
+        boolean evicted;
+
+        CachedLoader( URLClassLoader loader )
+        {
+            this.loader = loader;
+        }
+
+        void closeIfUnused()
+        {
+            if ( evicted && users == 0 )
+            {
+                try
+                {
+                    loader.close();
+                }
+                catch ( IOException e )
+                {
+                    // only leaves a jar file open
+                }
+            }
+        }
+    }
+
+    private ProcessorLoaderCache()
+    {
+    }
+
+    /**
+     * @return a file manager that hands out cached processor class loaders
+     */
+    static CachingFileManager wrap( StandardJavaFileManager standardFileManager )
+    {
+        return new CachingFileManager( standardFileManager );
+    }
+
+    static final class CachingFileManager
+        extends ForwardingJavaFileManager<JavaFileManager>
+    {
+        private final StandardJavaFileManager standardFileManager;
+
+        private final List<CachedLoader> used = new ArrayList<CachedLoader>();
+
+        private Boolean loaderReused;
+
+        CachingFileManager( StandardJavaFileManager standardFileManager )
+        {
+            super( standardFileManager );
+            this.standardFileManager = standardFileManager;
+        }
+
+        @Override
+        public ClassLoader getClassLoader( Location location )
+        {
+            if ( location != StandardLocation.ANNOTATION_PROCESSOR_PATH )
+            {
+                return super.getClassLoader( location );
+            }
+            Iterable<? extends File> path = standardFileManager.getLocation( location );
+            if ( path == null )
+            {
+                return super.getClassLoader( location );
+            }
+            return new SharedClassLoader( loaderFor( path ) );
+        }
+
+        private ClassLoader loaderFor( Iterable<? extends File> path )
+        {
+            StringBuilder key = new StringBuilder();
+            for ( File entry : path )
+            {
+                key.append( entry.getAbsolutePath() );
+                if ( !entry.isDirectory() )
+                {
+                    key.append( '\0' ).append( entry.length() ).append( '\0' ).append( entry.lastModified() );
+                }
+                key.append( '\n' );
+            }
+            synchronized ( LOADERS )
+            {
+                CachedLoader cached = LOADERS.get( key.toString() );
+                loaderReused = cached != null;
+                if ( cached == null )
+                {
+                    List<URL> urls = new ArrayList<URL>();
+                    for ( File entry : path )
+                    {
+                        try
+                        {
+                            urls.add( entry.toURI().toURL() );
+                        }
+                        catch ( MalformedURLException e )
+                        {
+                            throw new IllegalArgumentException( e );
+                        }
+                    }
+                    cached = new CachedLoader( new URLClassLoader( urls.toArray( new URL[urls.size()] ),
+                                                                   ProcessorLoaderCache.class.getClassLoader() ) );
+                    LOADERS.put( key.toString(), cached );
+                }
+                cached.users++;
+                used.add( cached );
+                return cached.loader;
+            }
+        }
+
+        /**
+         * Must be called when the compile is done, so loaders dropped from the cache
+         * in the meantime can be closed.
+         */
+        void release()
+        {
+            synchronized ( LOADERS )
+            {
+                for ( CachedLoader cached : used )
+                {
+                    cached.users--;
+                    cached.closeIfUnused();
+                }
+                used.clear();
+            }
+        }
+
+        /**
+         * @return whether the processor class loader came from the cache, or
+         * <code>null</code> if javac did not ask for one
+         */
+        Boolean isLoaderReused()
+        {
+            return loaderReused;
+        }
+    }
+
+    /**
+     * Not <code>Closeable</code>, so javac leaves the cached loader open.
+     */
+    private static final class SharedClassLoader
+        extends ClassLoader
+    {
+        SharedClassLoader( ClassLoader parent )
+        {
+            super( parent );
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.codehaus.plexus.util.StringUtils;
+
+/**
+ * Loads the checkers from a separate processor path instead of the compile classpath.
+ * <p>
+ * Enabled with <code>-Xjsr308.processorPath=true</code>. The checker jar moves from
+ * the classpath to <code>-processorpath</code>, in front of a processor path given in
+ * the POM, and only the type qualifiers (checker-qual) stay on the classpath, so javac
+ * does not search the checker classes when resolving symbols of the sources. Without
+ * a processor path in the POM, javac would load processors from the classpath, so the
+ * classpath entries follow the checker jar on the processor path; processors and
+ * custom checkers from project dependencies are found as before. The output
+ * directory is left out, the classes being compiled are no processors. The class
+ * loader for the processor path is cached by the {@link JavacTaskRunner} and reused by
+ * later compiles with the same javac instance, as long as the processor path and its
+ * jars do not change.
+ */
+final class ProcessorPath
+{
+    private static final String CLASSPATH = "-classpath";
+
+    private static final String PROCESSORPATH = "-processorpath";
+
+    private static final String OUTPUT = "-d";
+
+    private ProcessorPath()
+    {
+    }
+
+    /**
+     * @return whether the separate processor path is enabled
+     */
+    static boolean isEnabled( PluginOptions options )
+    {
+        return options.getBoolean( "processorPath", false );
+    }
+
+    /**
+     * @return <code>args</code> with the checker jar moved from the classpath to the
+     * processor path, followed by the given processor path or else the classpath
+     */
+    static String[] apply( String[] args )
+    {
+        String checkerJar = ClasspathConfig.getCheckerJar().getAbsolutePath();
+        List<String> processorPath = new ArrayList<String>();
+        processorPath.add( checkerJar );
+
+        List<String> result = new ArrayList<String>( Arrays.asList( args ) );
+        int processorPathIndex = result.indexOf( PROCESSORPATH );
+        boolean configured = processorPathIndex >= 0 && processorPathIndex + 1 < result.size();
+        if ( configured )
+        {
+            processorPath.addAll( Arrays.asList( result.get( processorPathIndex + 1 ).split( File.pathSeparator ) ) );
+            result.subList( processorPathIndex, processorPathIndex + 2 ).clear();
+        }
+
+        int classpathIndex = result.indexOf( CLASSPATH );
+        if ( classpathIndex >= 0 && classpathIndex + 1 < result.size() )
+        {
+            List<String> classpath =
+                new ArrayList<String>( Arrays.asList( result.get( classpathIndex + 1 ).split( File.pathSeparator ) ) );
+            int checker = classpath.indexOf( checkerJar );
+            if ( checker >= 0 )
+            {
+                classpath.set( checker, ClasspathConfig.getCheckerQualJar().getAbsolutePath() );
+            }
+            if ( !configured )
+            {
+                int outputIndex = result.indexOf( OUTPUT );
+                String output = outputIndex >= 0 && outputIndex + 1 < result.size()
+                    ? new File( result.get( outputIndex + 1 ) ).getAbsolutePath() : null;
+                for ( String entry : classpath )
+                {
+                    if ( !entry.isEmpty() && !processorPath.contains( entry )
+                        && !new File( entry ).getAbsolutePath().equals( output ) )
+                    {
+                        processorPath.add( entry );
+                    }
+                }
+            }
+            result.set( classpathIndex + 1, StringUtils.join( classpath.iterator(), File.pathSeparator ) );
+            result.add( classpathIndex + 2, PROCESSORPATH );
+            result.add( classpathIndex + 3, StringUtils.join( processorPath.iterator(), File.pathSeparator ) );
+        }
+        return result.toArray( new String[result.size()] );
+    }
+
+    static void addSettings( Map<String, Object> settings )
+    {
+        settings.put( JavacTaskRunner.CACHE_PROCESSOR_LOADER, Boolean.TRUE );
+    }
+}
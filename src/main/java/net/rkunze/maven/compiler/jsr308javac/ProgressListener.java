@@ -0,0 +1,82 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+import java.util.Collection;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reports each analyzed compilation unit, and cancels the compile when asked to.
+ * <p>
+ * The sink and the flag come from the plugin class loader; they are
+ * <code>java.*</code> types, so they can cross into the javac class loader. The flag
+ * is checked on every task event, so a cancelled compile stops at the latest when
+ * javac or a checker moves on to the next class, and the javac instance can be
+ * reused.
+ * <p>
+ * This class runs inside the javac class loader.
+ */
+final class ProgressListener
+    implements TaskListener
+{
+    private final Collection<String> analyzed;
+
+    private final AtomicBoolean cancelled;
+
+    /**
+     * @param analyzed receives the path of every analyzed source file, may be
+     * <code>null</code>
+     * @param cancelled cancels the compile when set, may be <code>null</code>
+     */
+    ProgressListener( Collection<String> analyzed, AtomicBoolean cancelled )
+    {
+        this.analyzed = analyzed;
+        this.cancelled = cancelled;
+    }
+
+    public void started( TaskEvent e )
+    {
+        checkCancelled();
+    }
+
+    public void finished( TaskEvent e )
+    {
+        if ( analyzed != null && e.getKind() == TaskEvent.Kind.ANALYZE && e.getSourceFile() != null )
+        {
+            analyzed.add( e.getSourceFile().getName() );
+        }
+        checkCancelled();
+    }
+
+    private void checkCancelled()
+    {
+        if ( cancelled != null && cancelled.get() )
+        {
+            throw new CancellationException( "Compile cancelled" );
+        }
+    }
+}
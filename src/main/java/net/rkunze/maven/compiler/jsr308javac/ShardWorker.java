@@ -0,0 +1,112 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Main class of the worker processes of a {@link ShardedCheck}.
+ * <p>
+ * Runs javac through the {@link JavacTaskRunner} with the arguments read from a file
+ * (one per line), prints the compiler output to standard output and writes the time
+ * spent per compilation unit to a second file, as lines of
+ * <code>&lt;milliseconds&gt;&lt;tab&gt;&lt;path&gt;</code>. The exit code is the javac
+ * exit code. If the system property <code>jsr308.maxErrors</code> is set, the compile
+ * stops after that many errors. If <code>jsr308.diagnosticsReportFile</code> is set, the
+ * diagnostics are also written to that {@link DiagnosticsReport} while compiling. If a
+ * third file is given, the peak heap usage of the
+ * process in bytes is written to it.
+ */
+public final class ShardWorker
+{
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    static final String MAX_ERRORS_PROPERTY = "jsr308.maxErrors";
+
+    static final String DIAGNOSTICS_REPORT_PROPERTY = "jsr308.diagnosticsReportFile";
+
+    private ShardWorker()
+    {
+    }
+
+    public static void main( String[] args )
+        throws IOException
+    {
+        if ( args.length != 2 && args.length != 3 )
+        {
+            System.err.println( "usage: ShardWorker <argument file> <unit times file> [<peak heap file>]" );
+            System.exit( 2 );
+        }
+        List<String> javacArgs = Files.readAllLines( Paths.get( args[0] ), UTF8 );
+
+        PrintWriter out = new PrintWriter( System.out );
+        Map<String, Object> settings = new HashMap<String, Object>();
+        Integer maxErrors = Integer.getInteger( MAX_ERRORS_PROPERTY );
+        if ( maxErrors != null )
+        {
+            settings.put( JavacTaskRunner.MAX_ERRORS, maxErrors );
+        }
+        String report = System.getProperty( DIAGNOSTICS_REPORT_PROPERTY );
+        if ( report != null )
+        {
+            settings.put( JavacTaskRunner.DIAGNOSTICS_REPORT, report );
+        }
+        Map<String, Object> results = new HashMap<String, Object>();
+        int exitCode = JavacTaskRunner.compile( javacArgs.toArray( new String[javacArgs.size()] ), out, settings,
+                                                results );
+        if ( results.containsKey( JavacTaskRunner.DIAGNOSTICS_REPORT_ERROR ) )
+        {
+            out.println( "error: Unable to write " + report + ": "
+                + results.get( JavacTaskRunner.DIAGNOSTICS_REPORT_ERROR ) );
+            exitCode = 1;
+        }
+        out.flush();
+
+        List<String> lines = new ArrayList<String>();
+        @SuppressWarnings( "unchecked" )
+        Map<String, Long> unitTimes = (Map<String, Long>) results.get( JavacTaskRunner.UNIT_TIMES );
+        if ( unitTimes != null )
+        {
+            for ( Map.Entry<String, Long> unit : unitTimes.entrySet() )
+            {
+                lines.add( unit.getValue() + "\t" + unit.getKey() );
+            }
+        }
+        Files.write( Paths.get( args[1] ), lines, UTF8 );
+        if ( args.length > 2 )
+        {
+            Files.write( Paths.get( args[2] ), Collections.singletonList( Long.toString( HeapUsage.peak() ) ), UTF8 );
+        }
+        System.exit( exitCode );
+    }
+}
@@ -0,0 +1,529 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.codehaus.plexus.compiler.CompilerConfiguration;
+import org.codehaus.plexus.compiler.CompilerException;
+import org.codehaus.plexus.compiler.CompilerMessage;
+import org.codehaus.plexus.compiler.CompilerResult;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Runs the checkers in several worker processes.
+ * <p>
+ * Enabled with <code>-Xjsr308.shards=&lt;n&gt;</code>. The module is first compiled
+ * with all annotation processors, but with the checkers skipping every class
+ * (<code>-AskipDefs=.*</code>), which produces the class files and generated sources.
+ * Then the sources are split into <code>n</code> shards, and every shard is checked
+ * with <code>-proc:only</code> in its own {@link ShardWorker} process, against the
+ * classes of the first compile. Shards are balanced by the time every file took in
+ * earlier runs, recorded in <code>unit-times.txt</code> in the state directory. The
+ * messages of all processes are merged and sorted by file and position. With a
+ * {@link FailFast} limit, the processes still running are killed as soon as the
+ * finished ones have reported enough errors.
+ */
+final class ShardedCheck
+{
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    private static final Comparator<CompilerMessage> MESSAGE_ORDER = new Comparator<CompilerMessage>()
+    {
+        public int compare( CompilerMessage a, CompilerMessage b )
+        {
+            int result = compareStrings( a.getFile(), b.getFile() );
+            if ( result == 0 )
+            {
+                result = Integer.compare( a.getStartLine(), b.getStartLine() );
+            }
+            if ( result == 0 )
+            {
+                result = Integer.compare( a.getStartColumn(), b.getStartColumn() );
+            }
+            if ( result == 0 )
+            {
+                result = a.getKind().compareTo( b.getKind() );
+            }
+            if ( result == 0 )
+            {
+                result = compareStrings( a.getMessage(), b.getMessage() );
+            }
+            return result;
+        }
+    };
+
+    private final CompilerConfiguration config;
+
+    private final int shards;
+
+    private final File stateDir;
+
+    private final FailFast failFast;
+
+    private final Logger logger;
+
+    private ShardedCheck( CompilerConfiguration config, int shards, File stateDir, FailFast failFast,
+                          Logger logger )
+    {
+        this.config = config;
+        this.shards = shards;
+        this.stateDir = stateDir;
+        this.failFast = failFast;
+        this.logger = logger;
+    }
+
+    /**
+     * @return the sharded check, or <code>null</code> if it is disabled
+     */
+    static ShardedCheck create( CompilerConfiguration config, PluginOptions options, Logger logger )
+        throws CompilerException
+    {
+        long shards = options.getLong( "shards", 0 );
+        if ( shards <= 1 )
+        {
+            return null;
+        }
+        return new ShardedCheck( config, (int) Math.min( shards, 256 ), options.getStateDirectory(),
+                                 FailFast.create( options ), logger );
+    }
+
+    /**
+     * @return the arguments for the compile that produces the classes: the checkers
+     * run, but skip all classes
+     */
+    String[] compileArguments( String[] args )
+    {
+        List<String> result = new ArrayList<String>( Arrays.asList( args ) );
+        result.add( DefsPattern.SKIP_DEFS + "=.*" );
+        return result.toArray( new String[result.size()] );
+    }
+
+    /**
+     * Check the sources in worker processes.
+     *
+     * @param args the arguments of the compile
+     * @param compileResult the result of the compile with {@link #compileArguments}
+     */
+    CompilerResult check( String[] args, String[] sourceFiles, CompilerResult compileResult )
+        throws CompilerException
+    {
+        File timesFile = new File( stateDir, "unit-times.txt" );
+        Map<String, Long> history = readTimes( timesFile );
+        List<List<String>> partition = partition( sourceFiles, history, shards );
+        logger.info( "Checking " + sourceFiles.length + " source files in " + partition.size() + " processes" );
+
+        File workDir;
+        try
+        {
+            workDir = Files.createTempDirectory( "jsr308-shards" ).toFile();
+        }
+        catch ( IOException e )
+        {
+            throw new CompilerException( "Unable to create a directory for the shards", e );
+        }
+        ExecutorService executor = Executors.newFixedThreadPool( partition.size() );
+        final ProcessGroup processes = new ProcessGroup();
+        try
+        {
+            CompletionService<ShardResult> completion = new ExecutorCompletionService<ShardResult>( executor );
+            for ( int i = 0; i < partition.size(); i++ )
+            {
+                final int index = i;
+                final File shardDir = new File( workDir, "shard-" + i );
+                final List<String> command = command( shardDir, workerArguments( args, sourceFiles, partition.get( i ),
+                                                                                 shardDir ) );
+                completion.submit( new Callable<ShardResult>()
+                {
+                    public ShardResult call()
+                        throws IOException, InterruptedException
+                    {
+                        return run( index, command, shardDir, processes );
+                    }
+                } );
+            }
+
+            boolean success = compileResult.isSuccess();
+            Set<String> seen = new HashSet<String>();
+            List<CompilerMessage> messages = new ArrayList<CompilerMessage>();
+            addMessages( messages, seen, compileResult.getCompilerMessages() );
+            Map<String, Long> times = new TreeMap<String, Long>( history );
+            boolean stopped = false;
+            for ( int i = 0; i < partition.size() && !stopped; i++ )
+            {
+                ShardResult shard = completion.take().get();
+                List<CompilerMessage> shardMessages = JavacJSR308Compiler.parseOutput( shard.exitCode, shard.output );
+                if ( shard.exitCode != 0 && !hasError( shardMessages ) )
+                {
+                    shardMessages.add( new CompilerMessage( "Checker process " + shard.index
+                        + " failed with exit code " + shard.exitCode + ": " + shard.output.trim(),
+                                                            CompilerMessage.Kind.ERROR ) );
+                }
+                addMessages( messages, seen, shardMessages );
+                success &= shard.exitCode == 0;
+                times.putAll( shard.unitTimes );
+                stopped = failFast != null && failFast.isReached( messages );
+            }
+            Collections.sort( messages, MESSAGE_ORDER );
+
+            if ( stopped )
+            {
+                processes.destroyAll();
+                CompilerResult result = new CompilerResult( false, messages );
+                failFast.stopped( result, "Checking", logger );
+                return result;
+            }
+
+            times.keySet().retainAll( Arrays.asList( sourceFiles ) );
+            writeTimes( timesFile, times );
+            return new CompilerResult( success, messages );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new CompilerException( "Interrupted while checking", e );
+        }
+        catch ( ExecutionException e )
+        {
+            throw new CompilerException( "Unable to run a checker process: " + e.getCause().getMessage(),
+                                         e.getCause() );
+        }
+        catch ( IOException e )
+        {
+            throw new CompilerException( "Unable to read the output of a checker process", e );
+        }
+        finally
+        {
+            processes.destroyAll();
+            executor.shutdownNow();
+            try
+            {
+                FileUtils.deleteDirectory( workDir );
+            }
+            catch ( IOException e )
+            {
+                logger.debug( "Unable to delete " + workDir + ": " + e.getMessage() );
+            }
+        }
+    }
+
+    private static void addMessages( List<CompilerMessage> messages, Set<String> seen,
+                                     List<CompilerMessage> add )
+    {
+        for ( CompilerMessage message : add )
+        {
+            // Warnings of javac itself are reported by the compile and the checker processes
+            String key = message.getFile() + ":" + message.getStartLine() + ":" + message.getStartColumn() + ":"
+                + message.getKind() + ":" + message.getMessage();
+            if ( seen.add( key ) )
+            {
+                messages.add( message );
+            }
+        }
+    }
+
+    private static boolean hasError( List<CompilerMessage> messages )
+    {
+        for ( CompilerMessage message : messages )
+        {
+            if ( message.getKind() == CompilerMessage.Kind.ERROR )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Arguments for checking one shard: only annotation processing, on the shard's
+     * sources, with the classes of the compile instead of the source path, and
+     * outputs going to the shard's own directory.
+     */
+    private List<String> workerArguments( String[] args, String[] sourceFiles, List<String> shard, File shardDir )
+    {
+        Set<String> sources = new HashSet<String>( Arrays.asList( sourceFiles ) );
+        String output = new File( config.getOutputLocation() ).getAbsolutePath();
+        List<String> result = new ArrayList<String>();
+        for ( int i = 0; i < args.length; i++ )
+        {
+            String arg = args[i];
+            boolean hasValue = i + 1 < args.length;
+            if ( sources.contains( arg ) || arg.startsWith( "-proc:" ) || arg.startsWith( "-implicit:" ) )
+            {
+                continue;
+            }
+            if ( "-sourcepath".equals( arg ) && hasValue )
+            {
+                i++;
+            }
+            else if ( ( "-d".equals( arg ) || "-s".equals( arg ) ) && hasValue )
+            {
+                result.add( arg );
+                result.add( new File( shardDir, arg.substring( 1 ) ).getAbsolutePath() );
+                i++;
+            }
+            else if ( "-classpath".equals( arg ) && hasValue )
+            {
+                result.add( arg );
+                result.add( output + File.pathSeparator + args[++i] );
+            }
+            else
+            {
+                result.add( arg );
+            }
+        }
+        result.add( "-proc:only" );
+        result.add( "-implicit:none" );
+        result.addAll( shard );
+        return result;
+    }
+
+    private List<String> command( File shardDir, List<String> workerArgs )
+        throws CompilerException
+    {
+        try
+        {
+            new File( shardDir, "d" ).mkdirs();
+            new File( shardDir, "s" ).mkdirs();
+            Files.write( new File( shardDir, "args" ).toPath(), workerArgs, UTF8 );
+        }
+        catch ( IOException e )
+        {
+            throw new CompilerException( "Unable to write the arguments of a checker process", e );
+        }
+        Map<String, String> properties = new HashMap<String, String>();
+        if ( failFast != null )
+        {
+            properties.put( ShardWorker.MAX_ERRORS_PROPERTY, Integer.toString( failFast.getMaxErrors() ) );
+        }
+        return WorkerCommand.create( config.getMaxmem(), properties, new File( shardDir, "args" ).getAbsolutePath(),
+                                     new File( shardDir, "times" ).getAbsolutePath() );
+    }
+
+    private static final class ShardResult
+    {
+        final int index;
+
+        final int exitCode;
+
+        final String output;
+
+        final Map<String, Long> unitTimes;
+
+        ShardResult( int index, int exitCode, String output, Map<String, Long> unitTimes )
+        {
+            this.index = index;
+            this.exitCode = exitCode;
+            this.output = output;
+            this.unitTimes = unitTimes;
+        }
+    }
+
+    /**
+     * The worker processes of a check. Once destroyed, the running processes are
+     * killed and no new ones are started.
+     */
+    private static final class ProcessGroup
+    {
+        private final List<Process> processes = new ArrayList<Process>();
+
+        private boolean destroyed;
+
+        synchronized Process start( ProcessBuilder builder )
+            throws IOException
+        {
+            if ( destroyed )
+            {
+                throw new IOException( "Checking was stopped" );
+            }
+            Process process = builder.start();
+            processes.add( process );
+            return process;
+        }
+
+        synchronized void destroyAll()
+        {
+            destroyed = true;
+            for ( Process process : processes )
+            {
+                process.destroy();
+            }
+            processes.clear();
+        }
+    }
+
+    private static ShardResult run( int index, List<String> command, File shardDir, ProcessGroup processes )
+        throws IOException, InterruptedException
+    {
+        Process process = processes.start( new ProcessBuilder( command ).redirectErrorStream( true ) );
+        String output = WorkerCommand.readOutput( process );
+        int exitCode = process.waitFor();
+        return new ShardResult( index, exitCode, output, readTimes( new File( shardDir, "times" ) ) );
+    }
+
+    /**
+     * Split the files into at most <code>shards</code> shards of about the same cost,
+     * by assigning the most expensive file to the cheapest shard until all files are
+     * assigned. Files without a known cost count as the average of the known ones.
+     *
+     * @return the non-empty shards, each sorted by path
+     */
+    static List<List<String>> partition( String[] files, Map<String, Long> costs, int shards )
+    {
+        long known = 0;
+        int knownCount = 0;
+        for ( String file : files )
+        {
+            Long cost = costs.get( file );
+            if ( cost != null )
+            {
+                known += cost;
+                knownCount++;
+            }
+        }
+        final long defaultCost = knownCount == 0 ? 1 : Math.max( 1, known / knownCount );
+        final Map<String, Long> fileCosts = new LinkedHashMap<String, Long>();
+        for ( String file : files )
+        {
+            Long cost = costs.get( file );
+            fileCosts.put( file, cost == null ? defaultCost : Math.max( 1, cost ) );
+        }
+
+        List<String> sorted = new ArrayList<String>( fileCosts.keySet() );
+        Collections.sort( sorted, new Comparator<String>()
+        {
+            public int compare( String a, String b )
+            {
+                int result = Long.compare( fileCosts.get( b ), fileCosts.get( a ) );
+                return result != 0 ? result : a.compareTo( b );
+            }
+        } );
+
+        final long[] loads = new long[Math.max( 1, Math.min( shards, files.length ) )];
+        List<List<String>> result = new ArrayList<List<String>>();
+        PriorityQueue<Integer> cheapest = new PriorityQueue<Integer>( loads.length, new Comparator<Integer>()
+        {
+            public int compare( Integer a, Integer b )
+            {
+                int result = Long.compare( loads[a], loads[b] );
+                return result != 0 ? result : a.compareTo( b );
+            }
+        } );
+        for ( int i = 0; i < loads.length; i++ )
+        {
+            result.add( new ArrayList<String>() );
+            cheapest.add( i );
+        }
+        for ( String file : sorted )
+        {
+            int shard = cheapest.poll();
+            result.get( shard ).add( file );
+            loads[shard] += fileCosts.get( file );
+            cheapest.add( shard );
+        }
+        for ( List<String> shard : result )
+        {
+            Collections.sort( shard );
+        }
+        result.removeAll( Collections.singleton( Collections.<String>emptyList() ) );
+        return result;
+    }
+
+    private static Map<String, Long> readTimes( File file )
+    {
+        Map<String, Long> times = new HashMap<String, Long>();
+        if ( !file.isFile() )
+        {
+            return times;
+        }
+        try
+        {
+            for ( String line : Files.readAllLines( file.toPath(), UTF8 ) )
+            {
+                int tab = line.indexOf( '\t' );
+                if ( tab > 0 )
+                {
+                    times.put( line.substring( tab + 1 ), Long.valueOf( line.substring( 0, tab ) ) );
+                }
+            }
+        }
+        catch ( IOException e )
+        {
+            // Without history, all files count the same
+        }
+        catch ( NumberFormatException e )
+        {
+            // Without history, all files count the same
+        }
+        return times;
+    }
+
+    private void writeTimes( File file, Map<String, Long> times )
+    {
+        List<String> lines = new ArrayList<String>();
+        for ( Map.Entry<String, Long> entry : times.entrySet() )
+        {
+            lines.add( entry.getValue() + "\t" + entry.getKey() );
+        }
+        try
+        {
+            file.getParentFile().mkdirs();
+            Files.write( file.toPath(), lines, UTF8 );
+        }
+        catch ( IOException e )
+        {
+            logger.warn( "Unable to write " + file + ": " + e.getMessage() );
+        }
+    }
+
+    private static int compareStrings( String a, String b )
+    {
+        if ( a == null || b == null )
+        {
+            return a == null ? ( b == null ? 0 : -1 ) : 1;
+        }
+        return a.compareTo( b );
+    }
+}
@@ -0,0 +1,278 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.ForwardingJavaFileObject;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+
+/**
+ * File manager that serves the content of source files from memory if they did not
+ * change since an earlier compile.
+ * <p>
+ * Decoded sources are cached by path, together with the size, modification time and
+ * encoding of the file they were read from, so a changed file is read again. The
+ * cache is limited to a number of bytes (two per character) and drops the least
+ * recently used sources when it is full. Only sources that decode without errors are
+ * cached; for others, javac reads the file itself and reports the errors.
+ * <p>
+ * This class runs inside the javac class loader, so the cache lives as long as the
+ * javac instance, e.g. for all builds of a long-running Maven daemon.
+ */
+final class SourceCache
+    extends ForwardingJavaFileManager<JavaFileManager>
+{
+    private static final class Entry
+    {
+        final long size;
+
+        final long lastModified;
+
+        final Charset encoding;
+
+        final String content;
+
+        Entry( long size, long lastModified, Charset encoding, String content )
+        {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.encoding = encoding;
+            this.content = content;
+        }
+    }
+
+    // Guarded by itself
+    private static final Map<String, Entry> CACHE = new LinkedHashMap<String, Entry>( 256, 0.75f, true );
+
+    private static long cachedChars;
+
+    private final Charset encoding;
+
+    private final long maxChars;
+
+    private final AtomicInteger hits = new AtomicInteger();
+
+    private final AtomicInteger misses = new AtomicInteger();
+
+    /**
+     * @param encoding the encoding of the sources
+     * @param maxBytes the memory the cache may use, for all compiles
+     */
+    SourceCache( JavaFileManager fileManager, Charset encoding, long maxBytes )
+    {
+        super( fileManager );
+        this.encoding = encoding;
+        this.maxChars = maxBytes / 2;
+    }
+
+    /**
+     * @return the sources to compile, reading their content through the cache
+     */
+    List<JavaFileObject> wrap( Iterable<? extends JavaFileObject> units )
+    {
+        List<JavaFileObject> result = new ArrayList<JavaFileObject>();
+        for ( JavaFileObject unit : units )
+        {
+            result.add( wrap( unit ) );
+        }
+        return result;
+    }
+
+    private JavaFileObject wrap( JavaFileObject file )
+    {
+        return file != null && file.getKind() == JavaFileObject.Kind.SOURCE && "file".equals( file.toUri().getScheme() )
+            ? new CachedSource( file ) : file;
+    }
+
+    @Override
+    public Iterable<JavaFileObject> list( Location location, String packageName, Set<JavaFileObject.Kind> kinds,
+                                          boolean recurse )
+        throws IOException
+    {
+        Iterable<JavaFileObject> files = super.list( location, packageName, kinds, recurse );
+        if ( !kinds.contains( JavaFileObject.Kind.SOURCE ) )
+        {
+            return files;
+        }
+        return wrap( files );
+    }
+
+    @Override
+    public JavaFileObject getJavaFileForInput( Location location, String className, JavaFileObject.Kind kind )
+        throws IOException
+    {
+        return wrap( super.getJavaFileForInput( location, className, kind ) );
+    }
+
+    @Override
+    public JavaFileObject getJavaFileForOutput( Location location, String className, JavaFileObject.Kind kind,
+                                                FileObject sibling )
+        throws IOException
+    {
+        return super.getJavaFileForOutput( location, className, kind, unwrap( sibling ) );
+    }
+
+    @Override
+    public FileObject getFileForOutput( Location location, String packageName, String relativeName,
+                                        FileObject sibling )
+        throws IOException
+    {
+        return super.getFileForOutput( location, packageName, relativeName, unwrap( sibling ) );
+    }
+
+    @Override
+    public String inferBinaryName( Location location, JavaFileObject file )
+    {
+        return super.inferBinaryName( location, unwrap( file ) );
+    }
+
+    @Override
+    public boolean isSameFile( FileObject a, FileObject b )
+    {
+        return super.isSameFile( unwrap( a ), unwrap( b ) );
+    }
+
+    private static <T extends FileObject> T unwrap( T file )
+    {
+        if ( file instanceof CachedSource )
+        {
+            @SuppressWarnings( "unchecked" )
+            T delegate = (T) ( (CachedSource) file ).delegate();
+            return delegate;
+        }
+        return file;
+    }
+
+    int getHits()
+    {
+        return hits.get();
+    }
+
+    int getMisses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * @return the content of the file, or <code>null</code> if it cannot be decoded
+     * without errors
+     */
+    private String content( URI uri )
+        throws IOException
+    {
+        File file = new File( uri );
+        String key = file.getPath();
+        long size = file.length();
+        long lastModified = file.lastModified();
+        synchronized ( CACHE )
+        {
+            Entry entry = CACHE.get( key );
+            if ( entry != null && entry.size == size && entry.lastModified == lastModified
+                && entry.encoding.equals( encoding ) )
+            {
+                hits.incrementAndGet();
+                return entry.content;
+            }
+        }
+        misses.incrementAndGet();
+
+        String content;
+        try
+        {
+            content = encoding.newDecoder().onMalformedInput( CodingErrorAction.REPORT )
+                .onUnmappableCharacter( CodingErrorAction.REPORT )
+                .decode( ByteBuffer.wrap( Files.readAllBytes( file.toPath() ) ) ).toString();
+        }
+        catch ( CharacterCodingException e )
+        {
+            return null;
+        }
+        // A file changed within the time stamp resolution could look unchanged later
+        if ( file.length() != size || file.lastModified() != lastModified
+            || System.currentTimeMillis() - lastModified < 2000 )
+        {
+            return content;
+        }
+        synchronized ( CACHE )
+        {
+            Entry old = CACHE.put( key, new Entry( size, lastModified, encoding, content ) );
+            cachedChars += content.length() - ( old == null ? 0 : old.content.length() );
+            for ( Iterator<Entry> it = CACHE.values().iterator(); cachedChars > maxChars && it.hasNext(); )
+            {
+                cachedChars -= it.next().content.length();
+                it.remove();
+            }
+        }
+        return content;
+    }
+
+    private final class CachedSource
+        extends ForwardingJavaFileObject<JavaFileObject>
+    {
+        CachedSource( JavaFileObject file )
+        {
+            super( file );
+        }
+
+        JavaFileObject delegate()
+        {
+            return fileObject;
+        }
+
+        @Override
+        public CharSequence getCharContent( boolean ignoreEncodingErrors )
+            throws IOException
+        {
+            String content = content( fileObject.toUri() );
+            return content != null ? content : super.getCharContent( ignoreEncodingErrors );
+        }
+
+        @Override
+        public Reader openReader( boolean ignoreEncodingErrors )
+            throws IOException
+        {
+            String content = content( fileObject.toUri() );
+            return content != null ? new StringReader( content ) : super.openReader( ignoreEncodingErrors );
+        }
+    }
+}
@@ -0,0 +1,507 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import org.codehaus.plexus.compiler.CompilerConfiguration;
+import org.codehaus.plexus.compiler.CompilerException;
+import org.codehaus.plexus.util.SelectorUtils;
+
+/**
+ * Finds the source files of a compile by walking the source roots in parallel.
+ * <p>
+ * Replaces <code>AbstractCompiler.getSourceFiles()</code> when enabled with
+ * <code>-Xjsr308.parallelSourceScan=true</code>; includes and excludes have the same
+ * meaning as for the <code>DirectoryScanner</code> used there. Every directory is
+ * handled by its own fork/join task, so the latency of directory listings on slow
+ * (network) file systems overlaps.
+ * <p>
+ * With <code>-Xjsr308.sourceSnapshot=true</code>, the directory listings and the size
+ * and modification time of the source files are kept in
+ * <code>source-snapshot.bin</code> in the state directory. A directory whose
+ * modification time did not change since the snapshot still has the same entries, so
+ * it is not listed again. Comparing the files with the snapshot also tells which
+ * sources were added or modified since the snapshot was saved.
+ */
+final class SourceScanner
+{
+    private static final int FORMAT_VERSION = 1;
+
+    // Modification times closer than this to the scan may be followed by further
+    // changes with the same time stamp, so they are never trusted
+    private static final long RACY_MILLIS = 2000;
+
+    private static final long UNKNOWN = Long.MIN_VALUE;
+
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+
+    private static final class Dir
+    {
+        final long lastModified;
+
+        final String[] files;
+
+        final String[] dirs;
+
+        Dir( long lastModified, String[] files, String[] dirs )
+        {
+            this.lastModified = lastModified;
+            this.files = files;
+            this.dirs = dirs;
+        }
+    }
+
+    private static final class Stamp
+    {
+        final long size;
+
+        final long lastModified;
+
+        Stamp( long size, long lastModified )
+        {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        boolean matches( Stamp other )
+        {
+            return other != null && lastModified != UNKNOWN && size == other.size
+                && lastModified == other.lastModified;
+        }
+    }
+
+    private static final class ScanException
+        extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        ScanException( IOException cause )
+        {
+            super( cause );
+        }
+    }
+
+    private final CompilerConfiguration config;
+
+    private final String[] includes;
+
+    private final String[] excludes;
+
+    private final File snapshotFile;
+
+    private final Map<String, Dir> oldDirs = new HashMap<String, Dir>();
+
+    private final Map<String, Stamp> oldFiles = new HashMap<String, Stamp>();
+
+    private final ConcurrentMap<String, Dir> dirs = new ConcurrentHashMap<String, Dir>();
+
+    private final ConcurrentMap<String, Stamp> files = new ConcurrentHashMap<String, Stamp>();
+
+    private final Set<String> changed = Collections.newSetFromMap( new ConcurrentHashMap<String, Boolean>() );
+
+    private boolean snapshotLoaded;
+
+    private long scanStart;
+
+    private SourceScanner( CompilerConfiguration config, File snapshotFile )
+    {
+        this.config = config;
+        this.snapshotFile = snapshotFile;
+        Set<String> configIncludes = config.getIncludes();
+        includes = normalize( configIncludes == null || configIncludes.isEmpty()
+                                  ? Collections.singleton( "**/*.java" ) : configIncludes );
+        Set<String> configExcludes = config.getExcludes();
+        excludes = normalize( configExcludes == null ? Collections.<String>emptySet() : configExcludes );
+    }
+
+    /**
+     * @return the scanner, or <code>null</code> if the parallel scan is disabled and no
+     * snapshot is needed
+     */
+    static SourceScanner create( CompilerConfiguration config, PluginOptions options )
+    {
+        boolean snapshot = options.getBoolean( "sourceSnapshot", false ) || ChangeScope.needsSourceSnapshot( options );
+        if ( !options.getBoolean( "parallelSourceScan", false ) && !snapshot )
+        {
+            return null;
+        }
+        File snapshotFile = snapshot
+            ? new File( options.getStateDirectory(), "source-snapshot.bin" ) : null;
+        return new SourceScanner( config, snapshotFile );
+    }
+
+    private static String[] normalize( Set<String> patterns )
+    {
+        List<String> result = new ArrayList<String>();
+        for ( String pattern : patterns )
+        {
+            pattern = pattern.trim();
+            if ( !pattern.startsWith( SelectorUtils.REGEX_HANDLER_PREFIX ) )
+            {
+                pattern = pattern.replace( '/', File.separatorChar ).replace( '\\', File.separatorChar );
+                if ( pattern.endsWith( File.separator ) )
+                {
+                    pattern += "**";
+                }
+            }
+            result.add( pattern );
+        }
+        return result.toArray( new String[result.size()] );
+    }
+
+    /**
+     * @return the source files, sorted by path
+     */
+    String[] scan()
+        throws CompilerException
+    {
+        Set<String> result = new TreeSet<String>();
+        Set<File> explicit = config.getSourceFiles();
+        if ( explicit != null && !explicit.isEmpty() )
+        {
+            for ( File file : explicit )
+            {
+                result.add( file.getAbsolutePath() );
+            }
+            return result.toArray( new String[result.size()] );
+        }
+
+        loadSnapshot();
+        scanStart = System.currentTimeMillis();
+        final List<DirTask> tasks = new ArrayList<DirTask>();
+        List<String> roots = config.getSourceLocations();
+        for ( String root : roots == null ? Collections.<String>emptyList() : roots )
+        {
+            tasks.add( new DirTask( Paths.get( root ), "", result ) );
+        }
+        try
+        {
+            POOL.invoke( new RecursiveAction()
+            {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected void compute()
+                {
+                    invokeAll( tasks );
+                }
+            } );
+        }
+        catch ( ScanException e )
+        {
+            throw new CompilerException( "Unable to scan the source directories: " + e.getCause().getMessage(),
+                                         e.getCause() );
+        }
+        return result.toArray( new String[result.size()] );
+    }
+
+    /**
+     * @return the source files that were added or modified since the snapshot was
+     * saved, or <code>null</code> if that is not known
+     */
+    Set<String> getChangedFiles()
+    {
+        return snapshotLoaded ? Collections.unmodifiableSet( changed ) : null;
+    }
+
+    private boolean isIncluded( String path )
+    {
+        return matchesAny( includes, path ) && !matchesAny( excludes, path );
+    }
+
+    private static boolean matchesAny( String[] patterns, String path )
+    {
+        for ( String pattern : patterns )
+        {
+            if ( SelectorUtils.matchPath( pattern, path, true ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean couldHoldIncluded( String path )
+    {
+        for ( String pattern : includes )
+        {
+            if ( SelectorUtils.matchPatternStart( pattern, path, true ) )
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long trusted( long lastModified )
+    {
+        return lastModified > scanStart - RACY_MILLIS ? UNKNOWN : lastModified;
+    }
+
+    private final class DirTask
+        extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final Path dir;
+
+        private final String relativePath;
+
+        private final Set<String> result;
+
+        DirTask( Path dir, String relativePath, Set<String> result )
+        {
+            this.dir = dir;
+            this.relativePath = relativePath;
+            this.result = result;
+        }
+
+        @Override
+        protected void compute()
+        {
+            try
+            {
+                scanDirectory();
+            }
+            catch ( NoSuchFileException e )
+            {
+                // deleted while scanning, or a source root that does not exist
+            }
+            catch ( IOException e )
+            {
+                throw new ScanException( e );
+            }
+        }
+
+        private void scanDirectory()
+            throws IOException
+        {
+            String key = dir.toAbsolutePath().toString();
+            long lastModified = Files.readAttributes( dir, BasicFileAttributes.class ).lastModifiedTime().toMillis();
+            Dir entries = oldDirs.get( key );
+            if ( entries == null || entries.lastModified == UNKNOWN || entries.lastModified != lastModified )
+            {
+                entries = list( lastModified );
+            }
+            dirs.put( key, new Dir( trusted( lastModified ), entries.files, entries.dirs ) );
+
+            List<DirTask> subdirs = new ArrayList<DirTask>();
+            for ( String name : entries.dirs )
+            {
+                String path = relativePath + name;
+                if ( couldHoldIncluded( path ) )
+                {
+                    subdirs.add( new DirTask( dir.resolve( name ), path + File.separator, result ) );
+                }
+            }
+            for ( String name : entries.files )
+            {
+                if ( isIncluded( relativePath + name ) )
+                {
+                    addFile( dir.resolve( name ) );
+                }
+            }
+            invokeAll( subdirs );
+        }
+
+        private Dir list( long lastModified )
+            throws IOException
+        {
+            List<String> fileNames = new ArrayList<String>();
+            List<String> dirNames = new ArrayList<String>();
+            try ( DirectoryStream<Path> stream = Files.newDirectoryStream( dir ) )
+            {
+                for ( Path entry : stream )
+                {
+                    if ( Files.isDirectory( entry ) )
+                    {
+                        dirNames.add( entry.getFileName().toString() );
+                    }
+                    else
+                    {
+                        fileNames.add( entry.getFileName().toString() );
+                    }
+                }
+            }
+            return new Dir( lastModified, fileNames.toArray( new String[fileNames.size()] ),
+                            dirNames.toArray( new String[dirNames.size()] ) );
+        }
+
+        private void addFile( Path file )
+            throws IOException
+        {
+            BasicFileAttributes attributes;
+            try
+            {
+                attributes = Files.readAttributes( file, BasicFileAttributes.class );
+            }
+            catch ( NoSuchFileException e )
+            {
+                return;
+            }
+            if ( !attributes.isRegularFile() )
+            {
+                return;
+            }
+            String path = file.toString();
+            String key = file.toAbsolutePath().toString();
+            long lastModified = attributes.lastModifiedTime().toMillis();
+            files.put( key, new Stamp( attributes.size(), trusted( lastModified ) ) );
+            Stamp old = oldFiles.get( key );
+            if ( old == null || !old.matches( new Stamp( attributes.size(), lastModified ) ) )
+            {
+                changed.add( path );
+            }
+            synchronized ( result )
+            {
+                result.add( path );
+            }
+        }
+    }
+
+    private void loadSnapshot()
+    {
+        if ( snapshotFile == null || !snapshotFile.isFile() )
+        {
+            return;
+        }
+        try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( snapshotFile ) ) ) )
+        {
+            if ( in.readInt() != FORMAT_VERSION )
+            {
+                return;
+            }
+            int dirCount = in.readInt();
+            for ( int i = 0; i < dirCount; i++ )
+            {
+                String path = in.readUTF();
+                long lastModified = in.readLong();
+                oldDirs.put( path, new Dir( lastModified, readNames( in ), readNames( in ) ) );
+            }
+            int fileCount = in.readInt();
+            for ( int i = 0; i < fileCount; i++ )
+            {
+                String path = in.readUTF();
+                oldFiles.put( path, new Stamp( in.readLong(), in.readLong() ) );
+            }
+            snapshotLoaded = true;
+        }
+        catch ( IOException e )
+        {
+            // A broken snapshot only costs a full scan
+            oldDirs.clear();
+            oldFiles.clear();
+        }
+    }
+
+    private static String[] readNames( DataInputStream in )
+        throws IOException
+    {
+        String[] names = new String[in.readInt()];
+        for ( int i = 0; i < names.length; i++ )
+        {
+            names[i] = in.readUTF();
+        }
+        return names;
+    }
+
+    private static void writeNames( DataOutputStream out, String[] names )
+        throws IOException
+    {
+        out.writeInt( names.length );
+        for ( String name : names )
+        {
+            out.writeUTF( name );
+        }
+    }
+
+    /**
+     * Save the state of the last scan as the new snapshot. Called after a successful
+     * compile, so the changed files are always relative to the last successful compile.
+     */
+    void saveSnapshot()
+        throws IOException
+    {
+        if ( snapshotFile == null || scanStart == 0 )
+        {
+            return;
+        }
+        File dir = snapshotFile.getParentFile();
+        dir.mkdirs();
+        File tmp = File.createTempFile( snapshotFile.getName(), ".tmp", dir );
+        try
+        {
+            try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmp ) ) ) )
+            {
+                out.writeInt( FORMAT_VERSION );
+                out.writeInt( dirs.size() );
+                for ( Map.Entry<String, Dir> e : dirs.entrySet() )
+                {
+                    out.writeUTF( e.getKey() );
+                    out.writeLong( e.getValue().lastModified );
+                    writeNames( out, e.getValue().files );
+                    writeNames( out, e.getValue().dirs );
+                }
+                out.writeInt( files.size() );
+                for ( Map.Entry<String, Stamp> e : files.entrySet() )
+                {
+                    out.writeUTF( e.getKey() );
+                    out.writeLong( e.getValue().size );
+                    out.writeLong( e.getValue().lastModified );
+                }
+            }
+            Files.move( tmp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE );
+        }
+        finally
+        {
+            tmp.delete();
+        }
+    }
+}
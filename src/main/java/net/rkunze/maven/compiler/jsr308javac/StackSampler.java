@@ -0,0 +1,191 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import org.codehaus.plexus.compiler.CompilerConfiguration;
+import org.codehaus.plexus.compiler.CompilerException;
+import org.codehaus.plexus.logging.Logger;
+
+/**
+ * Sampling profiler for the compiling thread.
+ * <p>
+ * Enabled with <code>-Xjsr308.profileInterval=&lt;milliseconds&gt;</code>. While a
+ * compile runs in-process, the stack of the compiling thread is sampled at that
+ * interval. The samples are written to <code>profile.collapsed</code> in the state
+ * directory in the collapsed stack format of flame graph tools (one line per stack,
+ * frames from the root separated by <code>;</code>, followed by the number of samples).
+ * Each stack starts with a frame naming the checker it is attributed to by
+ * {@link CheckerAttribution}, or <code>[javac]</code>, so a flame graph shows the
+ * time per checker at the top level.
+ * <p>
+ * Taking a stack trace stops the thread at a safepoint, so short intervals slow the
+ * compile down noticeably.
+ */
+final class StackSampler
+    implements Runnable
+{
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    private final long intervalMillis;
+
+    private final File profileFile;
+
+    private final CheckerAttribution attribution;
+
+    private final Map<String, Integer> stacks = new HashMap<String, Integer>();
+
+    private final Map<String, Integer> checkerSamples = new TreeMap<String, Integer>();
+
+    private Thread target;
+
+    private Thread sampler;
+
+    private volatile boolean stopped;
+
+    private int samples;
+
+    private StackSampler( long intervalMillis, File profileFile, CheckerAttribution attribution )
+    {
+        this.intervalMillis = intervalMillis;
+        this.profileFile = profileFile;
+        this.attribution = attribution;
+    }
+
+    /**
+     * @return the sampler, or <code>null</code> if profiling is disabled
+     */
+    static StackSampler create( CompilerConfiguration config, PluginOptions options )
+        throws CompilerException
+    {
+        long interval = options.getLong( "profileInterval", 0 );
+        if ( interval <= 0 )
+        {
+            return null;
+        }
+        return new StackSampler( interval, new File( options.getStateDirectory(), "profile.collapsed" ),
+                                 new CheckerAttribution( config.getAnnotationProcessors() ) );
+    }
+
+    /**
+     * Start sampling the current thread.
+     */
+    void start()
+    {
+        target = Thread.currentThread();
+        sampler = new Thread( this, "jsr308-profiler" );
+        sampler.setDaemon( true );
+        sampler.start();
+    }
+
+    public void run()
+    {
+        while ( !stopped )
+        {
+            try
+            {
+                Thread.sleep( intervalMillis );
+            }
+            catch ( InterruptedException e )
+            {
+                return;
+            }
+            StackTraceElement[] stack = target.getStackTrace();
+            if ( !stopped && stack.length > 0 )
+            {
+                record( stack );
+            }
+        }
+    }
+
+    private synchronized void record( StackTraceElement[] stack )
+    {
+        String checker = attribution.checkerFor( stack );
+        StringBuilder line = new StringBuilder( "[" ).append( checker ).append( ']' );
+        for ( int i = stack.length - 1; i >= 0; i-- )
+        {
+            line.append( ';' ).append( stack[i].getClassName() ).append( '.' ).append( stack[i].getMethodName() );
+        }
+        increment( stacks, line.toString() );
+        increment( checkerSamples, checker );
+        samples++;
+    }
+
+    private static void increment( Map<String, Integer> counts, String key )
+    {
+        Integer count = counts.get( key );
+        counts.put( key, count == null ? 1 : count + 1 );
+    }
+
+    /**
+     * Stop sampling, write the profile and log the share of each checker.
+     */
+    void stop( Logger logger )
+    {
+        stopped = true;
+        sampler.interrupt();
+        try
+        {
+            sampler.join();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+
+        List<String> lines = new ArrayList<String>();
+        StringBuilder summary = new StringBuilder();
+        synchronized ( this )
+        {
+            for ( Map.Entry<String, Integer> stack : new TreeMap<String, Integer>( stacks ).entrySet() )
+            {
+                lines.add( stack.getKey() + " " + stack.getValue() );
+            }
+            for ( Map.Entry<String, Integer> checker : checkerSamples.entrySet() )
+            {
+                summary.append( ", " ).append( checker.getKey() ).append( ' ' )
+                    .append( checker.getValue() * 100 / samples ).append( '%' );
+            }
+        }
+        try
+        {
+            profileFile.getParentFile().mkdirs();
+            Files.write( profileFile.toPath(), lines, UTF8 );
+        }
+        catch ( IOException e )
+        {
+            logger.warn( "Unable to write " + profileFile + ": " + e.getMessage() );
+            return;
+        }
+        logger.info( "Wrote " + samples + " stack samples of the compile to " + profileFile + summary );
+    }
+}
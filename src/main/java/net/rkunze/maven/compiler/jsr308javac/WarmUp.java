@@ -0,0 +1,208 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.codehaus.plexus.compiler.CompilerException;
+import org.codehaus.plexus.compiler.CompilerResult;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Creates the shared javac instance and compiles a small class with it in the
+ * background, so the first compile of a build finds javac loaded and partly
+ * JIT-compiled.
+ * <p>
+ * Enabled with the system property <code>jsr308.warmUp=true</code> (the compiler
+ * configuration is not known yet when the compiler is created), e.g. in
+ * <code>MAVEN_OPTS</code> or <code>.mvn/jvm.config</code>. It starts once per JVM when
+ * the compiler component is created, while Maven is still resolving dependencies and
+ * copying resources. <code>jsr308.warmUpCompiles</code> (default
+ * {@value #DEFAULT_COMPILES}) sets how often the class is compiled. Only compiles with
+ * the default reuse strategy (<code>reuseSame</code>) use the warmed instance. The
+ * warm-up compiles without annotation processors, so the checkers are still loaded by
+ * the first compile.
+ */
+final class WarmUp
+    implements Runnable
+{
+    static final String PROPERTY = "jsr308.warmUp";
+
+    static final String COMPILES_PROPERTY = "jsr308.warmUpCompiles";
+
+    static final int DEFAULT_COMPILES = 3;
+
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    private static final AtomicBoolean STARTED = new AtomicBoolean();
+
+    // A bit of everything javac does often: generics, inner classes, boxing, string switch
+    private static final String SOURCE = "import java.util.*;\n"
+        + "public class WarmUp<T extends Comparable<T>> implements Iterable<T> {\n"
+        + "    private final List<T> items = new ArrayList<T>();\n"
+        + "    @SafeVarargs public final WarmUp<T> add( T... values ) {\n"
+        + "        items.addAll( Arrays.asList( values ) ); return this; }\n"
+        + "    public Iterator<T> iterator() {\n"
+        + "        return new Iterator<T>() {\n"
+        + "            private int i;\n"
+        + "            public boolean hasNext() { return i < items.size(); }\n"
+        + "            public T next() { return items.get( i++ ); }\n"
+        + "            public void remove() { throw new UnsupportedOperationException(); } }; }\n"
+        + "    public static int sum( String mode ) {\n"
+        + "        int sum = 0;\n"
+        + "        for ( Integer i : new WarmUp<Integer>().add( 1, 2, 3 ) ) {\n"
+        + "            switch ( mode ) { case \"twice\": sum += 2 * i; break; default: sum += i; } }\n"
+        + "        return sum; }\n"
+        + "}\n";
+
+    private final JavacJSR308Compiler compiler;
+
+    private WarmUp( JavacJSR308Compiler compiler )
+    {
+        this.compiler = compiler;
+    }
+
+    /**
+     * Start the warm-up on a background thread, if it is enabled and has not run in
+     * this JVM yet.
+     */
+    static void startIfEnabled( JavacJSR308Compiler compiler )
+    {
+        if ( !Boolean.getBoolean( PROPERTY ) || !STARTED.compareAndSet( false, true ) )
+        {
+            return;
+        }
+        Thread thread = new Thread( new WarmUp( compiler ), "jsr308-warmup" );
+        thread.setDaemon( true );
+        thread.setPriority( Thread.NORM_PRIORITY - 1 );
+        thread.start();
+    }
+
+    public void run()
+    {
+        long start = System.nanoTime();
+        File dir = null;
+        try
+        {
+            Class<?> javacClass = compiler.getSharedJavacClass( false );
+
+            dir = Files.createTempDirectory( "jsr308-warmup" ).toFile();
+            int compiles = Integer.getInteger( COMPILES_PROPERTY, DEFAULT_COMPILES ).intValue();
+            Thread thread = Thread.currentThread();
+            ClassLoader contextClassLoader = thread.getContextClassLoader();
+            thread.setContextClassLoader( javacClass.getClassLoader() );
+            try
+            {
+                CompilerResult result = compile( javacClass, dir, compiles );
+                if ( !result.isSuccess() )
+                {
+                    debug( "javac warm-up failed: " + result.getCompilerMessages() );
+                    return;
+                }
+            }
+            finally
+            {
+                thread.setContextClassLoader( contextClassLoader );
+            }
+            debug( "javac warmed up in " + ( System.nanoTime() - start ) / 1000000L + " ms" );
+        }
+        catch ( CompilerException | IOException | RuntimeException e )
+        {
+            debug( "javac warm-up failed: " + e );
+        }
+        finally
+        {
+            if ( dir != null )
+            {
+                try
+                {
+                    FileUtils.deleteDirectory( dir );
+                }
+                catch ( IOException e )
+                {
+                    // only a temporary directory
+                }
+            }
+        }
+    }
+
+    /**
+     * Compile the warm-up class into <code>dir</code> <code>compiles</code> times.
+     *
+     * @return the result of the last compile, or of the first that failed
+     */
+    static CompilerResult compile( Class<?> javacClass, File dir, int compiles )
+        throws CompilerException, IOException
+    {
+        File source = new File( dir, "WarmUp.java" );
+        Files.write( source.toPath(), SOURCE.getBytes( UTF8 ) );
+        String[] args = { "-proc:none", "-nowarn", "-encoding", "UTF-8", "-Xbootclasspath/p:" + bootClasspath(),
+            "-d", dir.getAbsolutePath(), source.getAbsolutePath() };
+        CompilerResult result = new CompilerResult();
+        for ( int i = 0; i < compiles && result.isSuccess(); i++ )
+        {
+            result = JavacJSR308Compiler.compileInProcess0( javacClass, args, Collections.<String, Object>emptyMap(),
+                                                            new HashMap<String, Object>() );
+        }
+        return result;
+    }
+
+    /**
+     * @return the boot class path prefix of compiles with checkers, so the warm-up reads
+     * the same archives
+     */
+    private static String bootClasspath()
+    {
+        String compilerJar = ClasspathConfig.getCompilerJar().getAbsolutePath();
+        try
+        {
+            File annotatedJdk = ClasspathConfig.getAnnotatedJDK( System.getProperty( "java.version" ) );
+            if ( annotatedJdk.isFile() )
+            {
+                return annotatedJdk.getAbsolutePath() + File.pathSeparator + compilerJar;
+            }
+        }
+        catch ( CompilerException e )
+        {
+            // no annotated JDK for this Java version
+        }
+        return compilerJar;
+    }
+
+    private void debug( String message )
+    {
+        // The component gets its logger after it is created, usually long before this
+        Logger logger = compiler.logger();
+        if ( logger != null )
+        {
+            logger.debug( message );
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.codehaus.plexus.compiler.CompilerException;
+
+/**
+ * Command lines for {@link ShardWorker} processes: the java executable of the running
+ * JDK, with the JSR 308 compiler prepended to the boot classpath and the classes of
+ * this plugin on the classpath.
+ */
+final class WorkerCommand
+{
+    private static final String WORKER_CLASSNAME = "net.rkunze.maven.compiler.jsr308javac.ShardWorker";
+
+    private WorkerCommand()
+    {
+    }
+
+    /**
+     * @param maxHeap the maximum heap size, in the syntax of <code>-Xmx</code>, or
+     * <code>null</code> for the default of the JVM
+     * @param properties system properties for the worker
+     * @param workerArgs the arguments of {@link ShardWorker}
+     */
+    static List<String> create( String maxHeap, Map<String, String> properties, String... workerArgs )
+        throws CompilerException
+    {
+        List<String> command = new ArrayList<String>();
+        command.add( new File( new File( System.getProperty( "java.home" ), "bin" ), "java" ).getAbsolutePath() );
+        command.add( "-Xbootclasspath/p:" + ClasspathConfig.getCompilerJar().getAbsolutePath() );
+        for ( Map.Entry<String, String> property : properties.entrySet() )
+        {
+            command.add( "-D" + property.getKey() + "=" + property.getValue() );
+        }
+        if ( maxHeap != null )
+        {
+            command.add( "-Xmx" + maxHeap );
+        }
+        command.add( "-cp" );
+        command.add( workerClasspath() );
+        command.add( WORKER_CLASSNAME );
+        for ( String arg : workerArgs )
+        {
+            command.add( arg );
+        }
+        return command;
+    }
+
+    /**
+     * @return everything the process writes to its standard output, until it closes it
+     */
+    static String readOutput( Process process )
+        throws IOException
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try ( InputStream in = process.getInputStream() )
+        {
+            byte[] buffer = new byte[8192];
+            for ( int n = in.read( buffer ); n >= 0; n = in.read( buffer ) )
+            {
+                output.write( buffer, 0, n );
+            }
+        }
+        return output.toString();
+    }
+
+    private static String workerClasspath()
+        throws CompilerException
+    {
+        try
+        {
+            return new File( WorkerCommand.class.getProtectionDomain().getCodeSource().getLocation().toURI() )
+                .getAbsolutePath();
+        }
+        catch ( URISyntaxException e )
+        {
+            throw new CompilerException( "Unable to locate the classes of the worker process", e );
+        }
+    }
+}
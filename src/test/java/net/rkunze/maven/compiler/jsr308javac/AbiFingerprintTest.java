@@ -0,0 +1,144 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import junit.framework.TestCase;
+import org.codehaus.plexus.util.FileUtils;
+
+public class AbiFingerprintTest
+    extends TestCase
+{
+    private File workDir;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+        workDir = Files.createTempDirectory( "abi" ).toFile();
+    }
+
+    @Override
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( workDir );
+        super.tearDown();
+    }
+
+    private byte[] fingerprint( String name, String source )
+        throws Exception
+    {
+        File dir = new File( workDir, name );
+        dir.mkdirs();
+        File file = new File( dir, "Foo.java" );
+        FileUtils.fileWrite( file.getAbsolutePath(), "UTF-8", source );
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        assertEquals( 0, javac.run( null, null, null, "-g", "-d", dir.getAbsolutePath(), file.getAbsolutePath() ) );
+        return AbiFingerprint.classFingerprint( Files.readAllBytes( new File( dir, "Foo.class" ).toPath() ) );
+    }
+
+    public void testMethodBodiesAreIgnored()
+        throws Exception
+    {
+        byte[] a = fingerprint( "a", "public class Foo { public int f() { return 1; } }" );
+        byte[] b = fingerprint( "b", "public class Foo {\n\n public int f() { int x = 2; return x; } }" );
+        assertTrue( Arrays.equals( a, b ) );
+    }
+
+    public void testPrivateMembersAreIgnored()
+        throws Exception
+    {
+        byte[] a = fingerprint( "a", "public class Foo { public void f() {} }" );
+        byte[] b = fingerprint( "b", "public class Foo { private int x; public void f() {} private void g() {} }" );
+        assertTrue( Arrays.equals( a, b ) );
+    }
+
+    public void testMemberOrderIsIgnored()
+        throws Exception
+    {
+        byte[] a = fingerprint( "a", "public class Foo { public void f() {} public void g() {} }" );
+        byte[] b = fingerprint( "b", "public class Foo { public void g() {} public void f() {} }" );
+        assertTrue( Arrays.equals( a, b ) );
+    }
+
+    public void testSignatureChangesAreDetected()
+        throws Exception
+    {
+        byte[] a = fingerprint( "a", "public class Foo { public void f() {} }" );
+        byte[] b = fingerprint( "b", "public class Foo { public void f( int x ) {} }" );
+        assertFalse( Arrays.equals( a, b ) );
+    }
+
+    public void testAnnotationChangesAreDetected()
+        throws Exception
+    {
+        byte[] a = fingerprint( "a", "public class Foo { public void f() {} }" );
+        byte[] b = fingerprint( "b", "public class Foo { @Deprecated public void f() {} }" );
+        assertFalse( Arrays.equals( a, b ) );
+    }
+
+    public void testConstantChangesAreDetected()
+        throws Exception
+    {
+        byte[] a = fingerprint( "a", "public class Foo { public static final int X = 1; }" );
+        byte[] b = fingerprint( "b", "public class Foo { public static final int X = 2; }" );
+        assertFalse( Arrays.equals( a, b ) );
+    }
+
+    public void testPackagePrivateClassHasNoAbi()
+        throws Exception
+    {
+        assertNull( fingerprint( "a", "class Foo { public void f() {} }" ) );
+    }
+
+    public void testCorruptAttributeLengthIsAnIOException()
+        throws Exception
+    {
+        File dir = new File( workDir, "corrupt" );
+        dir.mkdirs();
+        File file = new File( dir, "Foo.java" );
+        FileUtils.fileWrite( file.getAbsolutePath(), "UTF-8", "public class Foo {}" );
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        assertEquals( 0, javac.run( null, null, null, "-d", dir.getAbsolutePath(), file.getAbsolutePath() ) );
+        byte[] bytes = Files.readAllBytes( new File( dir, "Foo.class" ).toPath() );
+        // The class ends with its SourceFile attribute, make it claim more bytes than there are
+        bytes[bytes.length - 5] = 0x7f;
+        try
+        {
+            AbiFingerprint.classFingerprint( bytes );
+            fail( "corrupt class file accepted" );
+        }
+        catch ( IOException e )
+        {
+            assertEquals( "Invalid class file", e.getMessage() );
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import junit.framework.TestCase;
+import org.codehaus.plexus.compiler.CompilerConfiguration;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.codehaus.plexus.util.FileUtils;
+
+public class AbiStubsTest
+    extends TestCase
+{
+    private File workDir;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+        workDir = Files.createTempDirectory( "abi-stubs" ).toFile();
+    }
+
+    @Override
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( workDir );
+        super.tearDown();
+    }
+
+    private File jar( String source, String... extraEntries )
+        throws Exception
+    {
+        File dir = new File( workDir, "lib" );
+        dir.mkdirs();
+        File file = new File( dir, "Lib.java" );
+        FileUtils.fileWrite( file.getAbsolutePath(), "UTF-8", source );
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        assertEquals( 0, javac.run( null, null, null, "-g", "-d", dir.getAbsolutePath(), file.getAbsolutePath() ) );
+        File jar = new File( workDir, "lib.jar" );
+        try ( ZipOutputStream out = new ZipOutputStream( new FileOutputStream( jar ) ) )
+        {
+            out.putNextEntry( new ZipEntry( "Lib.class" ) );
+            out.write( Files.readAllBytes( new File( dir, "Lib.class" ).toPath() ) );
+            for ( String name : extraEntries )
+            {
+                out.putNextEntry( new ZipEntry( name ) );
+                out.write( "x".getBytes( "UTF-8" ) );
+            }
+        }
+        return jar;
+    }
+
+    public void testStubDropsMethodBodiesButCompiles()
+        throws Exception
+    {
+        File jar = jar( "public class Lib { public static final int X = 1;"
+            + " public static int f( int a ) { int b = a * 2; return b + X; } }", "lib.properties" );
+        File stub = new File( workDir, "stub.jar" );
+        assertTrue( AbiStubs.writeStub( jar, stub.toPath() ) );
+
+        try ( ZipFile original = new ZipFile( jar ); ZipFile stripped = new ZipFile( stub ) )
+        {
+            assertTrue( stripped.getEntry( "Lib.class" ).getSize() < original.getEntry( "Lib.class" ).getSize() );
+            assertNotNull( stripped.getEntry( "lib.properties" ) );
+            byte[] bytes = new byte[(int) stripped.getEntry( "Lib.class" ).getSize()];
+            new DataInputStream( stripped.getInputStream( stripped.getEntry( "Lib.class" ) ) ).readFully( bytes );
+            byte[] originalBytes = new byte[(int) original.getEntry( "Lib.class" ).getSize()];
+            new DataInputStream( original.getInputStream( original.getEntry( "Lib.class" ) ) )
+                .readFully( originalBytes );
+            assertTrue( Arrays.equals( AbiFingerprint.classFingerprint( originalBytes ),
+                                       AbiFingerprint.classFingerprint( bytes ) ) );
+        }
+
+        File source = new File( workDir, "Main.java" );
+        FileUtils.fileWrite( source.getAbsolutePath(), "UTF-8", "class Main { int x = Lib.f( Lib.X ); }" );
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        assertEquals( 0, javac.run( null, null, null, "-cp", stub.getAbsolutePath(), "-d", workDir.getAbsolutePath(),
+                                    source.getAbsolutePath() ) );
+    }
+
+    public void testJarsWithProcessorsAreNotStubbed()
+        throws Exception
+    {
+        File jar = jar( "public class Lib {}", "META-INF/services/javax.annotation.processing.Processor" );
+        File stub = new File( workDir, "stub.jar" );
+        assertFalse( AbiStubs.writeStub( jar, stub.toPath() ) );
+        assertFalse( stub.exists() );
+    }
+
+    public void testApplyKeepsHashesAndRewritesDeletedStubs()
+        throws Exception
+    {
+        File jar = jar( "public class Lib { public static int f() { return 1; } }" );
+        File cache = new File( workDir, "cache" );
+        CompilerConfiguration config = new CompilerConfiguration();
+        config.addClasspathEntry( jar.getPath() );
+        config.addCompilerCustomArgument( "-Xjsr308.abiStubs", "true" );
+        config.addCompilerCustomArgument( "-Xjsr308.cacheDir", cache.getAbsolutePath() );
+        AbiStubs stubs = AbiStubs.create( config, PluginOptions.of( config ) );
+        Logger logger = new ConsoleLogger( ConsoleLogger.LEVEL_DISABLED, "test" );
+        String[] args = { "-classpath", jar.getPath() };
+
+        String[] stubbed = stubs.apply( args, logger );
+        File stub = new File( stubbed[1] );
+        assertTrue( stub.isFile() );
+        assertEquals( jar.getPath(), AbiStubs.originalOf( stub.getAbsolutePath() ) );
+        assertEquals( Arrays.asList( "-processorpath", jar.getPath() ),
+                      Arrays.asList( stubbed ).subList( 2, 4 ) );
+        assertTrue( new File( cache, "content-index.bin" ).isFile() );
+
+        assertEquals( stub.getAbsolutePath(), stubs.apply( args, logger )[1] );
+        assertTrue( stub.delete() );
+        assertEquals( stub.getAbsolutePath(), stubs.apply( args, logger )[1] );
+        assertTrue( stub.isFile() );
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import junit.framework.TestCase;
+import org.codehaus.plexus.compiler.CompilerConfiguration;
+import org.codehaus.plexus.compiler.CompilerResult;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.codehaus.plexus.util.FileUtils;
+
+public class AsyncCompileTest
+    extends TestCase
+{
+    private final List<Runnable> queued = new ArrayList<Runnable>();
+
+    private final Executor executor = new Executor()
+    {
+        public void execute( Runnable command )
+        {
+            queued.add( command );
+        }
+    };
+
+    private File workDir;
+
+    private JavacJSR308Compiler compiler;
+
+    private CompilerConfiguration config;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+        workDir = Files.createTempDirectory( "async" ).toFile();
+        compiler = new JavacJSR308Compiler();
+        compiler.enableLogging( new ConsoleLogger( ConsoleLogger.LEVEL_DISABLED, "test" ) );
+        config = new CompilerConfiguration();
+        config.setOutputLocation( new File( workDir, "classes" ).getAbsolutePath() );
+        File sources = new File( workDir, "src" );
+        assertTrue( sources.mkdir() );
+        config.addSourceLocation( sources.getAbsolutePath() );
+    }
+
+    @Override
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( workDir );
+        super.tearDown();
+    }
+
+    public void testRunsOnTheExecutor()
+        throws Exception
+    {
+        Future<CompilerResult> future = compiler.performCompileAsync( config, executor, null );
+        assertFalse( future.isDone() );
+        assertEquals( 1, queued.size() );
+
+        queued.get( 0 ).run();
+        assertTrue( future.isDone() );
+        assertTrue( future.get().isSuccess() );
+        assertNull( AsyncCompile.current() );
+    }
+
+    public void testProgressReachesTheListener()
+    {
+        final List<String> analyzed = new ArrayList<String>();
+        AsyncCompile async = new AsyncCompile( new CompileListener()
+        {
+            public void compileStarted( int sourceFiles )
+            {
+            }
+
+            public void unitAnalyzed( String sourceFile )
+            {
+                analyzed.add( sourceFile );
+            }
+        } );
+        Map<String, Object> settings = new HashMap<String, Object>();
+        async.addSettings( settings );
+
+        @SuppressWarnings( "unchecked" )
+        Collection<String> progress = (Collection<String>) settings.get( JavacTaskRunner.PROGRESS );
+        assertTrue( progress.add( "A.java" ) );
+        assertTrue( progress.add( "B.java" ) );
+        assertEquals( Arrays.asList( "A.java", "B.java" ), analyzed );
+    }
+
+    public void testCancelledCompileDoesNotRun()
+        throws Exception
+    {
+        Future<CompilerResult> future = compiler.performCompileAsync( config, executor, null );
+        assertTrue( future.cancel( true ) );
+        queued.get( 0 ).run();
+        assertTrue( future.isCancelled() );
+        assertFalse( new File( workDir, "classes" ).exists() );
+    }
+}
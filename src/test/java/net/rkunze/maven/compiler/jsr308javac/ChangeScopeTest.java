@@ -0,0 +1,158 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+import junit.framework.TestCase;
+import org.codehaus.plexus.compiler.CompilerConfiguration;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.codehaus.plexus.util.FileUtils;
+
+public class ChangeScopeTest
+    extends TestCase
+{
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    private static final String[] ARGS = { "-d", "target/classes" };
+
+    private File workDir;
+
+    private File sourceDir;
+
+    private CompilerConfiguration config;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+        workDir = Files.createTempDirectory( "change-scope" ).toFile();
+        sourceDir = new File( workDir, "src" );
+        sourceDir.mkdirs();
+        config = new CompilerConfiguration();
+        config.setSourceLocations( Collections.singletonList( sourceDir.getAbsolutePath() ) );
+    }
+
+    @Override
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( workDir );
+        super.tearDown();
+    }
+
+    public void testDisabledByDefault()
+    {
+        assertNull( create() );
+    }
+
+    public void testChecksEverythingWithoutSnapshot()
+        throws Exception
+    {
+        config.addCompilerCustomArgument( "-Xjsr308.checkChangedSince", ChangeScope.LAST_BUILD );
+        assertSame( ARGS, create().addOnlyDefs( ARGS, null ) );
+    }
+
+    public void testChecksEverythingOutsideGit()
+        throws Exception
+    {
+        config.addCompilerCustomArgument( "-Xjsr308.checkChangedSince", "HEAD" );
+        assertSame( ARGS, create().addOnlyDefs( ARGS, null ) );
+    }
+
+    public void testChecksClassesChangedSinceRevision()
+        throws Exception
+    {
+        write( "p/A.java", "package p; class A {}" );
+        write( "p/Unchanged.java", "package p; class Unchanged {}" );
+        git( "init", "-q" );
+        git( "add", "." );
+        git( "-c", "user.name=test", "-c", "user.email=test@example.com", "commit", "-q", "-m", "initial" );
+        write( "p/A.java", "package p; class A {} class Extra {}" );
+        write( "p/New.java", "package p; class New {}" );
+
+        config.addCompilerCustomArgument( "-Xjsr308.checkChangedSince", "HEAD" );
+        Pattern pattern = onlyDefs( create().addOnlyDefs( ARGS, null ) );
+        assertTrue( pattern.matcher( "p.A" ).find() );
+        assertTrue( pattern.matcher( "p.Extra" ).find() );
+        assertTrue( pattern.matcher( "p.New" ).find() );
+        assertFalse( pattern.matcher( "p.Unchanged" ).find() );
+
+        config.addCompilerCustomArgument( DefsPattern.ONLY_DEFS, "New" );
+        pattern = onlyDefs( create().addOnlyDefs( ARGS, null ) );
+        assertFalse( pattern.matcher( "p.A" ).find() );
+        assertTrue( pattern.matcher( "p.New" ).find() );
+    }
+
+    public void testChecksNothingWithoutChanges()
+        throws Exception
+    {
+        write( "p/A.java", "package p; class A {}" );
+        git( "init", "-q" );
+        git( "add", "." );
+        git( "-c", "user.name=test", "-c", "user.email=test@example.com", "commit", "-q", "-m", "initial" );
+
+        config.addCompilerCustomArgument( "-Xjsr308.checkChangedSince", "HEAD" );
+        assertFalse( onlyDefs( create().addOnlyDefs( ARGS, null ) ).matcher( "p.A" ).find() );
+    }
+
+    private ChangeScope create()
+    {
+        return ChangeScope.create( config, PluginOptions.of( config ),
+                                   new ConsoleLogger( ConsoleLogger.LEVEL_DISABLED, "test" ) );
+    }
+
+    private static Pattern onlyDefs( String[] args )
+    {
+        List<String> list = Arrays.asList( args );
+        assertEquals( ARGS.length + 1, list.size() );
+        String option = list.get( list.size() - 1 );
+        assertTrue( option, option.startsWith( DefsPattern.ONLY_DEFS + "=" ) );
+        return Pattern.compile( option.substring( DefsPattern.ONLY_DEFS.length() + 1 ) );
+    }
+
+    private void write( String path, String content )
+        throws Exception
+    {
+        File file = new File( sourceDir, path );
+        file.getParentFile().mkdirs();
+        Files.write( file.toPath(), content.getBytes( UTF8 ) );
+    }
+
+    private void git( String... args )
+        throws Exception
+    {
+        String[] command = new String[args.length + 1];
+        command[0] = "git";
+        System.arraycopy( args, 0, command, 1, args.length );
+        Process process = new ProcessBuilder( command ).directory( sourceDir ).inheritIO().start();
+        assertEquals( 0, process.waitFor() );
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import junit.framework.TestCase;
+import org.codehaus.plexus.compiler.CompilerConfiguration;
+import org.codehaus.plexus.compiler.CompilerException;
+import org.codehaus.plexus.compiler.CompilerMessage;
+import org.codehaus.plexus.compiler.CompilerResult;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.codehaus.plexus.util.FileUtils;
+
+public class CheckerBudgetTest
+    extends TestCase
+{
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    private static final String[] ARGS = { "-d", "target/classes" };
+
+    private static final Logger LOGGER = new ConsoleLogger( ConsoleLogger.LEVEL_DISABLED, "test" );
+
+    private File workDir;
+
+    private File sourceDir;
+
+    private CompilerConfiguration config;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+        workDir = Files.createTempDirectory( "budget" ).toFile();
+        sourceDir = new File( workDir, "src" );
+        config = new CompilerConfiguration();
+        config.setSourceLocations( Collections.singletonList( sourceDir.getAbsolutePath() ) );
+        config.setOutputLocation( new File( workDir, "classes" ).getAbsolutePath() );
+        config.addCompilerCustomArgument( "-Xjsr308.stateDir", new File( workDir, "state" ).getAbsolutePath() );
+    }
+
+    @Override
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( workDir );
+        super.tearDown();
+    }
+
+    public void testDisabledByDefault()
+        throws Exception
+    {
+        assertNull( create() );
+    }
+
+    public void testRejectsUnknownAction()
+    {
+        config.addCompilerCustomArgument( "-Xjsr308.unitTimeBudget", "100" );
+        config.addCompilerCustomArgument( "-Xjsr308.budgetAction", "ignore" );
+        try
+        {
+            create();
+            fail( "unknown action accepted" );
+        }
+        catch ( CompilerException e )
+        {
+            assertTrue( e.getMessage(), e.getMessage().contains( "budgetAction" ) );
+        }
+    }
+
+    public void testCancelFailsTheCompile()
+        throws Exception
+    {
+        config.addCompilerCustomArgument( "-Xjsr308.unitTimeBudget", "100" );
+        CheckerBudget budget = create();
+        Map<String, Object> settings = new HashMap<String, Object>();
+        budget.addSettings( settings );
+        assertEquals( 100L, settings.get( JavacTaskRunner.UNIT_TIME_BUDGET ) );
+        assertEquals( Boolean.TRUE, settings.get( JavacTaskRunner.CANCEL_OVER_BUDGET ) );
+
+        Map<String, Object> results = overBudget( "A.java" );
+        results.put( JavacTaskRunner.CANCELLED, Boolean.TRUE );
+        CompilerResult result = new CompilerResult();
+        budget.report( results, result, LOGGER );
+
+        assertFalse( result.isSuccess() );
+        CompilerMessage message = result.getCompilerMessages().get( 0 );
+        assertEquals( CompilerMessage.Kind.ERROR, message.getKind() );
+        assertTrue( message.getMessage(), message.getMessage().contains( "compile cancelled" ) );
+        assertSame( ARGS, budget.addSkipDefs( ARGS ) );
+    }
+
+    public void testRunawayUnitIsAWarning()
+        throws Exception
+    {
+        config.addCompilerCustomArgument( "-Xjsr308.unitTimeBudget", "100" );
+        Map<String, Object> results = overBudget( "A.java" );
+        results.put( JavacTaskRunner.CANCEL_IGNORED, Boolean.TRUE );
+        CompilerResult result = new CompilerResult();
+        create().report( results, result, LOGGER );
+
+        assertTrue( result.isSuccess() );
+        CompilerMessage message = result.getCompilerMessages().get( 0 );
+        assertEquals( CompilerMessage.Kind.WARNING, message.getKind() );
+        assertTrue( message.getMessage(), message.getMessage().contains( "could not be cancelled" ) );
+    }
+
+    public void testSkipExcludesTheFileFromTheNextCompile()
+        throws Exception
+    {
+        File source = new File( sourceDir, "p/A.java" );
+        source.getParentFile().mkdirs();
+        FileUtils.fileWrite( source.getAbsolutePath(), "UTF-8", "package p; class A {}" );
+        config.addCompilerCustomArgument( "-Xjsr308.unitTimeBudget", "100" );
+        config.addCompilerCustomArgument( "-Xjsr308.budgetAction", "skip" );
+        CheckerBudget budget = create();
+        assertSame( ARGS, budget.addSkipDefs( ARGS ) );
+
+        CompilerResult result = new CompilerResult();
+        budget.report( overBudget( source.getAbsolutePath() ), result, LOGGER );
+        assertTrue( result.isSuccess() );
+        assertEquals( CompilerMessage.Kind.WARNING, result.getCompilerMessages().get( 0 ).getKind() );
+        assertEquals( Arrays.asList( source.getAbsolutePath() ),
+                      Files.readAllLines( new File( workDir, "state/skipped-units.txt" ).toPath(), UTF8 ) );
+
+        List<String> args = Arrays.asList( create().addSkipDefs( ARGS ) );
+        assertEquals( ARGS.length + 1, args.size() );
+        String skipDefs = args.get( ARGS.length );
+        assertTrue( skipDefs, skipDefs.startsWith( DefsPattern.SKIP_DEFS + "=" ) );
+        Pattern pattern = Pattern.compile( skipDefs.substring( DefsPattern.SKIP_DEFS.length() + 1 ) );
+        assertTrue( pattern.matcher( "p.A" ).find() );
+        assertFalse( pattern.matcher( "p.B" ).find() );
+    }
+
+    private CheckerBudget create()
+        throws CompilerException
+    {
+        return CheckerBudget.create( config, PluginOptions.of( config ) );
+    }
+
+    private static Map<String, Object> overBudget( String file )
+    {
+        Map<String, Object> results = new HashMap<String, Object>();
+        results.put( JavacTaskRunner.OVER_BUDGET,
+                     Collections.singletonList( new String[]{ file, CheckerAttribution.JAVAC, "150" } ) );
+        return results;
+    }
+}
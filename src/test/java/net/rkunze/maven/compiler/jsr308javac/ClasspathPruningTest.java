@@ -0,0 +1,230 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import junit.framework.TestCase;
+import org.codehaus.plexus.compiler.CompilerConfiguration;
+import org.codehaus.plexus.compiler.CompilerException;
+import org.codehaus.plexus.compiler.CompilerMessage;
+import org.codehaus.plexus.compiler.CompilerResult;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.StringUtils;
+
+public class ClasspathPruningTest
+    extends TestCase
+{
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    private static final Logger LOGGER = new ConsoleLogger( ConsoleLogger.LEVEL_DISABLED, "test" );
+
+    private File workDir;
+
+    private String used;
+
+    private String unused;
+
+    private String processors;
+
+    private String compilerJar;
+
+    private CompilerConfiguration config;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+        workDir = Files.createTempDirectory( "classpath-pruning" ).toFile();
+        used = jar( "used.jar", "p/A.class" );
+        unused = jar( "unused.jar", "q/B.class" );
+        processors = jar( "processors.jar", "META-INF/services/javax.annotation.processing.Processor" );
+        compilerJar = jar( "checker.jar", "r/C.class" );
+        config = new CompilerConfiguration();
+        config.setClasspathEntries( Arrays.asList( unused, processors, used ) );
+        config.addCompilerCustomArgument( "-Xjsr308.stateDir", new File( workDir, "state" ).getAbsolutePath() );
+    }
+
+    @Override
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( workDir );
+        super.tearDown();
+    }
+
+    public void testDisabledByDefault()
+        throws Exception
+    {
+        assertNull( ClasspathPruning.create( config, PluginOptions.of( config ) ) );
+    }
+
+    public void testRejectsUnknownMode()
+    {
+        config.addCompilerCustomArgument( "-Xjsr308.classpathPruning", "sometimes" );
+        try
+        {
+            ClasspathPruning.create( config, PluginOptions.of( config ) );
+            fail();
+        }
+        catch ( CompilerException e )
+        {
+            assertTrue( e.getMessage(), e.getMessage().contains( "classpathPruning: sometimes" ) );
+        }
+    }
+
+    public void testLeavesClasspathAloneWithoutRecordedUsage()
+        throws Exception
+    {
+        String[] args = args();
+        assertSame( args, create( "prune" ).apply( args, LOGGER ) );
+    }
+
+    public void testReordersUsedEntriesFirst()
+        throws Exception
+    {
+        record( create( "reorder" ), true, used );
+
+        ClasspathPruning pruning = create( "reorder" );
+        assertEquals( Arrays.asList( compilerJar, used, unused, processors ),
+                      classpath( pruning.apply( args(), LOGGER ) ) );
+        assertNull( pruning.getFullArguments() );
+    }
+
+    public void testPrunesUnusedEntriesButKeepsProcessors()
+        throws Exception
+    {
+        record( create( "prune" ), true, used );
+
+        ClasspathPruning pruning = create( "prune" );
+        String[] args = args();
+        assertEquals( Arrays.asList( compilerJar, used, processors ), classpath( pruning.apply( args, LOGGER ) ) );
+        assertSame( args, pruning.getFullArguments() );
+    }
+
+    public void testKeepsJarsWithConfiguredProcessors()
+        throws Exception
+    {
+        config.setAnnotationProcessors( new String[]{ "q.B" } );
+        record( create( "prune" ), true, used );
+
+        assertEquals( Arrays.asList( compilerJar, used, unused, processors ),
+                      classpath( create( "prune" ).apply( args(), LOGGER ) ) );
+    }
+
+    public void testRecordsUsageOfSuccessfulCompilesOnly()
+        throws Exception
+    {
+        record( create( "prune" ), true, used );
+        record( create( "prune" ), false, unused );
+
+        assertEquals( Collections.singletonList( used ),
+                      Files.readAllLines( new File( workDir, "state/classpath-usage.txt" ).toPath(), UTF8 ) );
+    }
+
+    public void testRetriesResolutionErrorsOfPrunedCompiles()
+        throws Exception
+    {
+        record( create( "prune" ), true, used );
+        ClasspathPruning pruning = create( "prune" );
+        pruning.apply( args(), LOGGER );
+
+        assertFalse( pruning.shouldRetry( result( true, "cannot find symbol" ) ) );
+        assertFalse( pruning.shouldRetry( result( false, "incompatible types" ) ) );
+        assertTrue( pruning.shouldRetry( result( false, "cannot find symbol\n  symbol: class B" ) ) );
+        assertTrue( pruning.shouldRetry( result( false, "package q does not exist" ) ) );
+        assertTrue( pruning.shouldRetry( result( false, "Annotation processor 'q.B' not found" ) ) );
+
+        ClasspathPruning reorder = create( "reorder" );
+        reorder.apply( args(), LOGGER );
+        assertFalse( reorder.shouldRetry( result( false, "cannot find symbol" ) ) );
+    }
+
+    private ClasspathPruning create( String mode )
+        throws Exception
+    {
+        CompilerConfiguration modeConfig = new CompilerConfiguration();
+        modeConfig.setClasspathEntries( config.getClasspathEntries() );
+        modeConfig.setAnnotationProcessors( config.getAnnotationProcessors() );
+        for ( Map.Entry<String, String> arg : config.getCustomCompilerArgumentsAsMap().entrySet() )
+        {
+            modeConfig.addCompilerCustomArgument( arg.getKey(), arg.getValue() );
+        }
+        modeConfig.addCompilerCustomArgument( "-Xjsr308.classpathPruning", mode );
+        return ClasspathPruning.create( modeConfig, PluginOptions.of( modeConfig ) );
+    }
+
+    private String[] args()
+    {
+        List<String> classpath = Arrays.asList( compilerJar, unused, processors, used );
+        return new String[]{ "-d", "classes", "-classpath",
+            StringUtils.join( classpath.iterator(), File.pathSeparator ), "A.java" };
+    }
+
+    private static List<String> classpath( String[] args )
+    {
+        assertEquals( "-classpath", args[2] );
+        return Arrays.asList( args[3].split( File.pathSeparator ) );
+    }
+
+    private static void record( ClasspathPruning pruning, boolean success, String... entries )
+        throws Exception
+    {
+        Map<String, Object> results = new HashMap<String, Object>();
+        results.put( JavacTaskRunner.USED_CLASSPATH, Arrays.asList( entries ) );
+        results.put( JavacTaskRunner.CLASSPATH_LIST_TIME, 0L );
+        pruning.recordUsage( results, new CompilerResult().success( success ), LOGGER );
+    }
+
+    private static CompilerResult result( boolean success, String error )
+    {
+        CompilerMessage message = new CompilerMessage( "A.java", CompilerMessage.Kind.ERROR, 1, 1, 1, 1, error );
+        return new CompilerResult( success, Collections.singletonList( message ) );
+    }
+
+    private String jar( String name, String entry )
+        throws Exception
+    {
+        File jar = new File( workDir, name );
+        try ( ZipOutputStream out = new ZipOutputStream( new FileOutputStream( jar ) ) )
+        {
+            out.putNextEntry( new ZipEntry( entry ) );
+            out.write( 'x' );
+            out.closeEntry();
+        }
+        return jar.getAbsolutePath();
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import junit.framework.TestCase;
+import org.codehaus.plexus.util.FileUtils;
+
+public class ClasspathUsageRecorderTest
+    extends TestCase
+{
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    private File workDir;
+
+    private File jar;
+
+    private File directory;
+
+    private StandardJavaFileManager standardFileManager;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+        workDir = Files.createTempDirectory( "classpath-usage" ).toFile();
+        jar = new File( workDir, "lib.jar" );
+        try ( ZipOutputStream out = new ZipOutputStream( new FileOutputStream( jar ) ) )
+        {
+            out.putNextEntry( new ZipEntry( "p/A.class" ) );
+            out.write( 'x' );
+            out.closeEntry();
+        }
+        directory = new File( workDir, "classes" );
+        new File( directory, "q" ).mkdirs();
+        Files.write( new File( directory, "q/B.class" ).toPath(), new byte[]{ 'x' } );
+        File unused = new File( workDir, "unused" );
+        new File( unused, "r" ).mkdirs();
+        Files.write( new File( unused, "r/C.class" ).toPath(), new byte[]{ 'x' } );
+
+        standardFileManager = ToolProvider.getSystemJavaCompiler().getStandardFileManager( null, null, UTF8 );
+        standardFileManager.setLocation( StandardLocation.CLASS_PATH, Arrays.asList( unused, jar, directory ) );
+    }
+
+    @Override
+    protected void tearDown()
+        throws Exception
+    {
+        standardFileManager.close();
+        FileUtils.deleteDirectory( workDir );
+        super.tearDown();
+    }
+
+    public void testRecordsEntriesClassesAreReadFrom()
+        throws Exception
+    {
+        ClasspathUsageRecorder recorder = new ClasspathUsageRecorder( standardFileManager, standardFileManager );
+
+        read( recorder, "q" );
+        read( recorder, "p" );
+        read( recorder, "q" );
+        assertEquals( Arrays.asList( directory.getPath(), jar.getPath() ), recorder.getUsedEntries() );
+        assertTrue( recorder.getListMillis() >= 0 );
+    }
+
+    public void testListingAloneIsNoUse()
+        throws Exception
+    {
+        ClasspathUsageRecorder recorder = new ClasspathUsageRecorder( standardFileManager, standardFileManager );
+
+        for ( JavaFileObject file : list( recorder, "r" ) )
+        {
+            assertEquals( "r.C", recorder.inferBinaryName( StandardLocation.CLASS_PATH, file ) );
+        }
+        assertEquals( Collections.emptyList(), recorder.getUsedEntries() );
+    }
+
+    private static Iterable<JavaFileObject> list( ClasspathUsageRecorder recorder, String packageName )
+        throws Exception
+    {
+        return recorder.list( StandardLocation.CLASS_PATH, packageName, EnumSet.of( JavaFileObject.Kind.CLASS ),
+                              false );
+    }
+
+    private static void read( ClasspathUsageRecorder recorder, String packageName )
+        throws Exception
+    {
+        int count = 0;
+        for ( JavaFileObject file : list( recorder, packageName ) )
+        {
+            try ( InputStream in = file.openInputStream() )
+            {
+                assertEquals( 'x', in.read() );
+            }
+            count++;
+        }
+        assertEquals( 1, count );
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import junit.framework.TestCase;
+import org.codehaus.plexus.compiler.CompilerConfiguration;
+import org.codehaus.plexus.compiler.CompilerResult;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.codehaus.plexus.util.FileUtils;
+
+public class CompileAvoidanceTest
+    extends TestCase
+{
+    private static final Logger LOGGER = new ConsoleLogger( ConsoleLogger.LEVEL_DISABLED, "test" );
+
+    private File workDir;
+
+    private File outputDir;
+
+    private String[] sourceFiles;
+
+    private CompilerConfiguration config;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+        workDir = Files.createTempDirectory( "compile-avoidance" ).toFile();
+        outputDir = new File( workDir, "classes" );
+        outputDir.mkdirs();
+        File source = new File( workDir, "src/A.java" );
+        source.getParentFile().mkdirs();
+        Files.write( source.toPath(), "class A {}".getBytes( Charset.forName( "UTF-8" ) ) );
+        sourceFiles = new String[]{ source.getAbsolutePath() };
+
+        config = new CompilerConfiguration();
+        config.setOutputLocation( outputDir.getAbsolutePath() );
+        config.setClasspathEntries( Collections.singletonList( outputDir.getAbsolutePath() ) );
+        config.addCompilerCustomArgument( "-Xjsr308.compileAvoidance", "true" );
+        config.addCompilerCustomArgument( "-Xjsr308.stateDir", new File( workDir, "state" ).getAbsolutePath() );
+        config.addCompilerCustomArgument( "-Xjsr308.cacheDir", new File( workDir, "cache" ).getAbsolutePath() );
+    }
+
+    @Override
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( workDir );
+        super.tearDown();
+    }
+
+    public void testOutputDirectoryOnClasspathDoesNotPreventAvoidance()
+        throws Exception
+    {
+        CompileAvoidance first = create();
+        assertNull( first.upToDateResult() );
+        writeClass( "A.class" );
+        first.recordResult( new CompilerResult() );
+
+        assertNotNull( create().upToDateResult() );
+
+        writeClass( "B.class" );
+        assertNull( create().upToDateResult() );
+    }
+
+    public void testSourceChangesPreventAvoidance()
+        throws Exception
+    {
+        CompileAvoidance first = create();
+        writeClass( "A.class" );
+        first.recordResult( new CompilerResult() );
+
+        Files.write( new File( sourceFiles[0] ).toPath(), "class A { }".getBytes( Charset.forName( "UTF-8" ) ) );
+        assertNull( create().upToDateResult() );
+    }
+
+    private CompileAvoidance create()
+    {
+        String[] args = { "-d", outputDir.getAbsolutePath(), "-classpath", outputDir.getAbsolutePath(),
+            sourceFiles[0] };
+        return CompileAvoidance.create( config, PluginOptions.of( config ), LOGGER,
+                                        Arrays.copyOf( args, args.length ), sourceFiles, ".class" );
+    }
+
+    private void writeClass( String name )
+        throws Exception
+    {
+        try ( InputStream in = getClass().getResourceAsStream( getClass().getSimpleName() + ".class" ) )
+        {
+            Files.copy( in, new File( outputDir, name ).toPath(), StandardCopyOption.REPLACE_EXISTING );
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+import org.codehaus.plexus.compiler.CompilerConfiguration;
+import org.codehaus.plexus.compiler.CompilerMessage;
+import org.codehaus.plexus.compiler.CompilerResult;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.codehaus.plexus.util.FileUtils;
+
+public class CompileTimeHistoryTest
+    extends TestCase
+{
+    public void testMedianPerSourceOfModule()
+    {
+        List<String> lines = Arrays.asList( CompileTimeHistory.HEADER,
+                                            "1,10,1000,100,checker.jar,target/classes",
+                                            "2,20,3000,100,checker.jar,target/classes",
+                                            "3,5,5000,100,checker.jar,other/target/classes",
+                                            "4,10,1200,100,checker.jar,target/classes" );
+
+        assertEquals( 120.0, CompileTimeHistory.baselineMillisPerSource( lines, "target/classes", 10 ), 0.001 );
+    }
+
+    public void testOnlyLastRunsCount()
+    {
+        List<String> lines = Arrays.asList( "1,1,900,0,c,m", "2,1,100,0,c,m", "3,1,200,0,c,m", "4,1,300,0,c,m",
+                                            "5,1,400,0,c,m" );
+
+        assertEquals( 300.0, CompileTimeHistory.baselineMillisPerSource( lines, "m", 3 ), 0.001 );
+        assertEquals( 250.0, CompileTimeHistory.baselineMillisPerSource( lines, "m", 4 ), 0.001 );
+    }
+
+    public void testTooFewRuns()
+    {
+        List<String> lines = Arrays.asList( "1,1,100,0,c,m", "2,1,200,0,c,m" );
+
+        assertEquals( 0.0, CompileTimeHistory.baselineMillisPerSource( lines, "m", 10 ), 0.001 );
+    }
+
+    public void testRegressionsDoNotMoveTheBaseline()
+        throws Exception
+    {
+        Charset utf8 = Charset.forName( "UTF-8" );
+        File workDir = Files.createTempDirectory( "time-history" ).toFile();
+        try
+        {
+            CompilerConfiguration config = new CompilerConfiguration();
+            config.setWorkingDirectory( workDir );
+            config.setOutputLocation( new File( workDir, "target/classes" ).getAbsolutePath() );
+            config.addCompilerCustomArgument( "-Xjsr308.regressionThreshold", "50" );
+            File historyFile = new File( workDir, "jsr308-history.csv" );
+            List<String> lines = new ArrayList<String>( Arrays.asList( CompileTimeHistory.HEADER,
+                                                                       "1,1,100,1,c,target/classes",
+                                                                       "2,1,100,1,c,target/classes",
+                                                                       "3,1,100,1,c,target/classes" ) );
+            Files.write( historyFile.toPath(), lines, utf8 );
+            CompileTimeHistory history = CompileTimeHistory.create( config, PluginOptions.of( config ) );
+            ConsoleLogger logger = new ConsoleLogger( ConsoleLogger.LEVEL_DISABLED, "test" );
+
+            CompilerResult slow = new CompilerResult();
+            history.record( slow, 1, 1000, 64L << 20, logger );
+            assertTrue( slow.isSuccess() );
+            assertEquals( CompilerMessage.Kind.WARNING, slow.getCompilerMessages().get( 0 ).getKind() );
+            assertEquals( lines, Files.readAllLines( historyFile.toPath(), utf8 ) );
+
+            history.record( new CompilerResult(), 1, 120, 64L << 20, logger );
+            List<String> recorded = Files.readAllLines( historyFile.toPath(), utf8 );
+            assertEquals( lines.size() + 1, recorded.size() );
+            assertTrue( recorded.get( lines.size() ), recorded.get( lines.size() ).matches( "\\d+,1,120,64,.*" ) );
+        }
+        finally
+        {
+            FileUtils.deleteDirectory( workDir );
+        }
+    }
+}
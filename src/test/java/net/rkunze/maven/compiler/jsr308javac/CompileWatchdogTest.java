@@ -0,0 +1,135 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import com.sun.source.util.TaskEvent;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import junit.framework.TestCase;
+
+public class CompileWatchdogTest
+    extends TestCase
+{
+    private static final long BUDGET_MILLIS = 10;
+
+    public void testCancelsAtTheNextTaskEvent()
+        throws Exception
+    {
+        CompileWatchdog watchdog = start( true );
+        watchdog.started( event( "A.java" ) );
+        awaitOffender( watchdog );
+        try
+        {
+            watchdog.finished( event( "A.java" ) );
+            fail( "compile not cancelled" );
+        }
+        catch ( CancellationException e )
+        {
+            // expected
+        }
+        watchdog.finish();
+
+        assertTrue( watchdog.isCancelled() );
+        assertFalse( watchdog.isCancelIgnored() );
+        List<String[]> offenders = watchdog.getOffenders();
+        assertEquals( 1, offenders.size() );
+        assertEquals( "/A.java", offenders.get( 0 )[0] );
+        assertEquals( CheckerAttribution.JAVAC, offenders.get( 0 )[1] );
+    }
+
+    public void testRunawayUnitIsOnlyReported()
+        throws Exception
+    {
+        CompileWatchdog watchdog = start( true );
+        watchdog.started( event( "A.java" ) );
+        awaitOffender( watchdog );
+        // No task event until the end, as with a checker that is stuck in one class
+        watchdog.finish();
+
+        assertFalse( watchdog.isCancelled() );
+        assertTrue( watchdog.isCancelIgnored() );
+        assertEquals( 1, watchdog.getOffenders().size() );
+    }
+
+    public void testSkipDoesNotCancel()
+        throws Exception
+    {
+        CompileWatchdog watchdog = start( false );
+        watchdog.started( event( "A.java" ) );
+        awaitOffender( watchdog );
+        watchdog.finished( event( "A.java" ) );
+        watchdog.started( event( "B.java" ) );
+        watchdog.finish();
+
+        assertFalse( watchdog.isCancelled() );
+        assertFalse( watchdog.isCancelIgnored() );
+        assertEquals( "/A.java", watchdog.getOffenders().get( 0 )[0] );
+        assertTrue( watchdog.getUnitTimesMillis().get( "/A.java" ) >= BUDGET_MILLIS );
+    }
+
+    public void testUnlimitedWithoutBudget()
+        throws Exception
+    {
+        CompileWatchdog watchdog =
+            new CompileWatchdog( Thread.currentThread(), 0, true, new CheckerAttribution( null ) );
+        watchdog.start();
+        watchdog.started( event( "A.java" ) );
+        Thread.sleep( 2 * BUDGET_MILLIS );
+        watchdog.finished( event( "A.java" ) );
+        watchdog.finish();
+
+        assertTrue( watchdog.getOffenders().isEmpty() );
+        assertTrue( watchdog.getUnitTimesMillis().containsKey( "/A.java" ) );
+    }
+
+    private static CompileWatchdog start( boolean cancel )
+    {
+        CompileWatchdog watchdog =
+            new CompileWatchdog( Thread.currentThread(), BUDGET_MILLIS, cancel, new CheckerAttribution( null ) );
+        watchdog.start();
+        return watchdog;
+    }
+
+    private static void awaitOffender( CompileWatchdog watchdog )
+        throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 10000;
+        while ( watchdog.getOffenders().isEmpty() )
+        {
+            assertTrue( "no unit over budget", System.currentTimeMillis() < deadline );
+            Thread.sleep( 10 );
+        }
+    }
+
+    private static TaskEvent event( String file )
+    {
+        JavaFileObject source = new SimpleJavaFileObject( URI.create( "string:///" + file ), JavaFileObject.Kind.SOURCE )
+        {
+        };
+        return new TaskEvent( TaskEvent.Kind.ANALYZE, source );
+    }
+}
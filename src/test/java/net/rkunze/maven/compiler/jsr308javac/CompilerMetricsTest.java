@@ -0,0 +1,96 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import junit.framework.TestCase;
+
+public class CompilerMetricsTest
+    extends TestCase
+{
+    public void testPercentiles()
+    {
+        CompilerMetrics metrics = new CompilerMetrics();
+        for ( int i = 1; i <= 10; i++ )
+        {
+            metrics.compiled( i * 100, i != 10 );
+        }
+
+        assertEquals( 10, metrics.getCompileCount() );
+        assertEquals( 1, metrics.getFailedCompileCount() );
+        assertEquals( 5500, metrics.getTotalCompileTimeMillis() );
+        assertEquals( 500, metrics.getRecentCompileTimeMedianMillis() );
+        assertEquals( 900, metrics.getRecentCompileTime90thPercentileMillis() );
+        assertEquals( 1000, metrics.getRecentCompileTime99thPercentileMillis() );
+        assertEquals( 511, metrics.getCompileTimeMedianMillis() );
+        assertEquals( 1023, metrics.getCompileTime99thPercentileMillis() );
+    }
+
+    public void testRecentWindow()
+    {
+        CompilerMetrics metrics = new CompilerMetrics();
+        for ( int i = 0; i < CompilerMetrics.RECENT_COMPILES; i++ )
+        {
+            metrics.compiled( 5000, true );
+        }
+        for ( int i = 0; i < CompilerMetrics.RECENT_COMPILES; i++ )
+        {
+            metrics.compiled( 10, true );
+        }
+
+        assertEquals( 10, metrics.getRecentCompileTime99thPercentileMillis() );
+        assertEquals( 8191, metrics.getCompileTime99thPercentileMillis() );
+    }
+
+    public void testReadableThroughJmx()
+        throws Exception
+    {
+        CompilerMetrics metrics = new CompilerMetrics();
+        metrics.javacClass( true );
+        metrics.diagnosticsParsed( 42 );
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        ObjectName name = new ObjectName( CompilerMetrics.OBJECT_NAME );
+        server.registerMBean( metrics, name );
+
+        assertEquals( 1L, server.getAttribute( name, "JavacClassHits" ) );
+        assertEquals( 42L, server.getAttribute( name, "DiagnosticCharactersParsed" ) );
+    }
+
+    public void testReplacesEarlierRegistration()
+        throws Exception
+    {
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        CompilerMetrics first = new CompilerMetrics();
+        first.register( server );
+        CompilerMetrics second = new CompilerMetrics();
+        second.diagnosticsParsed( 7 );
+        second.register( server );
+
+        ObjectName name = new ObjectName( CompilerMetrics.OBJECT_NAME );
+        assertEquals( 1, server.queryNames( new ObjectName( name.getDomain() + ":*" ), null ).size() );
+        assertEquals( 7L, server.getAttribute( name, "DiagnosticCharactersParsed" ) );
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.regex.Pattern;
+import junit.framework.TestCase;
+import org.codehaus.plexus.compiler.CompilerConfiguration;
+import org.codehaus.plexus.util.FileUtils;
+
+public class DefsPatternTest
+    extends TestCase
+{
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    private File workDir;
+
+    private File sourceDir;
+
+    private CompilerConfiguration config;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+        workDir = Files.createTempDirectory( "defs-pattern" ).toFile();
+        sourceDir = new File( workDir, "src" );
+        config = new CompilerConfiguration();
+        config.setSourceLocations( Collections.singletonList( sourceDir.getAbsolutePath() ) );
+        config.setSourceEncoding( "UTF-8" );
+    }
+
+    @Override
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( workDir );
+        super.tearDown();
+    }
+
+    public void testMatchesAllTopLevelClassesOfTheFiles()
+        throws Exception
+    {
+        File a = write( "p/A.java", "package p;\n"
+            + "/* class NotInComment {} */\n"
+            + "@Deprecated(since = \"class NotInString\")\n"
+            + "public class A<T> { class Inner {} Object o = A.class; }\n"
+            + "// interface NotInLineComment\n"
+            + "final class Helper { enum Nested { X } }\n"
+            + "@interface Marker {}\n" );
+
+        assertEquals( Arrays.asList( "p.A", "p.Helper", "p.Marker" ),
+                      DefsPattern.classNamesOf( config, a.getAbsolutePath() ) );
+
+        Pattern pattern = Pattern.compile( DefsPattern.forFiles( config, Collections.singleton( a.getPath() ) ) );
+        assertTrue( pattern.matcher( "p.A" ).find() );
+        assertTrue( pattern.matcher( "p.A.Inner" ).find() );
+        assertTrue( pattern.matcher( "p.Helper" ).find() );
+        assertTrue( pattern.matcher( "p.Helper.Nested" ).find() );
+        assertTrue( pattern.matcher( "p.Marker" ).find() );
+        assertFalse( pattern.matcher( "p.AB" ).find() );
+        assertFalse( pattern.matcher( "p.NotInComment" ).find() );
+        assertFalse( pattern.matcher( "q.A" ).find() );
+    }
+
+    public void testFallsBackToTheFileName()
+        throws Exception
+    {
+        File missing = new File( sourceDir, "p/Gone.java" );
+        assertEquals( Collections.singletonList( "p.Gone" ),
+                      DefsPattern.classNamesOf( config, missing.getAbsolutePath() ) );
+
+        File outside = new File( workDir, "other/B.java" );
+        assertEquals( Collections.emptyList(), DefsPattern.classNamesOf( config, outside.getAbsolutePath() ) );
+        assertNull( DefsPattern.forFiles( config, Collections.singleton( outside.getAbsolutePath() ) ) );
+    }
+
+    public void testConfigured()
+    {
+        assertNull( DefsPattern.configured( config, DefsPattern.SKIP_DEFS ) );
+        config.addCompilerCustomArgument( DefsPattern.SKIP_DEFS + "=^generated\\.", null );
+        assertEquals( "^generated\\.", DefsPattern.configured( config, DefsPattern.SKIP_DEFS ) );
+        config.addCompilerCustomArgument( DefsPattern.ONLY_DEFS, "^p\\." );
+        assertEquals( "^p\\.", DefsPattern.configured( config, DefsPattern.ONLY_DEFS ) );
+    }
+
+    private File write( String path, String content )
+        throws Exception
+    {
+        File file = new File( sourceDir, path );
+        file.getParentFile().mkdirs();
+        Files.write( file.toPath(), content.getBytes( UTF8 ) );
+        return file;
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import junit.framework.TestCase;
+import org.codehaus.plexus.compiler.CompilerConfiguration;
+import org.codehaus.plexus.compiler.CompilerMessage;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.codehaus.plexus.util.FileUtils;
+
+public class DiagnosticsReportTest
+    extends TestCase
+{
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    private File workDir;
+
+    private final List<CompilerMessage> messages = Arrays.asList(
+        new CompilerMessage( "/src/A.java", CompilerMessage.Kind.ERROR, 3, 9, 3, 12,
+                             "[dereference.of.nullable] dereference of possibly-null reference \"s\"" ),
+        new CompilerMessage( "/src/B.java", CompilerMessage.Kind.WARNING, 7, 0, 7, 0, "unchecked\tcall" ) );
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+        workDir = Files.createTempDirectory( "diagnostics" ).toFile();
+    }
+
+    @Override
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( workDir );
+        super.tearDown();
+    }
+
+    private String write( String format )
+        throws Exception
+    {
+        CompilerConfiguration config = new CompilerConfiguration();
+        config.addCompilerCustomArgument( "-Xjsr308.stateDir", workDir.getAbsolutePath() );
+        config.addCompilerCustomArgument( "-Xjsr308.diagnosticsReport", format );
+        DiagnosticsReport.create( PluginOptions.of( config ) ).write( messages, new ConsoleLogger( 0, "test" ) );
+        return new String( Files.readAllBytes( new File( workDir, "diagnostics." + format ).toPath() ), UTF8 );
+    }
+
+    public void testJsonLines()
+        throws Exception
+    {
+        String[] lines = write( "jsonl" ).split( "\n" );
+        assertEquals( 2, lines.length );
+        assertEquals( "{\"file\":\"/src/A.java\",\"severity\":\"error\",\"key\":\"dereference.of.nullable\","
+            + "\"message\":\"[dereference.of.nullable] dereference of possibly-null reference \\\"s\\\"\","
+            + "\"region\":{\"startLine\":3,\"startColumn\":10,\"endLine\":3,\"endColumn\":13}}", lines[0] );
+        assertEquals( "{\"file\":\"/src/B.java\",\"severity\":\"warning\",\"key\":null,\"message\":\"unchecked\\tcall\","
+            + "\"region\":{\"startLine\":7,\"startColumn\":1,\"endLine\":7,\"endColumn\":1}}", lines[1] );
+    }
+
+    public void testSarif()
+        throws Exception
+    {
+        String sarif = write( "sarif" );
+        assertTrue( sarif.startsWith( "{\"version\":\"2.1.0\"" ) );
+        assertTrue( sarif.contains( "{\"ruleId\":\"dereference.of.nullable\",\"level\":\"error\"" ) );
+        assertTrue( sarif.contains( "\"region\":{\"startLine\":3,\"startColumn\":10,\"endLine\":3,\"endColumn\":13}" ) );
+        assertTrue( sarif.contains( "{\"level\":\"warning\"" ) );
+        assertTrue( sarif.endsWith( "]}]}\n" ) );
+    }
+
+    private String compile( File source, Map<String, Object> settings, Map<String, Object> results )
+    {
+        StringWriter out = new StringWriter();
+        JavacTaskRunner.compile( new String[] { "-Xlint:all", "-d", workDir.getAbsolutePath(), source.getPath() },
+                                 new PrintWriter( out ), settings, results );
+        return out.toString();
+    }
+
+    public void testStreamedByTheTaskRunner()
+        throws Exception
+    {
+        File source = new File( workDir, "A.java" );
+        FileUtils.fileWrite( source.getAbsolutePath(), "UTF-8", "class A {\n    java.util.List l;\n"
+            + "    void f() { Thread.currentThread().stop(); }\n}\n" );
+        String plain = compile( source, Collections.<String, Object>singletonMap( JavacTaskRunner.MAX_ERRORS, 100 ),
+                                new HashMap<String, Object>() );
+
+        File report = new File( workDir, "diagnostics.jsonl" );
+        Map<String, Object> settings = new HashMap<String, Object>();
+        settings.put( JavacTaskRunner.DIAGNOSTICS_REPORT, report.getAbsolutePath() );
+        Map<String, Object> results = new HashMap<String, Object>();
+        assertEquals( plain, compile( source, settings, results ) );
+        assertEquals( 2, results.get( JavacTaskRunner.DIAGNOSTICS_REPORTED ) );
+        assertFalse( results.containsKey( JavacTaskRunner.DIAGNOSTICS_REPORT_ERROR ) );
+
+        List<String> lines = Files.readAllLines( report.toPath(), UTF8 );
+        assertEquals( 2, lines.size() );
+        assertTrue( lines.get( 0 ), lines.get( 0 ).startsWith( "{\"file\":\"" + source.getAbsolutePath()
+            + "\",\"severity\":\"warning\",\"key\":\"rawtypes\"," ) );
+        assertTrue( lines.get( 0 ), lines.get( 0 ).endsWith( "\"region\":{\"startLine\":2,\"startColumn\":5,"
+            + "\"endLine\":2,\"endColumn\":19}}" ) );
+        assertTrue( lines.get( 1 ), lines.get( 1 ).contains( "\"key\":\"deprecation\"" ) );
+    }
+
+    public void testStreamedByAForkedWorker()
+        throws Exception
+    {
+        File source = new File( workDir, "A.java" );
+        FileUtils.fileWrite( source.getAbsolutePath(), "UTF-8", "class A { java.util.List l; }\n" );
+        File args = new File( workDir, "args" );
+        Files.write( args.toPath(), Arrays.asList( "-Xlint:all", "-d", workDir.getAbsolutePath(), source.getPath() ),
+                     UTF8 );
+        File report = new File( workDir, "diagnostics.sarif" );
+
+        // Like WorkerCommand, the worker has the plugin classes, but none of its dependencies
+        String classpath = new File( ShardWorker.class.getProtectionDomain().getCodeSource().getLocation().toURI() )
+            .getAbsolutePath();
+        File tools = new File( System.getProperty( "java.home" ), "../lib/tools.jar" );
+        if ( tools.isFile() )
+        {
+            classpath += File.pathSeparator + tools.getAbsolutePath();
+        }
+        Process process = new ProcessBuilder(
+            new File( new File( System.getProperty( "java.home" ), "bin" ), "java" ).getAbsolutePath(),
+            "-D" + ShardWorker.DIAGNOSTICS_REPORT_PROPERTY + "=" + report.getAbsolutePath(), "-cp", classpath,
+            ShardWorker.class.getName(), args.getAbsolutePath(), new File( workDir, "times" ).getAbsolutePath() )
+            .redirectErrorStream( true ).start();
+        String output = WorkerCommand.readOutput( process );
+        assertEquals( output, 0, process.waitFor() );
+
+        String sarif = new String( Files.readAllBytes( report.toPath() ), UTF8 );
+        assertTrue( sarif, sarif.contains( "{\"ruleId\":\"rawtypes\",\"level\":\"warning\"" ) );
+        assertTrue( sarif, sarif.endsWith( "]}]}\n" ) );
+    }
+
+    public void testKey()
+    {
+        assertEquals( "deprecation", DiagnosticsWriter.key( "[deprecation] Foo has been deprecated" ) );
+        assertEquals( "nullness:argument", DiagnosticsWriter.key( "[nullness:argument] incompatible argument" ) );
+        assertNull( DiagnosticsWriter.key( "[11,45] not a statement" ) );
+        assertNull( DiagnosticsWriter.key( "cannot find symbol" ) );
+        assertNull( DiagnosticsWriter.key( "[see below] something" ) );
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import junit.framework.TestCase;
+
+public class ExecutionStrategyTest
+    extends TestCase
+{
+    private static final long MB = ExecutionStrategy.MB;
+
+    public void testEstimateWithoutHistory()
+    {
+        long javac = ExecutionStrategy.estimate( 100, 80 * MB, 0, false, null );
+        long checked = ExecutionStrategy.estimate( 100, 80 * MB, 2, true, null );
+
+        assertEquals( ExecutionStrategy.BASE_HEAP + 25 * MB + 10 * MB, javac );
+        assertEquals( javac + 100 * MB + 32 * MB, checked );
+    }
+
+    public void testEstimateScalesHistory()
+    {
+        long[] history = { 100, ExecutionStrategy.BASE_HEAP + 200 * MB };
+
+        assertEquals( ExecutionStrategy.BASE_HEAP + 400 * MB,
+                      ExecutionStrategy.estimate( 200, 80 * MB, 2, true, history ) );
+        assertEquals( ExecutionStrategy.BASE_HEAP + 100 * MB,
+                      ExecutionStrategy.estimate( 50, 0, 0, false, history ) );
+    }
+}
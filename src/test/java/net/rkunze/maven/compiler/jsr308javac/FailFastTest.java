@@ -0,0 +1,161 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import junit.framework.TestCase;
+import org.codehaus.plexus.compiler.CompilerConfiguration;
+import org.codehaus.plexus.compiler.CompilerMessage;
+import org.codehaus.plexus.compiler.CompilerResult;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.codehaus.plexus.util.FileUtils;
+
+public class FailFastTest
+    extends TestCase
+{
+    private static final Logger LOGGER = new ConsoleLogger( ConsoleLogger.LEVEL_DISABLED, "test" );
+
+    private File workDir;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+        workDir = Files.createTempDirectory( "fail-fast" ).toFile();
+    }
+
+    @Override
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( workDir );
+        super.tearDown();
+    }
+
+    public void testDisabledByDefault()
+        throws Exception
+    {
+        assertNull( create( null ) );
+        assertNull( create( "0" ) );
+    }
+
+    public void testReachedAtTheLimitOfErrors()
+        throws Exception
+    {
+        FailFast failFast = create( "2" );
+        List<CompilerMessage> messages = new ArrayList<CompilerMessage>();
+        messages.add( message( CompilerMessage.Kind.ERROR ) );
+        messages.add( message( CompilerMessage.Kind.WARNING ) );
+        messages.add( message( CompilerMessage.Kind.WARNING ) );
+        assertFalse( failFast.isReached( messages ) );
+
+        messages.add( message( CompilerMessage.Kind.ERROR ) );
+        assertTrue( failFast.isReached( messages ) );
+    }
+
+    public void testStoppedFailsTheResult()
+        throws Exception
+    {
+        CompilerResult result = new CompilerResult();
+        create( "1" ).stopped( result, "Checking", LOGGER );
+
+        assertFalse( result.isSuccess() );
+        CompilerMessage message = result.getCompilerMessages().get( 0 );
+        assertEquals( CompilerMessage.Kind.ERROR, message.getKind() );
+        assertEquals( "Checking stopped after 1 error (-Xjsr308.maxErrors)", message.getMessage() );
+    }
+
+    public void testReportsTheLimitReachedByTheTaskRunner()
+        throws Exception
+    {
+        FailFast failFast = create( "3" );
+        Map<String, Object> results = new HashMap<String, Object>();
+        results.put( JavacTaskRunner.ERROR_LIMIT_REACHED, Boolean.FALSE );
+        CompilerResult result = new CompilerResult();
+        failFast.report( results, result, LOGGER );
+        assertTrue( result.getCompilerMessages().isEmpty() );
+
+        results.put( JavacTaskRunner.ERROR_LIMIT_REACHED, Boolean.TRUE );
+        failFast.report( results, result, LOGGER );
+        assertEquals( "Compile stopped after 3 errors (-Xjsr308.maxErrors)",
+                      result.getCompilerMessages().get( 0 ).getMessage() );
+    }
+
+    public void testCompileStopsAtTheLimit()
+        throws Exception
+    {
+        List<String> args = new ArrayList<String>( Arrays.asList( "-d", workDir.getAbsolutePath() ) );
+        for ( String name : new String[]{ "A", "B", "C", "D", "E" } )
+        {
+            File source = new File( workDir, name + ".java" );
+            FileUtils.fileWrite( source.getAbsolutePath(), "UTF-8", "class " + name + " { int i = \"\"; }\n" );
+            args.add( source.getPath() );
+        }
+
+        Map<String, Object> settings = new HashMap<String, Object>();
+        create( "2" ).addSettings( settings );
+        Map<String, Object> results = new HashMap<String, Object>();
+        StringWriter out = new StringWriter();
+        int exitCode = JavacTaskRunner.compile( args.toArray( new String[args.size()] ), new PrintWriter( out ),
+                                                settings, results );
+
+        assertEquals( 1, exitCode );
+        assertEquals( Boolean.TRUE, results.get( JavacTaskRunner.ERROR_LIMIT_REACHED ) );
+        int errors = 0;
+        for ( CompilerMessage message : JavacJSR308Compiler.parseOutput( exitCode, out.toString() ) )
+        {
+            if ( message.getKind() == CompilerMessage.Kind.ERROR )
+            {
+                errors++;
+            }
+        }
+        assertEquals( out.toString(), 2, errors );
+    }
+
+    private static FailFast create( String maxErrors )
+        throws Exception
+    {
+        CompilerConfiguration config = new CompilerConfiguration();
+        if ( maxErrors != null )
+        {
+            config.addCompilerCustomArgument( "-Xjsr308.maxErrors", maxErrors );
+        }
+        return FailFast.create( PluginOptions.of( config ) );
+    }
+
+    private static CompilerMessage message( CompilerMessage.Kind kind )
+    {
+        return new CompilerMessage( "A.java", kind, 1, 1, 1, 1, "message" );
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import junit.framework.TestCase;
+import org.codehaus.plexus.util.FileUtils;
+
+public class FingerprinterTest
+    extends TestCase
+{
+    private File workDir;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+        workDir = Files.createTempDirectory( "fingerprint" ).toFile();
+    }
+
+    @Override
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( workDir );
+        super.tearDown();
+    }
+
+    public void testMappedHashMatchesPlainHash()
+        throws Exception
+    {
+        byte[] content = new byte[3 * 1024 * 1024 + 17];
+        new Random( 42 ).nextBytes( content );
+        File file = new File( workDir, "big.bin" );
+        Files.write( file.toPath(), content );
+        assertTrue( Arrays.equals( Hashes.newDigest().digest( content ), Fingerprinter.hashFile( file.toPath() ) ) );
+    }
+
+    public void testIndexKeepsOnlyEntriesSeenByThisRun()
+        throws Exception
+    {
+        File used = new File( workDir, "used.jar" );
+        File gone = new File( workDir, "gone.jar" );
+        FileUtils.fileWrite( used.getAbsolutePath(), "UTF-8", "used" );
+        FileUtils.fileWrite( gone.getAbsolutePath(), "UTF-8", "gone" );
+        File first = new File( workDir, "first.bin" );
+        FingerprintIndex index = FingerprintIndex.forFile( first );
+        index.put( used, used.length(), used.lastModified(), "1" );
+        index.put( gone, gone.length(), gone.lastModified(), "2" );
+        index.save();
+
+        // Index files are shared per JVM, a copy stands in for the next build
+        File second = new File( workDir, "second.bin" );
+        Files.copy( first.toPath(), second.toPath() );
+        FingerprintIndex next = FingerprintIndex.forFile( second );
+        assertEquals( 2, next.size() );
+        assertEquals( "1", next.get( used ) );
+        next.save();
+
+        File third = new File( workDir, "third.bin" );
+        Files.copy( second.toPath(), third.toPath() );
+        FingerprintIndex pruned = FingerprintIndex.forFile( third );
+        assertEquals( 1, pruned.size() );
+        assertEquals( "1", pruned.get( used ) );
+    }
+}
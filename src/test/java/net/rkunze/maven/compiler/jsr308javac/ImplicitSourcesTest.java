@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import junit.framework.TestCase;
+import org.codehaus.plexus.compiler.CompilerConfiguration;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.codehaus.plexus.util.FileUtils;
+
+public class ImplicitSourcesTest
+    extends TestCase
+{
+    private static final Logger LOGGER = new ConsoleLogger( ConsoleLogger.LEVEL_DISABLED, "test" );
+
+    private File workDir;
+
+    private File output;
+
+    private CompilerConfiguration config;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+        workDir = Files.createTempDirectory( "implicit-sources" ).toFile();
+        output = new File( workDir, "classes" );
+        new File( output, "p" ).mkdirs();
+        config = new CompilerConfiguration();
+        config.setOutputLocation( output.getAbsolutePath() );
+        config.setSourceFiles( Collections.singleton( new File( workDir, "src/p/A.java" ) ) );
+        config.addCompilerCustomArgument( "-Xjsr308.implicitSources", "classes" );
+    }
+
+    @Override
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( workDir );
+        super.tearDown();
+    }
+
+    public void testResourcesAloneKeepTheSourcepath()
+        throws Exception
+    {
+        FileUtils.fileWrite( new File( output, "p/messages.properties" ).getAbsolutePath(), "UTF-8", "a=b" );
+
+        List<String> args = apply();
+        assertTrue( args.contains( "-sourcepath" ) );
+        assertTrue( args.contains( "-implicit:none" ) );
+    }
+
+    public void testClassesOfAnEarlierCompileReplaceTheSourcepath()
+        throws Exception
+    {
+        FileUtils.fileWrite( new File( output, "p/messages.properties" ).getAbsolutePath(), "UTF-8", "a=b" );
+        FileUtils.fileWrite( new File( output, "p/B.class" ).getAbsolutePath(), "UTF-8", "" );
+
+        List<String> args = apply();
+        assertFalse( args.contains( "-sourcepath" ) );
+        assertEquals( "lib.jar" + File.pathSeparator + output.getAbsolutePath(),
+                      args.get( args.indexOf( "-classpath" ) + 1 ) );
+    }
+
+    private List<String> apply()
+        throws Exception
+    {
+        String[] args = { "-d", output.getAbsolutePath(), "-classpath", "lib.jar", "-sourcepath",
+            new File( workDir, "src" ).getAbsolutePath(), "p/A.java" };
+        return Arrays.asList( ImplicitSources.apply( config, PluginOptions.of( config ), args, ".class", LOGGER ) );
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.file.Files;
+import junit.framework.TestCase;
+import org.codehaus.plexus.util.FileUtils;
+
+public class JavacLoaderCacheTest
+    extends TestCase
+{
+    private File workDir;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+        workDir = Files.createTempDirectory( "javac-loaders" ).toFile();
+    }
+
+    @Override
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( workDir );
+        super.tearDown();
+    }
+
+    public void testKeyChangesWithTheJars()
+        throws Exception
+    {
+        File jar = new File( workDir, "compiler.jar" );
+        FileUtils.fileWrite( jar.getAbsolutePath(), "UTF-8", "a" );
+        URL[] urls = { jar.toURI().toURL() };
+        String key = JavacLoaderCache.key( urls );
+        assertEquals( key, JavacLoaderCache.key( urls ) );
+
+        FileUtils.fileWrite( jar.getAbsolutePath(), "UTF-8", "ab" );
+        assertFalse( key.equals( JavacLoaderCache.key( urls ) ) );
+        assertFalse( key.equals( JavacLoaderCache.key( new URL[] { new File( workDir, "other.jar" ).toURI().toURL(),
+            jar.toURI().toURL() } ) ) );
+    }
+
+    public void testReplacesTheInstanceWhenTheJarsChange()
+    {
+        JavacLoaderCache.put( "test-a", String.class );
+        assertSame( String.class, JavacLoaderCache.get( "test-a" ) );
+        assertFalse( JavacLoaderCache.put( "test-a", String.class ) );
+
+        assertTrue( JavacLoaderCache.put( "test-b", Integer.class ) );
+        assertSame( Integer.class, JavacLoaderCache.get( "test-b" ) );
+        assertNull( JavacLoaderCache.get( "test-a" ) );
+    }
+}
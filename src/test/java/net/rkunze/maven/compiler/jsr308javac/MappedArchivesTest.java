@@ -0,0 +1,154 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import junit.framework.TestCase;
+import org.codehaus.plexus.util.FileUtils;
+
+public class MappedArchivesTest
+    extends TestCase
+{
+    private File workDir;
+
+    private StandardJavaFileManager standardFileManager;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+        workDir = Files.createTempDirectory( "mapped-archives" ).toFile();
+        standardFileManager = ToolProvider.getSystemJavaCompiler().getStandardFileManager( null, null, null );
+    }
+
+    @Override
+    protected void tearDown()
+        throws Exception
+    {
+        standardFileManager.close();
+        FileUtils.deleteDirectory( workDir );
+        super.tearDown();
+    }
+
+    public void testReadsStoredAndDeflatedEntries()
+        throws Exception
+    {
+        File jar = new File( workDir, "a.jar" );
+        try ( ZipOutputStream out = new ZipOutputStream( new FileOutputStream( jar ) ) )
+        {
+            put( out, "p/A.class", "stored".getBytes( "UTF-8" ), ZipEntry.STORED );
+            put( out, "p/q/B.class", "deflated deflated deflated".getBytes( "UTF-8" ), ZipEntry.DEFLATED );
+            put( out, "p/readme.txt", "not a class".getBytes( "UTF-8" ), ZipEntry.DEFLATED );
+        }
+        MappedArchives.Archive archive = MappedArchives.Archive.open( jar );
+
+        List<JavaFileObject> files = new ArrayList<JavaFileObject>();
+        archive.list( "p", false, files );
+        assertEquals( 1, files.size() );
+        assertEquals( "p.A", ( (MappedArchives.ArchiveClassFile) files.get( 0 ) ).binaryName() );
+        assertEquals( "stored", read( files.get( 0 ) ) );
+        assertTrue( files.get( 0 ).isNameCompatible( "A", JavaFileObject.Kind.CLASS ) );
+
+        files.clear();
+        archive.list( "p", true, files );
+        assertEquals( 2, files.size() );
+        assertEquals( "deflated deflated deflated", read( files.get( 1 ) ) );
+    }
+
+    public void testTakesMappedArchivesOffTheBootClasspath()
+        throws Exception
+    {
+        File jar = new File( workDir, "a.jar" );
+        try ( ZipOutputStream out = new ZipOutputStream( new FileOutputStream( jar ) ) )
+        {
+            put( out, "p/A.class", "a".getBytes( "UTF-8" ), ZipEntry.DEFLATED );
+        }
+        File other = new File( workDir, "other" );
+        assertTrue( other.mkdir() );
+        standardFileManager.setLocation( StandardLocation.PLATFORM_CLASS_PATH, Arrays.asList( jar, other ) );
+        MappedArchives fileManager = new MappedArchives( standardFileManager, standardFileManager,
+                                                         Collections.singleton( jar.getAbsolutePath() ) );
+
+        Iterable<JavaFileObject> files = fileManager.list( StandardLocation.PLATFORM_CLASS_PATH, "p",
+                                                           EnumSet.of( JavaFileObject.Kind.CLASS ), false );
+        JavaFileObject file = files.iterator().next();
+        assertEquals( "p.A", fileManager.inferBinaryName( StandardLocation.PLATFORM_CLASS_PATH, file ) );
+        assertEquals( "a", read( file ) );
+        List<File> bootClasspath = new ArrayList<File>();
+        for ( File entry : standardFileManager.getLocation( StandardLocation.PLATFORM_CLASS_PATH ) )
+        {
+            bootClasspath.add( entry );
+        }
+        assertEquals( Collections.singletonList( other ), bootClasspath );
+    }
+
+    private static void put( ZipOutputStream out, String name, byte[] content, int method )
+        throws Exception
+    {
+        ZipEntry entry = new ZipEntry( name );
+        entry.setMethod( method );
+        if ( method == ZipEntry.STORED )
+        {
+            CRC32 crc = new CRC32();
+            crc.update( content );
+            entry.setCrc( crc.getValue() );
+            entry.setSize( content.length );
+        }
+        out.putNextEntry( entry );
+        out.write( content );
+        out.closeEntry();
+    }
+
+    private static String read( JavaFileObject file )
+        throws Exception
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try ( InputStream in = file.openInputStream() )
+        {
+            byte[] buffer = new byte[3];
+            for ( int n; ( n = in.read( buffer ) ) > 0; )
+            {
+                bytes.write( buffer, 0, n );
+            }
+        }
+        return bytes.toString( "UTF-8" );
+    }
+}
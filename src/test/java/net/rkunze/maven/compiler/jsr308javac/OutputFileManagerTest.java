@@ -0,0 +1,139 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import junit.framework.TestCase;
+import org.codehaus.plexus.util.FileUtils;
+
+public class OutputFileManagerTest
+    extends TestCase
+{
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    private static final long PAST = System.currentTimeMillis() - 60000;
+
+    private File workDir;
+
+    private StandardJavaFileManager standardFileManager;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+        workDir = Files.createTempDirectory( "output-file-manager" ).toFile();
+        standardFileManager = ToolProvider.getSystemJavaCompiler().getStandardFileManager( null, null, UTF8 );
+        standardFileManager.setLocation( StandardLocation.CLASS_OUTPUT, Collections.singletonList( workDir ) );
+    }
+
+    @Override
+    protected void tearDown()
+        throws Exception
+    {
+        standardFileManager.close();
+        FileUtils.deleteDirectory( workDir );
+        super.tearDown();
+    }
+
+    public void testSkipsUnchangedOutputs()
+        throws Exception
+    {
+        File classFile = new File( workDir, "p/A.class" );
+
+        OutputFileManager manager = new OutputFileManager( standardFileManager, UTF8 );
+        write( manager, "p.A", new byte[]{ 1, 2, 3 } );
+        assertEquals( Collections.<String>emptyList(), manager.finish() );
+        assertEquals( 1, manager.getWrittenCount() );
+        assertEquals( 0, manager.getUnchangedCount() );
+        assertTrue( classFile.setLastModified( PAST ) );
+
+        manager = new OutputFileManager( standardFileManager, UTF8 );
+        write( manager, "p.A", new byte[]{ 1, 2, 3 } );
+        assertEquals( Collections.<String>emptyList(), manager.finish() );
+        assertEquals( 0, manager.getWrittenCount() );
+        assertEquals( 1, manager.getUnchangedCount() );
+        assertEquals( PAST / 1000, classFile.lastModified() / 1000 );
+
+        manager = new OutputFileManager( standardFileManager, UTF8 );
+        write( manager, "p.A", new byte[]{ 1, 2, 4 } );
+        assertEquals( Collections.<String>emptyList(), manager.finish() );
+        assertEquals( 1, manager.getWrittenCount() );
+        assertEquals( 4, Files.readAllBytes( classFile.toPath() )[2] );
+    }
+
+    public void testServesClosedOutputsBeforeTheyAreWritten()
+        throws Exception
+    {
+        OutputFileManager manager = new OutputFileManager( standardFileManager, UTF8 );
+        for ( int i = 0; i < 20; i++ )
+        {
+            write( manager, "p.B" + i, new byte[]{ (byte) i } );
+            JavaFileObject input =
+                manager.getJavaFileForInput( StandardLocation.CLASS_OUTPUT, "p.B" + i, JavaFileObject.Kind.CLASS );
+            assertNotNull( input );
+            assertEquals( i, input.openInputStream().read() );
+        }
+        assertEquals( Collections.<String>emptyList(), manager.finish() );
+        assertEquals( 20, manager.getWrittenCount() );
+    }
+
+    public void testFinishReportsWriteErrors()
+        throws Exception
+    {
+        Files.write( new File( workDir, "q" ).toPath(), new byte[0] );
+
+        OutputFileManager manager = new OutputFileManager( standardFileManager, UTF8 );
+        write( manager, "q.C", new byte[]{ 1 } );
+        List<String> errors = manager.finish();
+        assertEquals( 1, errors.size() );
+        assertTrue( errors.get( 0 ), errors.get( 0 ).startsWith( "could not write " ) );
+        assertEquals( 0, manager.getWrittenCount() );
+    }
+
+    private static void write( OutputFileManager manager, String className, byte[] content )
+        throws Exception
+    {
+        JavaFileObject file =
+            manager.getJavaFileForOutput( StandardLocation.CLASS_OUTPUT, className, JavaFileObject.Kind.CLASS, null );
+        OutputStream out = file.openOutputStream();
+        try
+        {
+            out.write( content );
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import junit.framework.TestCase;
+import org.codehaus.plexus.compiler.CompilerConfiguration;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.codehaus.plexus.util.FileUtils;
+
+public class ProcessorDiscoveryTest
+    extends TestCase
+{
+    private static final String SERVICES = "META-INF/services/javax.annotation.processing.Processor";
+
+    private File workDir;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+        workDir = Files.createTempDirectory( "discovery" ).toFile();
+    }
+
+    @Override
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( workDir );
+        super.tearDown();
+    }
+
+    public void testFindsProcessorsInPathOrder()
+        throws Exception
+    {
+        File dir = new File( workDir, "classes" );
+        File services = new File( dir, SERVICES );
+        services.getParentFile().mkdirs();
+        FileUtils.fileWrite( services.getAbsolutePath(), "UTF-8", "# comment\np.First\n\np.Second # trailing\n" );
+
+        File jar = new File( workDir, "proc.jar" );
+        try ( ZipOutputStream out = new ZipOutputStream( new FileOutputStream( jar ) ) )
+        {
+            out.putNextEntry( new ZipEntry( SERVICES ) );
+            out.write( "q.Third\np.First\n".getBytes( Charset.forName( "UTF-8" ) ) );
+            out.closeEntry();
+        }
+
+        assertEquals( Arrays.asList( "p.First", "p.Second", "q.Third" ), ProcessorDiscovery.discover(
+            Arrays.asList( dir, new File( workDir, "missing.jar" ), jar ) ) );
+    }
+
+    public void testStatKeyChangesWithServiceFiles()
+        throws Exception
+    {
+        File dir = new File( workDir, "classes" );
+        File services = new File( dir, SERVICES );
+        services.getParentFile().mkdirs();
+        List<File> path = Arrays.asList( dir );
+        String empty = ProcessorDiscovery.statKey( path );
+
+        FileUtils.fileWrite( services.getAbsolutePath(), "UTF-8", "p.First\n" );
+        String one = ProcessorDiscovery.statKey( path );
+        assertFalse( empty.equals( one ) );
+        assertEquals( one, ProcessorDiscovery.statKey( path ) );
+
+        FileUtils.fileWrite( services.getAbsolutePath(), "UTF-8", "p.First\np.Second\n" );
+        assertFalse( one.equals( ProcessorDiscovery.statKey( path ) ) );
+    }
+
+    public void testDiscoversCachedProcessors()
+        throws Exception
+    {
+        File jar = new File( workDir, "proc.jar" );
+        try ( ZipOutputStream out = new ZipOutputStream( new FileOutputStream( jar ) ) )
+        {
+            out.putNextEntry( new ZipEntry( SERVICES ) );
+            out.write( "q.Third\n".getBytes( Charset.forName( "UTF-8" ) ) );
+            out.closeEntry();
+        }
+        CompilerConfiguration config = new CompilerConfiguration();
+        config.addCompilerCustomArgument( "-Xjsr308.cacheProcessorDiscovery", "true" );
+        String[] args = { "-classpath", jar.getAbsolutePath() };
+        Logger logger = new ConsoleLogger( ConsoleLogger.LEVEL_DISABLED, "test" );
+
+        List<String> expected = Arrays.asList( "-classpath", jar.getAbsolutePath(), "-processor", "q.Third" );
+        assertEquals( expected, Arrays.asList( ProcessorDiscovery.apply( config, PluginOptions.of( config ), args,
+                                                                         logger ) ) );
+        assertEquals( expected, Arrays.asList( ProcessorDiscovery.apply( config, PluginOptions.of( config ), args,
+                                                                         logger ) ) );
+        assertTrue( ProcessorDiscovery.providesProcessors( jar ) );
+        assertFalse( ProcessorDiscovery.providesProcessors( workDir ) );
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import junit.framework.TestCase;
+import org.codehaus.plexus.util.FileUtils;
+
+public class ProcessorLoaderCacheTest
+    extends TestCase
+{
+    private File workDir;
+
+    private StandardJavaFileManager fileManager;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+        workDir = Files.createTempDirectory( "processor-loader" ).toFile();
+        fileManager = ToolProvider.getSystemJavaCompiler().getStandardFileManager( null, null, null );
+    }
+
+    @Override
+    protected void tearDown()
+        throws Exception
+    {
+        fileManager.close();
+        FileUtils.deleteDirectory( workDir );
+        super.tearDown();
+    }
+
+    public void testRebuiltClassDirectoryKeepsTheLoader()
+        throws Exception
+    {
+        File classes = directory( "classes" );
+        use( classes ).release();
+
+        assertTrue( classes.setLastModified( classes.lastModified() + 5000 ) );
+        FileUtils.fileWrite( new File( classes, "New.class" ).getAbsolutePath(), "UTF-8", "changed" );
+        ProcessorLoaderCache.CachingFileManager second = use( classes );
+        second.release();
+        assertEquals( Boolean.TRUE, second.isLoaderReused() );
+    }
+
+    public void testChangedJarGetsANewLoader()
+        throws Exception
+    {
+        File jar = new File( workDir, "processor.jar" );
+        FileUtils.fileWrite( jar.getAbsolutePath(), "UTF-8", "jar" );
+        use( jar ).release();
+
+        FileUtils.fileWrite( jar.getAbsolutePath(), "UTF-8", "changed jar" );
+        ProcessorLoaderCache.CachingFileManager second = use( jar );
+        second.release();
+        assertEquals( Boolean.FALSE, second.isLoaderReused() );
+    }
+
+    public void testEvictedLoaderIsClosedWhenReleased()
+        throws Exception
+    {
+        File held = directory( "held" );
+        FileUtils.fileWrite( new File( held, "marker.txt" ).getAbsolutePath(), "UTF-8", "marker" );
+        ProcessorLoaderCache.CachingFileManager compile = ProcessorLoaderCache.wrap( fileManager );
+        ClassLoader loader = loaderFor( compile, held );
+
+        for ( int i = 0; i < 5; i++ )
+        {
+            use( directory( "other" + i ) ).release();
+        }
+        assertNotNull( "closed while in use", loader.getResource( "marker.txt" ) );
+
+        compile.release();
+        assertNull( "not closed", loader.getResource( "marker.txt" ) );
+    }
+
+    private File directory( String name )
+    {
+        File dir = new File( workDir, name );
+        dir.mkdirs();
+        return dir;
+    }
+
+    private ProcessorLoaderCache.CachingFileManager use( File entry )
+        throws Exception
+    {
+        ProcessorLoaderCache.CachingFileManager cachingFileManager = ProcessorLoaderCache.wrap( fileManager );
+        loaderFor( cachingFileManager, entry );
+        return cachingFileManager;
+    }
+
+    private ClassLoader loaderFor( ProcessorLoaderCache.CachingFileManager cachingFileManager, File entry )
+        throws Exception
+    {
+        List<File> path = Collections.singletonList( entry );
+        fileManager.setLocation( StandardLocation.ANNOTATION_PROCESSOR_PATH, path );
+        return cachingFileManager.getClassLoader( StandardLocation.ANNOTATION_PROCESSOR_PATH );
+    }
+}
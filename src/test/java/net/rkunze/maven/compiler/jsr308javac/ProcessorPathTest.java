@@ -0,0 +1,72 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+
+public class ProcessorPathTest
+    extends TestCase
+{
+    private static final String OUTPUT = new File( "target/classes" ).getAbsolutePath();
+
+    private static final String LIB = new File( "lib.jar" ).getAbsolutePath();
+
+    public void testClasspathFollowsTheCheckerWithoutTheOutputDirectory()
+    {
+        String checker = ClasspathConfig.getCheckerJar().getAbsolutePath();
+        List<String> args = Arrays.asList( ProcessorPath.apply( new String[]{ "-d", OUTPUT, "-classpath",
+            OUTPUT + File.pathSeparator + checker + File.pathSeparator + LIB } ) );
+
+        assertEquals( OUTPUT + File.pathSeparator + ClasspathConfig.getCheckerQualJar().getAbsolutePath()
+            + File.pathSeparator + LIB, args.get( args.indexOf( "-classpath" ) + 1 ) );
+        assertEquals( checker + File.pathSeparator + LIB, args.get( args.indexOf( "-processorpath" ) + 1 ) );
+    }
+
+    public void testConfiguredProcessorPathReplacesTheClasspath()
+    {
+        String checker = ClasspathConfig.getCheckerJar().getAbsolutePath();
+        List<String> args = Arrays.asList( ProcessorPath.apply( new String[]{ "-d", OUTPUT, "-processorpath",
+            "processor.jar", "-classpath", OUTPUT + File.pathSeparator + LIB } ) );
+
+        assertEquals( 1, count( args, "-processorpath" ) );
+        assertEquals( checker + File.pathSeparator + "processor.jar",
+                      args.get( args.indexOf( "-processorpath" ) + 1 ) );
+    }
+
+    private static int count( List<String> args, String arg )
+    {
+        int count = 0;
+        for ( String a : args )
+        {
+            if ( a.equals( arg ) )
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import junit.framework.TestCase;
+
+public class ShardedCheckTest
+    extends TestCase
+{
+    public void testBalancesByRecordedCost()
+    {
+        Map<String, Long> costs = new HashMap<String, Long>();
+        costs.put( "A.java", 100L );
+        costs.put( "B.java", 60L );
+        costs.put( "C.java", 50L );
+        costs.put( "D.java", 10L );
+
+        List<List<String>> shards =
+            ShardedCheck.partition( new String[]{ "A.java", "B.java", "C.java", "D.java" }, costs, 2 );
+
+        assertEquals( Arrays.asList( Arrays.asList( "A.java", "D.java" ), Arrays.asList( "B.java", "C.java" ) ),
+                      shards );
+    }
+
+    public void testUnknownFilesCountAsAverage()
+    {
+        Map<String, Long> costs = new HashMap<String, Long>();
+        costs.put( "A.java", 30L );
+        costs.put( "B.java", 10L );
+
+        List<List<String>> shards =
+            ShardedCheck.partition( new String[]{ "A.java", "B.java", "C.java" }, costs, 2 );
+
+        assertEquals( Arrays.asList( Arrays.asList( "A.java" ), Arrays.asList( "B.java", "C.java" ) ), shards );
+    }
+
+    public void testNoEmptyShards()
+    {
+        List<List<String>> shards =
+            ShardedCheck.partition( new String[]{ "A.java" }, new HashMap<String, Long>(), 4 );
+
+        assertEquals( Arrays.asList( Arrays.asList( "A.java" ) ), shards );
+    }
+}
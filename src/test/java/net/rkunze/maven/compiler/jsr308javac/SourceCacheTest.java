@@ -0,0 +1,123 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import junit.framework.TestCase;
+import org.codehaus.plexus.util.FileUtils;
+
+public class SourceCacheTest
+    extends TestCase
+{
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    private static final long PAST = System.currentTimeMillis() - 60000;
+
+    private File workDir;
+
+    private StandardJavaFileManager standardFileManager;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+        workDir = Files.createTempDirectory( "source-cache" ).toFile();
+        standardFileManager = ToolProvider.getSystemJavaCompiler().getStandardFileManager( null, null, UTF8 );
+    }
+
+    @Override
+    protected void tearDown()
+        throws Exception
+    {
+        standardFileManager.close();
+        FileUtils.deleteDirectory( workDir );
+        super.tearDown();
+    }
+
+    public void testServesUnchangedSourcesFromMemory()
+        throws Exception
+    {
+        File source = write( "A.java", "class A {}".getBytes( UTF8 ) );
+
+        assertEquals( "class A {}", read( new SourceCache( standardFileManager, UTF8, 1 << 20 ), source ) );
+        SourceCache cache = new SourceCache( standardFileManager, UTF8, 1 << 20 );
+        assertEquals( "class A {}", read( cache, source ) );
+        assertEquals( 1, cache.getHits() );
+        assertEquals( 0, cache.getMisses() );
+
+        write( "A.java", "class A { }".getBytes( UTF8 ) );
+        cache = new SourceCache( standardFileManager, UTF8, 1 << 20 );
+        assertEquals( "class A { }", read( cache, source ) );
+        assertEquals( 0, cache.getHits() );
+        assertEquals( 1, cache.getMisses() );
+    }
+
+    public void testDoesNotCacheUndecodableSources()
+        throws Exception
+    {
+        File source = write( "B.java", new byte[]{ 'c', 'l', 'a', 's', 's', ' ', (byte) 0xff } );
+
+        read( new SourceCache( standardFileManager, UTF8, 1 << 20 ), source );
+        SourceCache cache = new SourceCache( standardFileManager, UTF8, 1 << 20 );
+        read( cache, source );
+        assertEquals( 0, cache.getHits() );
+        assertEquals( 1, cache.getMisses() );
+    }
+
+    public void testEvictsWhenFull()
+        throws Exception
+    {
+        File c = write( "C.java", "class C {}".getBytes( UTF8 ) );
+        File d = write( "D.java", "class D {}".getBytes( UTF8 ) );
+
+        read( new SourceCache( standardFileManager, UTF8, 20 ), c );
+        read( new SourceCache( standardFileManager, UTF8, 20 ), d );
+        SourceCache cache = new SourceCache( standardFileManager, UTF8, 20 );
+        read( cache, c );
+        assertEquals( 0, cache.getHits() );
+    }
+
+    private File write( String name, byte[] content )
+        throws Exception
+    {
+        File file = new File( workDir, name );
+        Files.write( file.toPath(), content );
+        assertTrue( file.setLastModified( PAST ) );
+        return file;
+    }
+
+    private String read( SourceCache cache, File source )
+        throws Exception
+    {
+        List<JavaFileObject> units = cache.wrap( standardFileManager.getJavaFileObjects( source ) );
+        return units.get( 0 ).getCharContent( true ).toString();
+    }
+}
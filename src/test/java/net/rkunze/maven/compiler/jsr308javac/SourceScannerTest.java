@@ -0,0 +1,132 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.TreeSet;
+import junit.framework.TestCase;
+import org.codehaus.plexus.compiler.CompilerConfiguration;
+import org.codehaus.plexus.util.FileUtils;
+
+public class SourceScannerTest
+    extends TestCase
+{
+    private static final long PAST = System.currentTimeMillis() - 60000;
+
+    private File workDir;
+
+    private File root;
+
+    private CompilerConfiguration config;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+        workDir = Files.createTempDirectory( "scanner" ).toFile();
+        root = new File( workDir, "src" );
+        config = new CompilerConfiguration();
+        config.setOutputLocation( new File( workDir, "classes" ).getAbsolutePath() );
+        config.addSourceLocation( root.getAbsolutePath() );
+        config.addCompilerCustomArgument( "-Xjsr308.parallelSourceScan", "true" );
+        config.addCompilerCustomArgument( "-Xjsr308.sourceSnapshot", "true" );
+        config.addCompilerCustomArgument( "-Xjsr308.stateDir", new File( workDir, "state" ).getAbsolutePath() );
+    }
+
+    @Override
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( workDir );
+        super.tearDown();
+    }
+
+    private File write( String path, String content )
+        throws Exception
+    {
+        File file = new File( root, path );
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite( file.getAbsolutePath(), "UTF-8", content );
+        file.setLastModified( PAST );
+        return file;
+    }
+
+    // Directory time stamps close to the scan are not trusted
+    private void ageDirectories( File dir )
+    {
+        for ( File child : dir.listFiles() )
+        {
+            if ( child.isDirectory() )
+            {
+                ageDirectories( child );
+            }
+        }
+        dir.setLastModified( PAST );
+    }
+
+    private SourceScanner scanner()
+    {
+        return SourceScanner.create( config, PluginOptions.of( config ) );
+    }
+
+    public void testFindsSameFilesAsDirectoryScanner()
+        throws Exception
+    {
+        File a = write( "a/A.java", "class A {}" );
+        File b = write( "a/b/B.java", "class B {}" );
+        write( "a/b/notes.txt", "" );
+        write( "c/C.java", "class C {}" );
+        config.setExcludes( Collections.singleton( "c/**" ) );
+
+        assertEquals( Arrays.asList( a.getPath(), b.getPath() ), Arrays.asList( scanner().scan() ) );
+    }
+
+    public void testReportsChangedFilesSinceSnapshot()
+        throws Exception
+    {
+        File a = write( "a/A.java", "class A {}" );
+        File b = write( "a/b/B.java", "class B {}" );
+        ageDirectories( root );
+
+        SourceScanner first = scanner();
+        assertEquals( 2, first.scan().length );
+        assertNull( first.getChangedFiles() );
+        first.saveSnapshot();
+
+        SourceScanner second = scanner();
+        assertEquals( 2, second.scan().length );
+        assertEquals( Collections.emptySet(), second.getChangedFiles() );
+
+        write( "a/b/B.java", "class B { int x; }" );
+        File d = write( "a/d/D.java", "class D {}" );
+        SourceScanner third = scanner();
+        assertEquals( Arrays.asList( a.getPath(), b.getPath(), d.getPath() ), Arrays.asList( third.scan() ) );
+        assertEquals( new TreeSet<String>( Arrays.asList( b.getPath(), d.getPath() ) ),
+                      new TreeSet<String>( third.getChangedFiles() ) );
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2014, Richard Kunze
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies
+ * of the Software, and to permit persons to whom the Software is furnished to do
+ * so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package net.rkunze.maven.compiler.jsr308javac;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.List;
+import junit.framework.TestCase;
+import org.codehaus.plexus.compiler.CompilerConfiguration;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.codehaus.plexus.util.FileUtils;
+
+public class StackSamplerTest
+    extends TestCase
+{
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    private File workDir;
+
+    @Override
+    protected void setUp()
+        throws Exception
+    {
+        super.setUp();
+        workDir = Files.createTempDirectory( "stack-sampler" ).toFile();
+    }
+
+    @Override
+    protected void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( workDir );
+        super.tearDown();
+    }
+
+    public void testDisabledByDefault()
+        throws Exception
+    {
+        CompilerConfiguration config = new CompilerConfiguration();
+        assertNull( StackSampler.create( config, PluginOptions.of( config ) ) );
+    }
+
+    public void testWritesCollapsedStacksOfTheCurrentThread()
+        throws Exception
+    {
+        CompilerConfiguration config = new CompilerConfiguration();
+        config.addCompilerCustomArgument( "-Xjsr308.stateDir", workDir.getAbsolutePath() );
+        config.addCompilerCustomArgument( "-Xjsr308.profileInterval", "1" );
+        StackSampler sampler = StackSampler.create( config, PluginOptions.of( config ) );
+        sampler.start();
+        spin( 300 );
+        sampler.stop( new ConsoleLogger( ConsoleLogger.LEVEL_DISABLED, "test" ) );
+
+        List<String> lines = Files.readAllLines( new File( workDir, "profile.collapsed" ).toPath(), UTF8 );
+        assertFalse( lines.isEmpty() );
+        boolean spinning = false;
+        for ( String line : lines )
+        {
+            assertTrue( line, line.matches( "\\[javac\\];[^ ]+ [0-9]+" ) );
+            spinning |= line.contains( ";" + getClass().getName() + ".spin" );
+        }
+        assertTrue( lines.toString(), spinning );
+    }
+
+    private static long spin( long millis )
+    {
+        long end = System.currentTimeMillis() + millis;
+        long count = 0;
+        while ( System.currentTimeMillis() < end )
+        {
+            count++;
+        }
+        return count;
+    }
+}